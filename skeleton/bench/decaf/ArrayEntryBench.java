@@ -0,0 +1,44 @@
+package decaf;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports the heap allocated per element to fill a large global array
+ * at compile time, as constant evaluation would: into an IntArrayEntry,
+ * and into the List<Integer> the entry used to hold.
+ *
+ *   java decaf.ArrayEntryBench [size]
+ */
+public class ArrayEntryBench {
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 800000;
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		long self = Thread.currentThread().getId();
+		long check = 0;
+		System.out.println("representation\tbytes/element");
+		for (int round=0; round<2; round++) { // the first round warms up
+			long allocated = threads.getThreadAllocatedBytes(self);
+			List<Integer> list = new ArrayList<Integer>();
+			for (int i=0; i<size; i++)
+				list.add(i * 7);
+			check += list.get(size - 1);
+			double boxed = (threads.getThreadAllocatedBytes(self) - allocated) / (double) size;
+
+			allocated = threads.getThreadAllocatedBytes(self);
+			IntArrayEntry entry = new IntArrayEntry(size);
+			for (int i=0; i<size; i++)
+				entry.setValue(i, i * 7);
+			check += entry.getValue(size - 1);
+			double primitive = (threads.getThreadAllocatedBytes(self) - allocated) / (double) size;
+			if (round == 1) {
+				System.out.printf("List<Integer>\t%.1f%n", boxed);
+				System.out.printf("IntArrayEntry\t%.1f%n", primitive);
+			}
+		}
+		if (check == 42)
+			System.out.println();
+	}
+}
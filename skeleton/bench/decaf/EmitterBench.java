@@ -0,0 +1,132 @@
+package decaf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java6035.tools.CLI.*;
+
+/**
+ * Times lowering of large programs and reports the peak heap used
+ * while doing it, once with output streamed to a sink that throws it
+ * away and once with all output collected in memory, as it was before
+ * code generation streamed.
+ *
+ *   java decaf.EmitterBench [file ...]
+ *
+ * Besides any files named, always runs a generated program of
+ * 100,000 statements spread over 1,000 methods.
+ */
+public class EmitterBench {
+	private static final int WARMUP = 3;
+	private static final int ROUNDS = 5;
+	private static final int METHODS = 1000;
+	private static final int STATEMENTS = 100;
+	
+	public static void main(String[] args) throws Exception {
+		CLI.parse(args, new String[0]);
+		CLI.target = CLI.LOWIR;
+		System.out.println("program\tbytes in\tbytes out\tmode\tms\tpeak heap MB");
+		for (String file : CLI.infiles)
+			run(file, Files.readAllBytes(new File(file).toPath()));
+		run("synthetic", synthetic());
+	}
+	
+	private static void run(String name, byte[] source) {
+		for (int streamed=0; streamed<=1; streamed++) {
+			for (int i=0; i<WARMUP; i++)
+				compile(name, source, streamed == 1);
+			long outBytes = 0;
+			long time = 0;
+			long peak = 0;
+			for (int i=0; i<ROUNDS; i++) {
+				System.gc();
+				resetPeaks();
+				long start = System.nanoTime();
+				outBytes = compile(name, source, streamed == 1);
+				time += System.nanoTime() - start;
+				peak = Math.max(peak, peakHeap());
+			}
+			System.out.printf("%s\t%d\t%d\t%s\t%.1f\t%.1f%n", name, source.length,
+					outBytes, streamed == 1 ? "stream" : "buffer", 
+					time / 1e6 / ROUNDS, peak / 1048576.0);
+		}
+	}
+	
+	private static long compile(String name, byte[] source, boolean streamed) {
+		CountingStream sink = new CountingStream(!streamed);
+		PrintStream out = new PrintStream(sink);
+		CompilationContext ctx = new CompilationContext(name, null, out, out);
+		Main.compile(ctx, new SourceBuffer(ByteBuffer.wrap(source)));
+		out.flush();
+		return sink.count;
+	}
+	
+	/**
+	 * A program with METHODS methods of STATEMENTS assignments and ifs
+	 * each, plus a main that calls them.
+	 */
+	private static byte[] synthetic() {
+		StringBuilder s = new StringBuilder("class Program {\n");
+		s.append("\tint g;\n");
+		for (int m=0; m<METHODS; m++) {
+			s.append("\tvoid f").append(m).append("(int a, int b) {\n");
+			for (int i=0; i<STATEMENTS; i++) {
+				switch (i % 4) {
+				case 0: s.append("\t\ta = a + b * ").append(i).append(";\n"); break;
+				case 1: s.append("\t\tb = -a - ").append(i).append(";\n"); break;
+				case 2: s.append("\t\tif (a < b) { g = a; } else { g = b; }\n"); break;
+				case 3: s.append("\t\tg += a;\n"); break;
+				}
+			}
+			s.append("\t}\n");
+		}
+		s.append("\tvoid main() {\n");
+		for (int m=0; m<METHODS; m++)
+			s.append("\t\tf").append(m).append("(").append(m).append(", 1);\n");
+		s.append("\t}\n}\n");
+		return s.toString().getBytes();
+	}
+	
+	private static void resetPeaks() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+	
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+	
+	/**
+	 * Counts what is written to it, and keeps it only if asked to.
+	 */
+	private static class CountingStream extends OutputStream {
+		private final ByteArrayOutputStream kept;
+		long count;
+		
+		CountingStream(boolean keep) {
+			kept = keep ? new ByteArrayOutputStream() : null;
+		}
+		
+		public void write(int b) {
+			count++;
+			if (kept != null)
+				kept.write(b);
+		}
+		
+		public void write(byte[] b, int off, int len) {
+			count += len;
+			if (kept != null)
+				kept.write(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package decaf;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java6035.tools.CLI.*;
+
+/**
+ * Times the front end (scan, parse and semantic check, i.e. -target
+ * inter) over a set of files, and reports the heap it allocates.
+ *
+ *   java decaf.FrontEndBench [-scanner s] [-target t] [-opt fused] file ...
+ *
+ * Sources are read into memory up front and output is discarded.  Each
+ * file is compiled on this thread, one after another.
+ */
+public class FrontEndBench {
+	private static final int WARMUP = 10;
+	private static final int ROUNDS = 20;
+
+	public static void main(String[] args) throws Exception {
+		CLI.parse(args, Main.OPTS);
+		if (CLI.target == CLI.DEFAULT)
+			CLI.target = CLI.INTER;
+		List<String> files = CLI.infiles;
+		byte[][] sources = new byte[files.size()][];
+		long totalBytes = 0;
+		for (int i=0; i<files.size(); i++) {
+			sources[i] = Files.readAllBytes(new File(files.get(i)).toPath());
+			totalBytes += sources[i].length;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		long self = Thread.currentThread().getId();
+		for (int i=0; i<WARMUP; i++)
+			compileAll(files, sources);
+		long allocated = threads.getThreadAllocatedBytes(self);
+		long start = System.nanoTime();
+		for (int i=0; i<ROUNDS; i++)
+			compileAll(files, sources);
+		double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+		allocated = (threads.getThreadAllocatedBytes(self) - allocated) / ROUNDS;
+		System.out.println("files\tbytes\tms/round\tKB allocated/round");
+		System.out.printf("%d\t%d\t%.2f\t%.0f%n", files.size(), totalBytes, ms, 
+				allocated / 1024.0);
+	}
+
+	private static void compileAll(List<String> files, byte[][] sources) {
+		PrintStream out = new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		for (int i=0; i<sources.length; i++) {
+			CompilationContext ctx = new CompilationContext(files.get(i), null, out, out);
+			Main.compile(ctx, new SourceBuffer(ByteBuffer.wrap(sources[i])));
+		}
+	}
+}
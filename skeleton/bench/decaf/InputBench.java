@@ -0,0 +1,105 @@
+package decaf;
+
+import java.io.*;
+import java.nio.file.Files;
+import antlr.Token;
+import antlr.TokenStream;
+import java6035.tools.CLI.*;
+
+/**
+ * Compares ways of getting a large source file into the scanners: the
+ * unbuffered DataInputStream Main used to hand DecafScanner, a bulk
+ * read of the same stream (what standard input gets), and a memory
+ * mapping (what named files get).
+ *
+ *   java decaf.InputBench file ...
+ *
+ * The named files are concatenated and repeated into a temporary file
+ * of at least 8 MB, which is then scanned to the end each way.
+ */
+public class InputBench {
+	private static final int WARMUP = 1;
+	private static final int ROUNDS = 3;
+	private static final int MIN_BYTES = 8 * 1024 * 1024;
+
+	private static final String[] PATHS = {
+		"stream/antlr", "read/antlr", "map/antlr", "map/dfa"
+	};
+
+	public static void main(String[] args) throws Exception {
+		CLI.parse(args, new String[0]);
+		ByteArrayOutputStream one = new ByteArrayOutputStream();
+		for (String file : CLI.infiles)
+			one.write(Files.readAllBytes(new File(file).toPath()));
+		if (one.size() == 0) {
+			System.err.println("usage: InputBench file ...");
+			System.exit(1);
+		}
+		File big = File.createTempFile("InputBench", ".dcf");
+		big.deleteOnExit();
+		long size = 0;
+		OutputStream out = new FileOutputStream(big);
+		try {
+			while (size < MIN_BYTES) {
+				one.writeTo(out);
+				size += one.size();
+			}
+		} finally {
+			out.close();
+		}
+		System.out.println(size + " bytes");
+		System.out.println("input\ttokens\tms\tMB/s");
+		for (int path=0; path<PATHS.length; path++) {
+			long tokens = 0;
+			for (int i=0; i<WARMUP; i++)
+				tokens = scan(path, big.getPath());
+			long start = System.nanoTime();
+			for (int i=0; i<ROUNDS; i++)
+				tokens = scan(path, big.getPath());
+			double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+			System.out.printf("%s\t%d\t%.1f\t%.1f%n", PATHS[path], tokens, ms,
+					size / 1048576.0 / (ms / 1000));
+		}
+	}
+
+	/**
+	 * Opens file the given way and scans it to the end.  Returns the
+	 * number of tokens.
+	 */
+	private static long scan(int path, String file) throws Exception {
+		InputStream in = new FileInputStream(file);
+		try {
+			TokenStream lexer;
+			switch (path) {
+			case 0:
+				lexer = new DecafScanner(new DataInputStream(in));
+				break;
+			case 1:
+				lexer = new DecafScanner(SourceBuffer.read(in).inputBuffer());
+				break;
+			case 2:
+				lexer = new DecafScanner(SourceBuffer.map(file).inputBuffer());
+				break;
+			default:
+				lexer = new DfaScanner(SourceBuffer.map(file));
+				break;
+			}
+			long count = 0;
+			for (;;) {
+				try {
+					if (lexer.nextToken().getType() == Token.EOF_TYPE)
+						break;
+					count++;
+				} catch (antlr.TokenStreamRecognitionException e) {
+					if (lexer instanceof DfaScanner)
+						((DfaScanner) lexer).consume();
+					else
+						((DecafScanner) lexer).consume();
+				}
+			}
+			return count;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package decaf;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java6035.tools.CLI.*;
+
+/**
+ * Measures the heap an IR tree holds on to, per node.  Builds a
+ * synthetic program of about the given number of IR nodes, parses and
+ * checks it, and compares the live heap with and without the tree.
+ *
+ *   java decaf.IrHeapBench [nodes]
+ *
+ * Run with a heap large enough for the tree, e.g. -Xmx1g.
+ */
+public class IrHeapBench {
+	// roughly the IR nodes in one generated method
+	private static final int NODES_PER_METHOD = 93;
+
+	public static void main(String[] args) throws Exception {
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		CLI.parse(new String[0], new String[0]);
+		byte[] source = program(nodes / NODES_PER_METHOD).getBytes("US-ASCII");
+		PrintStream out = new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		});
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long before = liveHeap(memory);
+		CompilationContext ctx = new CompilationContext("bench", null, out, out);
+		IrNode root = build(ctx, source);
+		long after = liveHeap(memory);
+		int count = count(root);
+		System.out.println("nodes\tbytes\tbytes/node");
+		System.out.printf("%d\t%d\t%.1f%n", count, after - before,
+				(after - before) / (double) count);
+		if (root.getType() == Ir.ERROR)
+			System.out.println("(program has errors)");
+	}
+
+	private static IrNode build(CompilationContext ctx, byte[] source) throws Exception {
+		DecafParser parser = new DecafParser(
+				new DfaScanner(new SourceBuffer(ByteBuffer.wrap(source))), ctx);
+		parser.program();
+		IrNode root = parser.getIrTree();
+		new SemanticChecker(ctx).checkProgram((IrClassDecl) root);
+		return root;
+	}
+
+	private static long liveHeap(MemoryMXBean memory) {
+		for (int i=0; i<3; i++)
+			System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	private static int count(IrNode n) {
+		int count = 1;
+		for (int i=0; i<n.numChildren(); i++)
+			count += count(n.child(i));
+		return count;
+	}
+
+	/**
+	 * A program of the given number of methods, each a mix of
+	 * declarations, arithmetic, conditionals, loops and calls.
+	 */
+	static String program(int methods) {
+		StringBuilder s = new StringBuilder();
+		s.append("class Program {\n  int g;\n  int a[100];\n");
+		for (int m=0; m<methods; m++) {
+			s.append("  int m").append(m).append("(int p, boolean q) {\n");
+			s.append("    int x, y, i;\n    boolean b;\n");
+			s.append("    x = p * 3 + ").append(m % 1000).append(";\n");
+			s.append("    y = (x - p) / 2 % 7;\n");
+			s.append("    b = q && x < y || !(y == 4);\n");
+			s.append("    if (b) {\n      x += a[p % 100];\n    } else {\n      y -= 1;\n    }\n");
+			s.append("    for (i = 0; 10) {\n      a[i] = a[i] + x * i;\n");
+			s.append("      if (a[i] > 100) {\n        break;\n      }\n    }\n");
+			s.append("    g = g + -x;\n");
+			if (m > 0)
+				s.append("    y = m").append(m - 1).append("(y, !b) + 1;\n");
+			s.append("    callout(\"printf\", \"%d\\n\", x + y);\n");
+			s.append("    return x + y;\n  }\n");
+		}
+		s.append("  void main() {\n    callout(\"printf\", \"%d\\n\", m0(1, true));\n  }\n}\n");
+		return s.toString();
+	}
+}
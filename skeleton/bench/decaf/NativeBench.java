@@ -0,0 +1,93 @@
+package decaf;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java6035.tools.CLI.*;
+
+/**
+ * Times the code the compiler generates.  Each program is compiled to
+ * assembly, linked by gcc with the optimizer tests' pgm library, and
+ * run ROUNDS times in a scratch directory holding the input images.
+ * The best time between the program's start_caliper and end_caliper
+ * callouts is reported, with the best wall time of the whole run.
+ *
+ *   java decaf.NativeBench [file.dcf ...] [-opt name ...]
+ *
+ * Run it from skeleton/.  With no files it runs every program in
+ * tests/optimizer/input; -opt, as to the compiler, comes last.
+ */
+public class NativeBench {
+	private static final int ROUNDS = 5;
+	private static final File TESTS = new File("../tests/optimizer");
+
+	public static void main(String[] args) throws Exception {
+		List<String> cli = new ArrayList<String>(Arrays.asList("-target", "assembly"));
+		cli.addAll(Arrays.asList(args));
+		CLI.parse(cli.toArray(new String[0]), Main.OPTS);
+		List<String> files = new ArrayList<String>(CLI.infiles);
+		if (files.isEmpty()) {
+			String[] names = new File(TESTS, "input").list();
+			Arrays.sort(names);
+			for (String name : names)
+				files.add(new File(TESTS, "input/" + name).getPath());
+		}
+		File dir = Files.createTempDirectory("decaf-native").toFile();
+		for (File image : new File(TESTS, "data").listFiles())
+			Files.copy(image.toPath(), new File(dir, image.getName()).toPath());
+
+		System.out.println("program\tms kernel\tms wall");
+		for (String file : files) {
+			String name = new File(file).getName().replaceFirst("\\.dcf$", "");
+			File asm = new File(dir, name + ".s");
+			PrintStream out = new PrintStream(new FileOutputStream(asm));
+			int status = Main.compile(new CompilationContext(file, asm.getPath(),
+					out, System.err), SourceBuffer.map(file));
+			out.close();
+			if (status != 0)
+				throw new IllegalStateException(file + " did not compile");
+			run(dir, "gcc", "-o", name, asm.getName(),
+					new File(TESTS, "lib/6035.c").getAbsolutePath());
+			long kernel = Long.MAX_VALUE, wall = Long.MAX_VALUE;
+			for (int i=0; i<ROUNDS; i++) {
+				long start = System.nanoTime();
+				String output = run(dir, "./" + name);
+				wall = Math.min(wall, System.nanoTime() - start);
+				kernel = Math.min(kernel, caliper(output));
+			}
+			System.out.printf("%s\t%.2f\t%.2f%n", name, kernel / 1e3, wall / 1e6);
+		}
+
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	/**
+	 * Runs command in dir and returns what it printed, failing if it
+	 * exits with an error.
+	 */
+	private static String run(File dir, String... command) throws Exception {
+		Process p = new ProcessBuilder(command).directory(dir)
+				.redirectErrorStream(true).start();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream in = p.getInputStream();
+		byte[] buf = new byte[8192];
+		for (int n; (n = in.read(buf)) > 0; )
+			output.write(buf, 0, n);
+		if (p.waitFor() != 0)
+			throw new IllegalStateException(Arrays.toString(command) + " failed:\n" + output);
+		return output.toString();
+	}
+
+	// the microseconds from end_caliper's "Timer: N usecs" line
+	private static long caliper(String output) {
+		int at = output.lastIndexOf("Timer: ");
+		if (at < 0)
+			return 0;
+		String rest = output.substring(at + "Timer: ".length());
+		return Long.parseLong(rest.substring(0, rest.indexOf(' ')));
+	}
+}
@@ -0,0 +1,96 @@
+package decaf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java6035.tools.CLI.*;
+
+/**
+ * Times batch compilation of a set of files with 1, 2, 4, ... up to
+ * N worker threads, and checks that every thread count produces
+ * exactly the same output as the single-threaded run.
+ *
+ *   java decaf.ParallelBench [-target t] [-threads N] file ...
+ *
+ * N defaults to the number of available processors.  Sources are read
+ * into memory up front and output is kept in memory, so the numbers
+ * are compile time only.
+ */
+public class ParallelBench {
+	private static final int WARMUP = 3;
+	private static final int ROUNDS = 5;
+	
+	public static void main(String[] args) throws Exception {
+		CLI.parse(args, new String[0]);
+		List<String> files = CLI.infiles;
+		int maxThreads = CLI.threads > 1 ? CLI.threads 
+				: Runtime.getRuntime().availableProcessors();
+		byte[][] sources = new byte[files.size()][];
+		long totalBytes = 0;
+		for (int i=0; i<files.size(); i++) {
+			sources[i] = Files.readAllBytes(new File(files.get(i)).toPath());
+			totalBytes += sources[i].length;
+		}
+		System.out.println(files.size() + " files, " + totalBytes + " bytes");
+		System.out.println("threads\tms/round\tfiles/s\tspeedup\tidentical");
+		
+		byte[][] expected = null;
+		double baseMs = 0;
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			byte[][] outputs = null;
+			for (int i=0; i<WARMUP; i++)
+				outputs = compileAll(pool, files, sources);
+			long start = System.nanoTime();
+			for (int i=0; i<ROUNDS; i++)
+				outputs = compileAll(pool, files, sources);
+			double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+			pool.shutdown();
+			
+			if (expected == null) {
+				expected = outputs;
+				baseMs = ms;
+			}
+			boolean identical = true;
+			for (int i=0; i<outputs.length; i++) {
+				if (!Arrays.equals(expected[i], outputs[i]))
+					identical = false;
+			}
+			System.out.printf("%d\t%.1f\t%.0f\t%.2f\t%s%n", threads, ms, 
+					files.size() / (ms / 1000), baseMs / ms, identical);
+			if (threads < maxThreads && threads * 2 > maxThreads)
+				threads = maxThreads / 2; // make sure maxThreads itself is timed
+		}
+	}
+	
+	private static byte[][] compileAll(ExecutorService pool, List<String> files, 
+			final byte[][] sources) throws Exception {
+		List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+		for (int i=0; i<files.size(); i++) {
+			final String file = files.get(i);
+			final byte[] source = sources[i];
+			results.add(pool.submit(new Callable<byte[]>() {
+				public byte[] call() {
+					ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					PrintStream out = new PrintStream(bytes);
+					CompilationContext ctx = new CompilationContext(file, 
+							CLI.outfileFor(file), out, out);
+					Main.compile(ctx, new SourceBuffer(ByteBuffer.wrap(source)));
+					out.flush();
+					return bytes.toByteArray();
+				}
+			}));
+		}
+		byte[][] outputs = new byte[files.size()][];
+		for (int i=0; i<outputs.length; i++)
+			outputs[i] = results.get(i).get();
+		return outputs;
+	}
+}
@@ -0,0 +1,83 @@
+package decaf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java6035.tools.CLI.*;
+
+/**
+ * Times recompiling a synthetic program to low IR after editing one of
+ * its methods: without a cache, with a MethodCache that holds every
+ * method but the edited one, and with one that holds them all.
+ *
+ *   java decaf.RecompileBench [methods]
+ *
+ * The cache lives in a fresh temporary directory.  Output is discarded.
+ */
+public class RecompileBench {
+	private static final int WARMUP = 5;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) throws Exception {
+		int methods = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		CLI.parse(new String[] {"-target", "lowir", "-scanner", "dfa"}, Main.OPTS);
+		String program = IrHeapBench.program(methods);
+		File dir = Files.createTempDirectory("decaf-cache").toFile();
+		MethodCache cache = new MethodCache(dir.getPath());
+		byte[] original = program.getBytes("US-ASCII");
+		compile(original, cache); // fills the cache
+
+		System.out.println("run\tms/compile\thits\tmisses");
+		time("no cache", original, null);
+		for (int round=0; round<WARMUP + ROUNDS; round++)
+			compile(edit(program, round), cache); // warms up the edit path
+		int hits = cache.getHits(), misses = cache.getMisses();
+		long start = System.nanoTime();
+		for (int round=0; round<ROUNDS; round++)
+			compile(edit(program, WARMUP + ROUNDS + round), cache);
+		System.out.printf("one edit\t%.2f\t%d\t%d%n",
+				(System.nanoTime() - start) / 1e6 / ROUNDS,
+				(cache.getHits() - hits) / ROUNDS, (cache.getMisses() - misses) / ROUNDS);
+		time("no edit", original, cache);
+
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	/**
+	 * The program with a new constant in method m0, so that it, and it
+	 * alone, differs from every compile before it.
+	 */
+	private static byte[] edit(String program, int round) throws IOException {
+		return program.replaceFirst("x = p \\* 3 \\+ 0;",
+				"x = p * 3 + " + (1000 + round) + ";").getBytes("US-ASCII");
+	}
+
+	private static void time(String name, byte[] source, MethodCache cache) {
+		for (int i=0; i<WARMUP; i++)
+			compile(source, cache);
+		int hits = cache == null ? 0 : cache.getHits();
+		int misses = cache == null ? 0 : cache.getMisses();
+		long start = System.nanoTime();
+		for (int i=0; i<ROUNDS; i++)
+			compile(source, cache);
+		double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+		if (cache != null) {
+			hits = (cache.getHits() - hits) / ROUNDS;
+			misses = (cache.getMisses() - misses) / ROUNDS;
+		}
+		System.out.printf("%s\t%.2f\t%d\t%d%n", name, ms, hits, misses);
+	}
+
+	private static void compile(byte[] source, MethodCache cache) {
+		PrintStream out = new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		CompilationContext ctx = new CompilationContext("bench", null, out, out, cache);
+		Main.compile(ctx, new SourceBuffer(ByteBuffer.wrap(source)));
+	}
+}
@@ -0,0 +1,70 @@
+package decaf;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java6035.tools.CLI.*;
+
+/**
+ * Compiles generated programs of growing size to low IR and reports
+ * time and heap allocated against size, one row per size, for
+ * plotting.  Time per method should stay flat as long as every phase
+ * is linear.
+ *
+ *   java decaf.ScalingBench [methods ...]
+ *
+ * Programs come from ProgramGenerator with its default shape.  Output
+ * is discarded.
+ */
+public class ScalingBench {
+	private static final int WARMUP = 3;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = {250, 500, 1000, 2000, 4000, 8000};
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i=0; i<args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		CLI.parse(new String[] {"-target", "lowir", "-scanner", "dfa"}, Main.OPTS);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		System.out.println("methods\tKB source\tms/compile\tus/method\tMB allocated");
+		for (int size : sizes) {
+			byte[] source = new ProgramGenerator().methods(size).generate().getBytes("US-ASCII");
+			for (int i=0; i<WARMUP; i++)
+				compile(source);
+			long allocated = allocated(threads);
+			long start = System.nanoTime();
+			for (int i=0; i<ROUNDS; i++)
+				compile(source);
+			double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+			double mb = (allocated(threads) - allocated) / (double) ROUNDS / (1 << 20);
+			System.out.printf("%d\t%d\t%.1f\t%.1f\t%.1f%n", size, source.length / 1024,
+					ms, ms * 1000 / size, mb);
+		}
+	}
+
+	// lowering runs on the pool, so count every thread's allocation
+	private static long allocated(com.sun.management.ThreadMXBean threads) {
+		long sum = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (bytes > 0)
+				sum += bytes;
+		}
+		return sum;
+	}
+
+	private static void compile(byte[] source) {
+		PrintStream out = new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		CompilationContext ctx = new CompilationContext("bench", null, out, out);
+		if (Main.compile(ctx, new SourceBuffer(ByteBuffer.wrap(source))) != 0)
+			throw new IllegalStateException("generated program did not compile");
+	}
+}
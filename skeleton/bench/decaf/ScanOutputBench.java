@@ -0,0 +1,124 @@
+package decaf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import antlr.Token;
+import antlr.TokenStream;
+import java6035.tools.CLI.*;
+
+/**
+ * Measures -target scan end to end, in MB of token listing written per
+ * second, with each scanner.  For comparison it also times the old way
+ * of printing, one println per token, over the ANTLR scanner.
+ *
+ *   java decaf.ScanOutputBench file ...
+ *
+ * The named files are concatenated and repeated until the input is at
+ * least 8 MB.  Output goes to a PrintStream that counts and discards
+ * it, so no disk is involved.
+ */
+public class ScanOutputBench {
+	private static final int WARMUP = 3;
+	private static final int ROUNDS = 5;
+	private static final int MIN_BYTES = 8 * 1024 * 1024;
+	private static final String[] NAMES = {"antlr", "dfa", "buffered"};
+
+	public static void main(String[] args) throws Exception {
+		CLI.parse(args, new String[0]);
+		CLI.target = CLI.SCAN;
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		for (String file : CLI.infiles)
+			all.write(Files.readAllBytes(new File(file).toPath()));
+		if (all.size() == 0) {
+			System.err.println("usage: ScanOutputBench file ...");
+			System.exit(1);
+		}
+		byte[] one = all.toByteArray();
+		while (all.size() < MIN_BYTES)
+			all.write(one);
+		byte[] source = all.toByteArray();
+		System.out.println(source.length + " bytes");
+		System.out.println("output\tbytes out\tms\tMB/s out");
+		for (int scanner = -1; scanner <= CLI.BUFFERED_SCANNER; scanner++) {
+			long bytes = 0;
+			for (int i=0; i<WARMUP; i++)
+				bytes = scan(scanner, source);
+			long start = System.nanoTime();
+			for (int i=0; i<ROUNDS; i++)
+				bytes = scan(scanner, source);
+			double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+			System.out.printf("%s\t%d\t%.1f\t%.1f%n", 
+					scanner < 0 ? "println/antlr" : NAMES[scanner],
+					bytes, ms, bytes / 1048576.0 / (ms / 1000));
+		}
+	}
+
+	/**
+	 * Scans source with the given scanner, or the old way if scanner
+	 * is -1, and returns the number of bytes printed.
+	 */
+	private static long scan(int scanner, byte[] source) throws Exception {
+		CountingStream sink = new CountingStream();
+		PrintStream out = new PrintStream(sink);
+		SourceBuffer src = new SourceBuffer(ByteBuffer.wrap(source));
+		if (scanner < 0)
+			printlnTokens(new DecafScanner(src.inputBuffer()), out);
+		else {
+			CLI.scanner = scanner;
+			CompilationContext ctx = new CompilationContext("bench", null, out, out);
+			Main.compile(ctx, src);
+		}
+		out.flush();
+		return sink.count;
+	}
+
+	// the SCAN loop as it was
+	private static void printlnTokens(TokenStream lexer, PrintStream out) throws Exception {
+		boolean done = false;
+		while (!done) {
+			try {
+				Token token;
+				for (token=lexer.nextToken(); token.getType()!=DecafParserTokenTypes.EOF; token=lexer.nextToken()) {
+					String type = "";
+					switch (token.getType()) {
+					case DecafScannerTokenTypes.ID:
+						type = " IDENTIFIER";
+						break;
+					case DecafScannerTokenTypes.CHAR:
+						type = " CHARLITERAL";
+						break;
+					case DecafScannerTokenTypes.TRUE:
+					case DecafScannerTokenTypes.FALSE:
+						type = " BOOLEANLITERAL";
+						break;
+					case DecafScannerTokenTypes.HEX:
+					case DecafScannerTokenTypes.DECIMAL:
+						type = " INTLITERAL";
+						break;
+					case DecafScannerTokenTypes.STRING:
+						type = " STRINGLITERAL";
+						break;
+					}
+					out.println(token.getLine() + type + " " + token.getText());
+				}
+				done = true;
+			} catch (Exception e) {
+				out.println("bench " + e);
+				((DecafScanner) lexer).consume();
+			}
+		}
+	}
+
+	private static class CountingStream extends OutputStream {
+		long count;
+
+		public void write(int b) {
+			count++;
+		}
+
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
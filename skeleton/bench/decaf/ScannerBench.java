@@ -0,0 +1,107 @@
+package decaf;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import antlr.Token;
+import antlr.TokenStream;
+import java6035.tools.CLI.*;
+
+/**
+ * Measures scanning throughput, in MB of source per second, and heap
+ * allocated per token, of the ANTLR-generated DecafScanner, of
+ * DfaScanner, and of DfaScanner filling a TokenBuffer.
+ *
+ *   java decaf.ScannerBench file ...
+ *
+ * The named files are concatenated and repeated until the input is at
+ * least 8 MB, then scanned to end of input by each scanner in turn.
+ * Token count and a checksum of token types, lines, columns and
+ * lengths are printed so the three can be seen to agree.
+ */
+public class ScannerBench {
+	private static final int WARMUP = 3;
+	private static final int ROUNDS = 5;
+	private static final int MIN_BYTES = 8 * 1024 * 1024;
+	private static final String[] NAMES = {"antlr", "dfa", "buffered"};
+
+	public static void main(String[] args) throws Exception {
+		CLI.parse(args, new String[0]);
+		ByteArrayOutputStream all = new ByteArrayOutputStream();
+		for (String file : CLI.infiles)
+			all.write(Files.readAllBytes(new File(file).toPath()));
+		if (all.size() == 0) {
+			System.err.println("usage: ScannerBench file ...");
+			System.exit(1);
+		}
+		byte[] one = all.toByteArray();
+		while (all.size() < MIN_BYTES)
+			all.write(one);
+		byte[] source = all.toByteArray();
+		System.out.println(source.length + " bytes");
+		System.out.println("scanner\ttokens\tchecksum\tms\tMB/s\tbytes/token");
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		long self = Thread.currentThread().getId();
+		for (int scanner = CLI.ANTLR_SCANNER; scanner <= CLI.BUFFERED_SCANNER; scanner++) {
+			long[] result = null;
+			for (int i=0; i<WARMUP; i++)
+				result = scan(scanner, source);
+			long allocated = threads.getThreadAllocatedBytes(self);
+			long start = System.nanoTime();
+			for (int i=0; i<ROUNDS; i++)
+				result = scan(scanner, source);
+			double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+			allocated = (threads.getThreadAllocatedBytes(self) - allocated) / ROUNDS;
+			System.out.printf("%s\t%d\t%x\t%.1f\t%.1f\t%.1f%n", NAMES[scanner], 
+					result[0], result[1], ms, source.length / 1048576.0 / (ms / 1000),
+					(double) allocated / result[0]);
+		}
+	}
+
+	/**
+	 * Scans source to the end, skipping over errors the way Main does.
+	 * Returns the number of tokens and a checksum.
+	 */
+	private static long[] scan(int scanner, byte[] source) throws Exception {
+		SourceBuffer src = new SourceBuffer(ByteBuffer.wrap(source));
+		long count = 0, sum = 0;
+		if (scanner == CLI.BUFFERED_SCANNER) {
+			TokenBuffer tokens = new TokenBuffer(src);
+			for (int i=0; i<tokens.size(); i++) {
+				int type = tokens.type(i);
+				if (type == Token.EOF_TYPE || tokens.isError(i))
+					continue;
+				count++;
+				sum = checksum(sum, type, tokens.line(i), tokens.column(i), tokens.length(i));
+			}
+			return new long[] {count, sum};
+		}
+		TokenStream lexer;
+		if (scanner == CLI.DFA_SCANNER)
+			lexer = new DfaScanner(src);
+		else
+			lexer = new DecafScanner(src.inputBuffer());
+		for (;;) {
+			try {
+				Token t = lexer.nextToken();
+				if (t.getType() == Token.EOF_TYPE)
+					break;
+				count++;
+				sum = checksum(sum, t.getType(), t.getLine(), t.getColumn(), 
+						t.getText().length());
+			} catch (antlr.TokenStreamRecognitionException e) {
+				if (lexer instanceof DfaScanner)
+					((DfaScanner) lexer).consume();
+				else
+					((DecafScanner) lexer).consume();
+			}
+		}
+		return new long[] {count, sum};
+	}
+
+	private static long checksum(long sum, int type, int line, int column, int length) {
+		return ((sum * 31 + type) * 31 + line) * 31 + column * 7 + length;
+	}
+}
@@ -0,0 +1,104 @@
+package decaf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java6035.tools.CLI.*;
+
+/**
+ * Measures symbol lookup under deep nesting, two ways.
+ *
+ * First, straight through the SymbolTable API: open DEPTH scopes, each
+ * binding a name of its own and shadowing one shared name, and at every
+ * level look up a global, the shared name and an outer local.
+ *
+ * Second, end to end: check a generated program whose main has DEPTH
+ * nested blocks doing the same.  The parser and checker recurse once
+ * per block, so this runs on a thread with a large stack.
+ *
+ *   java decaf.SymbolTableBench [depth]
+ */
+public class SymbolTableBench {
+	private static final int WARMUP = 5;
+	private static final int ROUNDS = 10;
+	private static final int LOOKUPS = 100; // per scope, in the API run
+
+	public static void main(String[] args) throws Exception {
+		final int depth = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		System.out.println("depth " + depth);
+
+		long sum = 0;
+		for (int i=0; i<WARMUP; i++)
+			sum += lookups(depth);
+		long start = System.nanoTime();
+		for (int i=0; i<ROUNDS; i++)
+			sum += lookups(depth);
+		double ms = (System.nanoTime() - start) / 1e6 / ROUNDS;
+		long n = (long) depth * LOOKUPS * 3;
+		System.out.printf("api: %.2f ms/round, %.1f ns/lookup (%d)%n", ms, ms * 1e6 / n, 
+				sum % 2);
+
+		CLI.parse(new String[] {"-target", "inter"}, new String[0]);
+		final byte[] source = program(depth);
+		final double[] result = new double[2];
+		Thread t = new Thread(null, new Runnable() {
+			public void run() {
+				for (int i=0; i<WARMUP; i++)
+					check(source);
+				long start = System.nanoTime();
+				for (int i=0; i<ROUNDS; i++)
+					check(source);
+				result[0] = (System.nanoTime() - start) / 1e6 / ROUNDS;
+				result[1] = check(source);
+			}
+		}, "bench", 1L << 30);
+		t.start();
+		t.join();
+		System.out.printf("inter: %d bytes, %.2f ms/round, status %d%n", source.length,
+				result[0], (int) result[1]);
+	}
+
+	private static long lookups(int depth) {
+		IdTable ids = new IdTable();
+		IrId global = ids.intern("g");
+		IrId shared = ids.intern("i");
+		IrId[] locals = new IrId[depth];
+		for (int d=0; d<depth; d++)
+			locals[d] = ids.intern("v" + d);
+		SymbolTable syms = new SymbolTable();
+		syms.beginScope();
+		syms.put(global, new IntEntry());
+		long found = 0;
+		for (int d=0; d<depth; d++) {
+			syms.beginScope();
+			syms.put(shared, new IntEntry());
+			syms.put(locals[d], new BoolEntry());
+			for (int k=0; k<LOOKUPS; k++) {
+				found += syms.lookup(global).getType();
+				found += syms.lookup(shared).getType();
+				found += syms.lookup(locals[d / 2]).getType();
+			}
+		}
+		for (int d=0; d<=depth; d++)
+			syms.endScope();
+		return found;
+	}
+
+	private static int check(byte[] source) {
+		PrintStream out = new PrintStream(new ByteArrayOutputStream());
+		CompilationContext ctx = new CompilationContext("deep", null, out, out);
+		return Main.compile(ctx, new SourceBuffer(ByteBuffer.wrap(source)));
+	}
+
+	private static byte[] program(int depth) {
+		StringBuilder s = new StringBuilder("class Program {\n\tint g;\n\tvoid main() {\n");
+		for (int d=0; d<depth; d++) {
+			s.append("{ int i, v").append(d).append("; ");
+			s.append("i = g + v").append(d / 2).append("; ");
+			s.append("v").append(d).append(" = i; g = g + 1;\n");
+		}
+		for (int d=0; d<depth; d++)
+			s.append("}");
+		s.append("\n\t}\n}\n");
+		return s.toString().getBytes();
+	}
+}
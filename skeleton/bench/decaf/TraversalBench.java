@@ -0,0 +1,250 @@
+package decaf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java6035.tools.CLI.*;
+
+/**
+ * Compares ways of dispatching on IR node class over one walk of a
+ * synthetic program's tree: the instanceof ladder SemanticChecker and
+ * CodeGen used to use, IrNode.accept() with an IrVisitor, and a switch
+ * on IrNode.kind().  Each walk does the same trivial work per node.
+ *
+ *   java decaf.TraversalBench [nodes]
+ */
+public class TraversalBench {
+	private static final int WARMUP = 20;
+	private static final int ROUNDS = 50;
+
+	public static void main(String[] args) throws Exception {
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		CLI.parse(new String[0], new String[0]);
+		byte[] source = IrHeapBench.program(nodes / 93).getBytes("US-ASCII");
+		PrintStream out = new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		});
+		CompilationContext ctx = new CompilationContext("bench", null, out, out);
+		DecafParser parser = new DecafParser(
+				new DfaScanner(new SourceBuffer(ByteBuffer.wrap(source))), ctx);
+		parser.program();
+		IrNode root = parser.getIrTree();
+		new SemanticChecker(ctx).checkProgram((IrClassDecl) root);
+
+		Walk[] walks = { new Ladder(), new Visitor(), new Switch() };
+		long check = 0;
+		for (Walk w : walks) {
+			for (int i=0; i<WARMUP; i++)
+				check += w.walk(root);
+		}
+		System.out.println("dispatch\tms/walk\tns/node");
+		int count = countNodes(root);
+		for (Walk w : walks) {
+			long start = System.nanoTime();
+			for (int i=0; i<ROUNDS; i++)
+				check += w.walk(root);
+			double ns = (System.nanoTime() - start) / (double) ROUNDS;
+			System.out.printf("%s\t%.2f\t%.2f%n", w.name(), ns / 1e6, ns / count);
+		}
+		if (check == 42)
+			System.out.println();
+	}
+
+	private static int countNodes(IrNode n) {
+		int count = 1;
+		for (int i=0; i<n.numChildren(); i++)
+			count += countNodes(n.child(i));
+		return count;
+	}
+
+	private interface Walk {
+		String name();
+		long walk(IrNode root);
+	}
+
+	// weights per class, so each dispatch has something to decide
+	private static final int LITERAL = 1;
+	private static final int CALL = 2;
+	private static final int OP = 3;
+	private static final int LOCATION = 4;
+	private static final int STATEMENT = 5;
+	private static final int DECL = 6;
+
+	private static class Ladder implements Walk {
+		public String name() {
+			return "instanceof";
+		}
+		public long walk(IrNode n) {
+			long sum = weight(n);
+			for (int i=0; i<n.numChildren(); i++)
+				sum += walk(n.child(i));
+			return sum;
+		}
+		private int weight(IrNode n) {
+			if (n instanceof IrIntLiteral) {
+				return LITERAL;
+			} else if (n instanceof IrBooleanLiteral) {
+				return LITERAL;
+			} else if (n instanceof IrCharLiteral) {
+				return LITERAL;
+			} else if (n instanceof IrStringLiteral) {
+				return LITERAL;
+			} else if (n instanceof IrMethodCallExpr) {
+				return CALL;
+			} else if (n instanceof IrCalloutExpr) {
+				return CALL;
+			} else if (n instanceof IrBinopExpr) {
+				return OP;
+			} else if (n instanceof IrNotExpr) {
+				return OP;
+			} else if (n instanceof IrNegativeExpr) {
+				return OP;
+			} else if (n instanceof IrLocationExpr) {
+				return LOCATION;
+			} else if (n instanceof IrAssignStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrPlusAssignStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrMinusAssignStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrBreakStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrIfStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrForStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrReturnStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrContinueStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrInvokeStmt) {
+				return STATEMENT;
+			} else if (n instanceof IrBlock) {
+				return STATEMENT;
+			}
+			return DECL;
+		}
+	}
+
+	private static class Visitor extends IrWalker<Long> implements Walk {
+		public String name() {
+			return "visitor";
+		}
+		public long walk(IrNode root) {
+			return root.accept(this);
+		}
+		private Long sum(IrNode n, int weight) {
+			long sum = weight;
+			for (int i=0; i<n.numChildren(); i++)
+				sum += n.child(i).accept(this);
+			return sum;
+		}
+		public Long visitNode(IrNode n) {
+			return sum(n, DECL);
+		}
+		public Long visitIntLiteral(IrIntLiteral n) {
+			return sum(n, LITERAL);
+		}
+		public Long visitBooleanLiteral(IrBooleanLiteral n) {
+			return sum(n, LITERAL);
+		}
+		public Long visitCharLiteral(IrCharLiteral n) {
+			return sum(n, LITERAL);
+		}
+		public Long visitStringLiteral(IrStringLiteral n) {
+			return sum(n, LITERAL);
+		}
+		public Long visitMethodCallExpr(IrMethodCallExpr n) {
+			return sum(n, CALL);
+		}
+		public Long visitCalloutExpr(IrCalloutExpr n) {
+			return sum(n, CALL);
+		}
+		public Long visitBinopExpr(IrBinopExpr n) {
+			return sum(n, OP);
+		}
+		public Long visitNotExpr(IrNotExpr n) {
+			return sum(n, OP);
+		}
+		public Long visitNegativeExpr(IrNegativeExpr n) {
+			return sum(n, OP);
+		}
+		public Long visitLocationExpr(IrLocationExpr n) {
+			return sum(n, LOCATION);
+		}
+		public Long visitAssignStmt(IrAssignStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitPlusAssignStmt(IrPlusAssignStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitMinusAssignStmt(IrMinusAssignStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitBreakStmt(IrBreakStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitIfStmt(IrIfStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitForStmt(IrForStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitReturnStmt(IrReturnStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitContinueStmt(IrContinueStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitInvokeStmt(IrInvokeStmt n) {
+			return sum(n, STATEMENT);
+		}
+		public Long visitBlock(IrBlock n) {
+			return sum(n, STATEMENT);
+		}
+	}
+
+	private static class Switch implements Walk {
+		public String name() {
+			return "kind switch";
+		}
+		public long walk(IrNode n) {
+			long sum = weight(n);
+			for (int i=0; i<n.numChildren(); i++)
+				sum += walk(n.child(i));
+			return sum;
+		}
+		private int weight(IrNode n) {
+			switch (n.kind()) {
+			case IrKind.INT_LITERAL:
+			case IrKind.BOOLEAN_LITERAL:
+			case IrKind.CHAR_LITERAL:
+			case IrKind.STRING_LITERAL:
+				return LITERAL;
+			case IrKind.METHOD_CALL_EXPR:
+			case IrKind.CALLOUT_EXPR:
+				return CALL;
+			case IrKind.BINOP_EXPR:
+			case IrKind.NOT_EXPR:
+			case IrKind.NEGATIVE_EXPR:
+				return OP;
+			case IrKind.LOCATION_EXPR:
+			case IrKind.ARRAY_LOCATION_EXPR:
+				return LOCATION;
+			case IrKind.ASSIGN_STMT:
+			case IrKind.PLUS_ASSIGN_STMT:
+			case IrKind.MINUS_ASSIGN_STMT:
+			case IrKind.BREAK_STMT:
+			case IrKind.IF_STMT:
+			case IrKind.FOR_STMT:
+			case IrKind.RETURN_STMT:
+			case IrKind.CONTINUE_STMT:
+			case IrKind.INVOKE_STMT:
+			case IrKind.BLOCK:
+				return STATEMENT;
+			default:
+				return DECL;
+			}
+		}
+	}
+}
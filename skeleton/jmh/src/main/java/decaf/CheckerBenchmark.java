@@ -0,0 +1,62 @@
+package decaf;
+
+import java.util.concurrent.TimeUnit;
+import java6035.tools.CLI.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+/**
+ * Runs SemanticChecker.checkProgram() over freshly parsed trees, with
+ * method bodies checked in order or, with parcheck, on the pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheckerBenchmark {
+	@Param({"codegen", "optimizer", "synthetic-2000"})
+	public String input;
+
+	@Param({"false", "true"})
+	public boolean parcheck;
+
+	private byte[][] sources;
+	private IrClassDecl[] trees;
+	private CompilationContext[] contexts;
+
+	@Setup
+	public void setup() throws Exception {
+		if (parcheck)
+			Inputs.configure(CLI.INTER, "parcheck");
+		else
+			Inputs.configure(CLI.INTER);
+		sources = Inputs.load(input);
+	}
+
+	// checking annotates the tree, so each check gets one of its own
+	@Setup(Level.Invocation)
+	public void parse() throws Exception {
+		trees = new IrClassDecl[sources.length];
+		contexts = new CompilationContext[sources.length];
+		for (int i=0; i<sources.length; i++) {
+			contexts[i] = Inputs.context();
+			DecafParser parser = new DecafParser(
+					new DfaScanner(Inputs.source(sources[i])), contexts[i]);
+			parser.program();
+			trees[i] = (IrClassDecl) parser.getIrTree();
+		}
+	}
+
+	@Benchmark
+	public int check() {
+		int errors = 0;
+		for (int i=0; i<trees.length; i++) {
+			new SemanticChecker(contexts[i]).checkProgram(trees[i]);
+			if (trees[i].getType() == Ir.ERROR)
+				errors++;
+		}
+		return errors;
+	}
+}
@@ -0,0 +1,45 @@
+package decaf;
+
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java6035.tools.CLI.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+/**
+ * Lowers checked trees with CodeGen.genLowIr(), discarding the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeGenBenchmark {
+	@Param({"codegen", "optimizer", "synthetic-2000"})
+	public String input;
+
+	private IrClassDecl[] trees;
+	private WritableByteChannel discard;
+
+	@Setup
+	public void setup() throws Exception {
+		Inputs.configure(CLI.LOWIR);
+		trees = Inputs.check(Inputs.load(input));
+		discard = Channels.newChannel(OutputStream.nullOutputStream());
+	}
+
+	@Benchmark
+	public long genLowIr() throws Exception {
+		long bytes = 0;
+		for (IrClassDecl tree : trees) {
+			Emitter code = new Emitter(discard);
+			new CodeGen(tree, Inputs.context()).genLowIr(code);
+			code.flush();
+			bytes += code.size();
+		}
+		return bytes;
+	}
+}
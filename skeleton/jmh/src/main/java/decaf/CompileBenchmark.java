@@ -0,0 +1,40 @@
+package decaf;
+
+import java.util.concurrent.TimeUnit;
+import java6035.tools.CLI.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+/**
+ * Compiles the input end to end through Main.compile(), as the driver
+ * does for each file, discarding the output.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+	@Param({"codegen", "optimizer", "synthetic-2000"})
+	public String input;
+
+	@Param({"inter", "lowir"})
+	public String target;
+
+	private byte[][] sources;
+
+	@Setup
+	public void setup() throws Exception {
+		Inputs.configure(target.equals("inter") ? CLI.INTER : CLI.LOWIR);
+		sources = Inputs.load(input);
+	}
+
+	@Benchmark
+	public int compile() {
+		int failed = 0;
+		for (byte[] s : sources)
+			failed += Main.compile(Inputs.context(), Inputs.source(s));
+		return failed;
+	}
+}
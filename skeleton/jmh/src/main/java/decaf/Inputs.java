@@ -0,0 +1,115 @@
+package decaf;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java6035.tools.CLI.*;
+
+/**
+ * The programs the benchmarks compile, by the name given as their
+ * "input" parameter: "codegen" for tests/codegen/codegen, "optimizer"
+ * for tests/optimizer/input, or "synthetic-N" for a program of N
+ * methods from ProgramGenerator.  Corpus files that do not compile
+ * cleanly to low IR are left out, so each phase only sees input it
+ * can handle.
+ *
+ * The tests directory is found from -Ddecaf.tests, or else relative to
+ * skeleton/jmh or skeleton.
+ */
+final class Inputs {
+	static final PrintStream NULL = new PrintStream(new OutputStream() {
+		public void write(int b) {
+		}
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	private Inputs() {
+	}
+
+	/**
+	 * Sets the command-line state every CompilationContext reads, as
+	 * if the compiler had been started with -target target and the DFA
+	 * scanner, plus the given -opt names.
+	 */
+	static void configure(int target, String... opts) {
+		List<String> args = new ArrayList<String>();
+		args.add("-scanner");
+		args.add("dfa");
+		if (opts.length > 0) {
+			args.add("-opt");
+			args.addAll(Arrays.asList(opts));
+		}
+		CLI.parse(args.toArray(new String[0]), Main.OPTS);
+		CLI.target = target;
+	}
+
+	static CompilationContext context() {
+		return new CompilationContext("bench", null, NULL, NULL);
+	}
+
+	static SourceBuffer source(byte[] bytes) {
+		return new SourceBuffer(ByteBuffer.wrap(bytes));
+	}
+
+	static byte[][] load(String input) throws IOException {
+		if (input.startsWith("synthetic-")) {
+			int methods = Integer.parseInt(input.substring("synthetic-".length()));
+			String program = new ProgramGenerator().methods(methods).generate();
+			return new byte[][] { program.getBytes("US-ASCII") };
+		}
+		File dir;
+		if (input.equals("codegen"))
+			dir = new File(testsDir(), "codegen/codegen");
+		else if (input.equals("optimizer"))
+			dir = new File(testsDir(), "optimizer/input");
+		else
+			throw new IllegalArgumentException("unknown input " + input);
+		File[] files = dir.listFiles();
+		Arrays.sort(files);
+		int target = CLI.target;
+		CLI.target = CLI.LOWIR;
+		List<byte[]> sources = new ArrayList<byte[]>();
+		try {
+			for (File f : files) {
+				if (!f.getName().endsWith(".dcf"))
+					continue;
+				byte[] bytes = Files.readAllBytes(f.toPath());
+				if (Main.compile(context(), source(bytes)) == 0)
+					sources.add(bytes);
+			}
+		} finally {
+			CLI.target = target;
+		}
+		return sources.toArray(new byte[0][]);
+	}
+
+	private static File testsDir() {
+		String dir = System.getProperty("decaf.tests");
+		if (dir != null)
+			return new File(dir);
+		for (String d : new String[] {"../../tests", "../tests"}) {
+			if (new File(d, "codegen").isDirectory())
+				return new File(d);
+		}
+		throw new IllegalStateException("can't find tests/; set -Ddecaf.tests");
+	}
+
+	/**
+	 * Parses and checks each of sources, returning their trees.
+	 */
+	static IrClassDecl[] check(byte[][] sources) throws Exception {
+		IrClassDecl[] trees = new IrClassDecl[sources.length];
+		for (int i=0; i<sources.length; i++) {
+			CompilationContext ctx = context();
+			DecafParser parser = new DecafParser(new DfaScanner(source(sources[i])), ctx);
+			parser.program();
+			trees[i] = (IrClassDecl) parser.getIrTree();
+			new SemanticChecker(ctx).checkProgram(trees[i]);
+		}
+		return trees;
+	}
+}
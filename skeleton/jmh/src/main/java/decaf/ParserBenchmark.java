@@ -0,0 +1,40 @@
+package decaf;
+
+import java.util.concurrent.TimeUnit;
+import java6035.tools.CLI.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses the input and builds its IR tree, scanning with the DFA
+ * scanner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+	@Param({"codegen", "optimizer", "synthetic-2000"})
+	public String input;
+
+	private byte[][] sources;
+
+	@Setup
+	public void setup() throws Exception {
+		Inputs.configure(CLI.PARSE);
+		sources = Inputs.load(input);
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) throws Exception {
+		for (byte[] s : sources) {
+			DecafParser parser = new DecafParser(
+					new DfaScanner(Inputs.source(s)), Inputs.context());
+			parser.program();
+			bh.consume(parser.getIrTree());
+		}
+	}
+}
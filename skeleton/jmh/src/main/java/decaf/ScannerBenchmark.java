@@ -0,0 +1,50 @@
+package decaf;
+
+import java.util.concurrent.TimeUnit;
+import antlr.Token;
+import antlr.TokenStream;
+import java6035.tools.CLI.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.annotations.Scope;
+
+/**
+ * Scans every token of the input with each scanner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+	@Param({"codegen", "optimizer", "synthetic-2000"})
+	public String input;
+
+	@Param({"antlr", "dfa", "buffered"})
+	public String scanner;
+
+	private byte[][] sources;
+
+	@Setup
+	public void setup() throws Exception {
+		Inputs.configure(CLI.SCAN);
+		sources = Inputs.load(input);
+	}
+
+	@Benchmark
+	public int scan() throws Exception {
+		int tokens = 0;
+		for (byte[] s : sources) {
+			TokenStream lexer;
+			if (scanner.equals("antlr"))
+				lexer = new DecafScanner(Inputs.source(s).inputBuffer());
+			else if (scanner.equals("dfa"))
+				lexer = new DfaScanner(Inputs.source(s));
+			else
+				lexer = new TokenBuffer(Inputs.source(s));
+			while (lexer.nextToken().getType() != Token.EOF_TYPE)
+				tokens++;
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,452 @@
+package decaf;
+
+import java.io.IOException;
+
+/**
+ * Translates one method's Cfg to x86-64 assembly, in AT&T syntax, for
+ * the System V calling convention.  Each register of the Cfg lives
+ * where RegAlloc put it: in a machine register, or, if spilled, in a
+ * slot in the method's frame (parameters past the sixth stay where
+ * the caller pushed them).  The callee-saved registers the method uses
+ * are saved in its frame too.  %rax, %rdx, %r10 and %r11 are left for
+ * the code here.  Values are 32-bit ints (or booleans) kept in 64-bit
+ * locations: arithmetic is done on the low halves and an index is
+ * zero-extended before use, so the upper half never matters.
+ *
+ * Decaf names are prefixed, so that methods and globals cannot clash
+ * with the C library; main is also exported under its own name.  Code
+ * is position-independent, as gcc links it by default.  The pieces
+ * that every method shares (the runtime error handler and messages)
+ * are emitted once per program by emitRuntime().
+ */
+final class AsmGen
+{
+	private static final String[] ARG_REGS = {"%rdi", "%rsi", "%rdx", "%rcx", "%r8", "%r9"};
+	private static final String[] SET = {"setl", "setle", "setg", "setge", "sete", "setne"};
+
+	private final Cfg cfg;
+	private final int[] where; // from RegAlloc
+	private final int[] slot;  // frame slot of each spilled register
+	private final int[] saved; // callee-saved registers used, by slot
+	private final Emitter e;
+	private final String prefix; // of the method's local labels
+	private final int frameSize;
+	private final boolean isMain;
+	private boolean hasBound; // whether there are BOUND checks
+	private boolean hasFail;
+
+	private AsmGen(Cfg cfg, int[] where, Emitter e) {
+		this.cfg = cfg;
+		this.where = where;
+		this.e = e;
+		this.prefix = ".L" + cfg.getName() + ".";
+		boolean[] used = new boolean[RegAlloc.NUM_REGS];
+		int numSaved = 0;
+		for (int m : where) {
+			if (m >= RegAlloc.CALLEE_SAVED && !used[m]) {
+				used[m] = true;
+				numSaved++;
+			}
+		}
+		this.saved = new int[numSaved];
+		int slots = 0;
+		for (int m=RegAlloc.CALLEE_SAVED; m<RegAlloc.NUM_REGS; m++) {
+			if (used[m])
+				saved[slots++] = m;
+		}
+		this.slot = new int[where.length];
+		for (int r=0; r<where.length; r++) {
+			if (where[r] == RegAlloc.SPILLED && !onStack(r))
+				slot[r] = slots++;
+		}
+		this.frameSize = (8 * slots + 15) & ~15;
+		this.isMain = cfg.getName().equals("main");
+	}
+
+	/**
+	 * Appends the assembly for cfg, its registers allocated as where
+	 * says, to e.
+	 */
+	static void emit(Cfg cfg, int[] where, Emitter e) throws IOException {
+		new AsmGen(cfg, where, e).emitMethod();
+	}
+
+	static String symbol(String name) {
+		return "__decaf_" + name;
+	}
+
+	/**
+	 * Appends the storage for a global of the given size in bytes.
+	 */
+	static void emitField(Emitter e, String name, int bytes) throws IOException {
+		e.line("\t.bss");
+		e.line("\t.align 8");
+		e.append(symbol(name)).line(":");
+		e.append("\t.zero ").append(bytes).append('\n');
+	}
+
+	/**
+	 * Appends the runtime error handler the methods jump to, with the
+	 * message format in %rdi, the method name in %rsi and the exit
+	 * status in %edx.  The message goes to stdout, after whatever the
+	 * program printed, as the test suites expect.
+	 */
+	static void emitRuntime(Emitter e) throws IOException {
+		e.line("\t.section .rodata");
+		e.line(".Ldecaf.bounds:");
+		e.line("\t.string \"*** RUNTIME ERROR ***: Array out of Bounds access in method \\\"%s\\\"\\n\"");
+		e.line(".Ldecaf.noreturn:");
+		e.line("\t.string \"*** RUNTIME ERROR ***: No return value from non-void method \\\"%s\\\"\\n\"");
+		e.line("\t.text");
+		e.line(".Ldecaf.error:");
+		e.line("\tandq $-16, %rsp");
+		e.line("\tpushq %rdx");
+		e.line("\tpushq %rdx");
+		e.line("\txorl %eax, %eax");
+		e.line("\tcall printf");
+		e.line("\tmovl (%rsp), %edi");
+		e.line("\tcall exit");
+		e.line("\t.section .note.GNU-stack,\"\",@progbits");
+	}
+
+	// whether r is a parameter the caller passed on the stack
+	private boolean onStack(int r) {
+		return r < cfg.numParams() && r >= ARG_REGS.length;
+	}
+
+	private String frame(int index) {
+		return (-8 * (index + 1)) + "(%rbp)";
+	}
+
+	private boolean inReg(int r) {
+		return where[r] >= 0;
+	}
+
+	/**
+	 * Where register r lives, as a 64-bit operand.
+	 */
+	private String loc(int r) {
+		if (inReg(r))
+			return RegAlloc.REG64[where[r]];
+		if (onStack(r))
+			return (16 + 8 * (r - ARG_REGS.length)) + "(%rbp)";
+		return frame(slot[r]);
+	}
+
+	/**
+	 * Where register r lives, as a 32-bit operand.
+	 */
+	private String loc32(int r) {
+		return inReg(r) ? RegAlloc.REG32[where[r]] : loc(r);
+	}
+
+	private String label(int block) {
+		return prefix + "B" + block;
+	}
+
+	private void emitMethod() throws IOException {
+		e.line("\t.text");
+		if (isMain) {
+			e.line("\t.globl main");
+			e.line("main:");
+		}
+		e.append(symbol(cfg.getName())).line(":");
+		e.line("\tpushq %rbp");
+		e.line("\tmovq %rsp, %rbp");
+		if (frameSize > 0)
+			e.append("\tsubq $").append(frameSize).line(", %rsp");
+		for (int k=0; k<saved.length; k++)
+			op("movq", RegAlloc.REG64[saved[k]], frame(k));
+		int n = Math.min(cfg.numParams(), ARG_REGS.length);
+		String[] from = new String[n], to = new String[n];
+		int moves = 0;
+		for (int i=0; i<n; i++) {
+			if (where[i] != RegAlloc.UNUSED) {
+				from[moves] = ARG_REGS[i];
+				to[moves++] = loc(i);
+			}
+		}
+		moveAll(from, to, moves);
+		for (int i=ARG_REGS.length; i<cfg.numParams(); i++) {
+			if (inReg(i))
+				op("movq", (16 + 8 * (i - ARG_REGS.length)) + "(%rbp)", loc(i));
+		}
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			e.append(label(id)).line(":");
+			for (int i=0; i<b.size(); i++)
+				emitInstruction(b, i);
+		}
+		emitErrors();
+		e.line("\t.section .rodata");
+		e.append(prefix).append("name:\n\t.string \"").append(cfg.getName()).line("\"");
+		for (int i=0; i<cfg.numStrings(); i++) {
+			e.append(prefix).append('S').append(i).append(":\n\t.string \"");
+			// the assembler knows every escape Decaf does but \'
+			String s = cfg.stringAt(i);
+			for (int j=0; j<s.length(); j++) {
+				if (s.charAt(j) == '\\' && s.charAt(j + 1) == '\'')
+					continue;
+				e.append(s.charAt(j));
+				if (s.charAt(j) == '\\')
+					e.append(s.charAt(++j));
+			}
+			e.line("\"");
+		}
+	}
+
+	private void op(String op, String src, String dst) throws IOException {
+		e.append('\t').append(op).append(' ').append(src).append(", ").append(dst).append('\n');
+	}
+
+	private void op(String op, String arg) throws IOException {
+		e.append('\t').append(op).append(' ').append(arg).append('\n');
+	}
+
+	private void emitInstruction(BasicBlock b, int i) throws IOException {
+		int op = b.op(i);
+		int dst = b.dst(i);
+		switch (op) {
+		case LirOp.CONST:
+			op("movq", "$" + b.c(i), loc(dst));
+			break;
+		case LirOp.MOV:
+			move(loc(b.a(i)), loc(dst));
+			break;
+		case LirOp.ADD:
+		case LirOp.SUB:
+		case LirOp.MUL:
+			String arith = op == LirOp.ADD ? "addl" : op == LirOp.SUB ? "subl" : "imull";
+			if (inReg(dst) && !(inReg(b.b(i)) && where[b.b(i)] == where[dst])) {
+				if (!loc(b.a(i)).equals(loc(dst)))
+					op("movl", loc32(b.a(i)), loc32(dst));
+				op(arith, loc32(b.b(i)), loc32(dst));
+			}
+			else if (inReg(dst) && op != LirOp.SUB) {
+				// dst already holds b, and the operation commutes
+				op(arith, loc32(b.a(i)), loc32(dst));
+			}
+			else {
+				op("movl", loc32(b.a(i)), "%eax");
+				op(arith, loc32(b.b(i)), "%eax");
+				op("movq", "%rax", loc(dst));
+			}
+			break;
+		case LirOp.DIV:
+		case LirOp.MOD:
+			// a zero divisor traps, as the language wants
+			op("movl", loc32(b.a(i)), "%eax");
+			e.line("\tcltd");
+			op("idivl", loc32(b.b(i)));
+			op("movq", op == LirOp.DIV ? "%rax" : "%rdx", loc(dst));
+			break;
+		case LirOp.LT:
+		case LirOp.LE:
+		case LirOp.GT:
+		case LirOp.GE:
+		case LirOp.EQ:
+		case LirOp.NE:
+			if (inReg(b.a(i))) {
+				op("cmpl", loc32(b.b(i)), loc32(b.a(i)));
+			}
+			else {
+				op("movl", loc32(b.a(i)), "%eax");
+				op("cmpl", loc32(b.b(i)), "%eax");
+			}
+			op(SET[op - LirOp.LT], "%al");
+			if (inReg(dst)) {
+				op("movzbl", "%al", loc32(dst));
+			}
+			else {
+				op("movzbl", "%al", "%eax");
+				op("movq", "%rax", loc(dst));
+			}
+			break;
+		case LirOp.NEG:
+		case LirOp.NOT:
+			String target = inReg(dst) ? loc32(dst) : "%eax";
+			if (!loc32(b.a(i)).equals(target))
+				op("movl", loc32(b.a(i)), target);
+			if (op == LirOp.NEG)
+				op("negl", target);
+			else
+				op("xorl", "$1", target);
+			if (!inReg(dst))
+				op("movq", "%rax", loc(dst));
+			break;
+		case LirOp.LOAD:
+			move(global(b.c(i)), loc(dst));
+			break;
+		case LirOp.STORE:
+			move(loc(b.a(i)), global(b.c(i)));
+			break;
+		case LirOp.LOADA:
+			op("movl", loc32(b.a(i)), "%eax");
+			op("leaq", global(b.c(i)), "%r10");
+			move("(%r10,%rax,8)", loc(dst));
+			break;
+		case LirOp.STOREA:
+			op("movl", loc32(b.a(i)), "%eax");
+			String value = loc(b.b(i));
+			if (!inReg(b.b(i))) {
+				op("movq", value, "%r11");
+				value = "%r11";
+			}
+			op("leaq", global(b.c(i)), "%r10");
+			op("movq", value, "(%r10,%rax,8)");
+			break;
+		case LirOp.BOUND:
+			// unsigned, so a negative index is out of bounds too
+			op("cmpl", "$" + b.b(i), loc32(b.a(i)));
+			op("jae", prefix + "bounds");
+			hasBound = true;
+			break;
+		case LirOp.STR:
+			if (inReg(dst)) {
+				op("leaq", prefix + "S" + b.c(i) + "(%rip)", loc(dst));
+			}
+			else {
+				op("leaq", prefix + "S" + b.c(i) + "(%rip)", "%rax");
+				op("movq", "%rax", loc(dst));
+			}
+			break;
+		case LirOp.CALL:
+		case LirOp.CALLOUT:
+			emitCall(b, i);
+			break;
+		case LirOp.JMP:
+			jump(b, b.succ(0));
+			break;
+		case LirOp.BR:
+			if (inReg(b.a(i)))
+				op("testl", loc32(b.a(i)), loc32(b.a(i)));
+			else
+				op("cmpl", "$0", loc32(b.a(i)));
+			if (b.succ(0) == b.id() + 1) {
+				op("je", label(b.succ(1)));
+			}
+			else {
+				op("jne", label(b.succ(0)));
+				jump(b, b.succ(1));
+			}
+			break;
+		case LirOp.RET:
+			if (b.a(i) != LirOp.NONE)
+				op("movq", loc(b.a(i)), "%rax");
+			else if (isMain)
+				op("xorl", "%eax", "%eax");
+			for (int k=0; k<saved.length; k++)
+				op("movq", frame(k), RegAlloc.REG64[saved[k]]);
+			e.line("\tleave");
+			e.line("\tret");
+			break;
+		case LirOp.FAIL:
+			op("leaq", ".Ldecaf.noreturn(%rip)", "%rdi");
+			op("movl", "$-2", "%edx");
+			op("jmp", prefix + "error");
+			hasFail = true;
+			break;
+		default:
+			throw new IllegalStateException("unknown op " + op);
+		}
+	}
+
+	private String global(int name) {
+		return symbol(cfg.nameAt(name)) + "(%rip)";
+	}
+
+	/**
+	 * Copies a 64-bit value, through %rax if neither side is a register.
+	 */
+	private void move(String src, String dst) throws IOException {
+		if (src.equals(dst))
+			return;
+		if (src.startsWith("%") || dst.startsWith("%")) {
+			op("movq", src, dst);
+		}
+		else {
+			op("movq", src, "%rax");
+			op("movq", "%rax", dst);
+		}
+	}
+
+	/**
+	 * Copies the first n of from to to as if all at once.  When a copy
+	 * would overwrite what a later one reads, everything goes through
+	 * the stack.
+	 */
+	private void moveAll(String[] from, String[] to, int n) throws IOException {
+		boolean clash = false;
+		for (int j=1; j<n && !clash; j++) {
+			for (int k=0; k<j; k++) {
+				if (from[j].equals(to[k]))
+					clash = true;
+			}
+		}
+		if (!clash) {
+			for (int k=0; k<n; k++)
+				move(from[k], to[k]);
+			return;
+		}
+		for (int k=0; k<n; k++)
+			op("pushq", from[k]);
+		for (int k=n-1; k>=0; k--)
+			op("popq", to[k]);
+	}
+
+	/**
+	 * Jumps from b to block target, unless target comes right after b.
+	 */
+	private void jump(BasicBlock b, int target) throws IOException {
+		if (target != b.id() + 1)
+			op("jmp", label(target));
+	}
+
+	/**
+	 * Passes the first six arguments in registers and the rest on the
+	 * stack, keeping the stack 16-byte aligned at the call.
+	 */
+	private void emitCall(BasicBlock b, int i) throws IOException {
+		int n = b.numUses(i);
+		int pushed = Math.max(0, n - ARG_REGS.length);
+		int pad = (pushed % 2) * 8;
+		if (pad > 0)
+			op("subq", "$8", "%rsp");
+		for (int k=n-1; k>=ARG_REGS.length; k--)
+			op("pushq", loc(b.use(i, k)));
+		int inRegs = Math.min(n, ARG_REGS.length);
+		String[] from = new String[inRegs];
+		for (int k=0; k<inRegs; k++)
+			from[k] = loc(b.use(i, k));
+		moveAll(from, ARG_REGS, inRegs);
+		String name = cfg.nameAt(b.c(i));
+		if (b.op(i) == LirOp.CALLOUT) {
+			op("xorl", "%eax", "%eax"); // no vector arguments
+			op("call", name);
+		}
+		else {
+			op("call", symbol(name));
+		}
+		if (pushed > 0)
+			op("addq", "$" + (8 * pushed + pad), "%rsp");
+		if (b.dst(i) != LirOp.NONE)
+			op("movq", "%rax", loc(b.dst(i)));
+	}
+
+	/**
+	 * Appends the out-of-line code the BOUND checks jump to, and the
+	 * method's way into the error handler.
+	 */
+	private void emitErrors() throws IOException {
+		if (hasBound) {
+			e.append(prefix).line("bounds:");
+			op("leaq", ".Ldecaf.bounds(%rip)", "%rdi");
+			op("movl", "$-1", "%edx");
+		}
+		if (!hasBound && !hasFail)
+			return;
+		e.append(prefix).line("error:");
+		op("leaq", prefix + "name(%rip)", "%rsi");
+		op("jmp", ".Ldecaf.error");
+	}
+}
@@ -0,0 +1,24 @@
+package decaf;
+
+/**
+ * Sets of small ints held as bits in a long[], one bit per member, as
+ * the dataflow passes keep their sets of registers, blocks and
+ * expressions.
+ */
+final class Bits
+{
+	private Bits() {
+	}
+
+	static boolean has(long[] set, int i) {
+		return (set[i >>> 6] & (1L << i)) != 0;
+	}
+
+	static void add(long[] set, int i) {
+		set[i >>> 6] |= 1L << i;
+	}
+
+	static void remove(long[] set, int i) {
+		set[i >>> 6] &= ~(1L << i);
+	}
+}
@@ -0,0 +1,493 @@
+package decaf;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Opcodes of the low IR's three-address instructions.  An instruction
+ * is five ints, OP DST A B C: DST is the register it defines, or NONE;
+ * A and B are the registers it uses, as many as USES gives; C is an
+ * immediate.  The exceptions are noted below.  The binary operators
+ * share their codes with IrOps.
+ */
+abstract class LirOp
+{
+	static final int NONE = -1;   // no register
+
+	static final int CONST = 0;   // dst = c
+	static final int MOV = 1;     // dst = a
+	static final int ADD = 2;     // dst = a op b, ADD through NE;
+	static final int SUB = 3;     // comparisons give 0 or 1
+	static final int MUL = 4;
+	static final int DIV = 5;
+	static final int MOD = 6;
+	static final int LT = 7;
+	static final int LE = 8;
+	static final int GT = 9;
+	static final int GE = 10;
+	static final int EQ = 11;
+	static final int NE = 12;
+	static final int NEG = 13;    // dst = -a
+	static final int NOT = 14;    // dst = !a
+	static final int LOAD = 15;   // dst = global name c
+	static final int STORE = 16;  // global name c = a
+	static final int LOADA = 17;  // dst = array name c [a]
+	static final int STOREA = 18; // array name c [a] = b
+	static final int BOUND = 19;  // runtime error unless 0 <= a < b;
+	                              // b is the length, c the line
+	static final int STR = 20;    // dst = address of string c
+	static final int CALL = 21;   // dst = method name c (args); the b
+	static final int CALLOUT = 22;// args start at a in the block's pool
+	static final int JMP = 23;    // to successor 0
+	static final int BR = 24;     // to successor 0 if a, else 1
+	static final int RET = 25;    // return a, or nothing if a is NONE
+	static final int FAIL = 26;   // runtime error: no return value; c
+	                              // is the method's line
+
+	static final String[] NAME = {"const", "mov", "+", "-", "*", "/", "%",
+		"<", "<=", ">", ">=", "==", "!=", "neg", "not", "load", "store",
+		"loada", "storea", "bound", "str", "call", "callout", "jmp", "br",
+		"ret", "fail"};
+	// register operands used, for all but CALL, CALLOUT and RET
+	static final int[] USES = {0, 1, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2,
+		1, 1, 0, 1, 1, 2, 1, 0, 0, 0, 0, 1, 1, 0};
+
+	static boolean isBinop(int op) {
+		return (op >= ADD && op <= NE);
+	}
+	static boolean isCall(int op) {
+		return (op == CALL || op == CALLOUT);
+	}
+	static boolean isTerminator(int op) {
+		return (op >= JMP);
+	}
+}
+
+/**
+ * A straight run of instructions ending in a terminator (JMP, BR, RET
+ * or FAIL), and the blocks control can go to and come from.  The
+ * instructions are kept in one int array, WIDTH ints apiece, and
+ * call arguments in a second one, so a pass over a block touches two
+ * arrays and no objects.
+ */
+final class BasicBlock
+{
+	static final int WIDTH = 5; // ints per instruction
+	private static final int[] NO_EDGES = new int[0];
+
+	private int id;
+	private int[] code;
+	private int size;    // instructions
+	private int[] args;  // argument registers of the calls
+	private int numArgs;
+	private int[] succs; // block ids; 0, 1, or 2 of them
+	private int[] preds;
+	private int numPreds;
+
+	BasicBlock(int id) {
+		this.id = id;
+		this.code = new int[8 * WIDTH];
+		this.args = NO_EDGES;
+		this.succs = NO_EDGES;
+		this.preds = NO_EDGES;
+	}
+
+	public int id() {
+		return this.id;
+	}
+	void setId(int id) {
+		this.id = id;
+	}
+
+	public int size() {
+		return this.size;
+	}
+	public int op(int i) {
+		return code[i * WIDTH];
+	}
+	public int dst(int i) {
+		return code[i * WIDTH + 1];
+	}
+	public int a(int i) {
+		return code[i * WIDTH + 2];
+	}
+	public int b(int i) {
+		return code[i * WIDTH + 3];
+	}
+	public int c(int i) {
+		return code[i * WIDTH + 4];
+	}
+
+	/**
+	 * How many registers instruction i uses.
+	 */
+	public int numUses(int i) {
+		int op = op(i);
+		if (LirOp.isCall(op))
+			return b(i);
+		if (op == LirOp.RET)
+			return a(i) == LirOp.NONE ? 0 : 1;
+		return LirOp.USES[op];
+	}
+	/**
+	 * The kth register instruction i uses.
+	 */
+	public int use(int i, int k) {
+		if (LirOp.isCall(op(i)))
+			return args[a(i) + k];
+		return k == 0 ? a(i) : b(i);
+	}
+	/**
+	 * Makes instruction i use register r as its kth.
+	 */
+	public void setUse(int i, int k, int r) {
+		if (LirOp.isCall(op(i)))
+			args[a(i) + k] = r;
+		else
+			code[i * WIDTH + 2 + k] = r;
+	}
+
+	/**
+	 * Appends an instruction, returning its index.
+	 */
+	public int add(int op, int dst, int a, int b, int c) {
+		if ((size + 1) * WIDTH > code.length)
+			code = Arrays.copyOf(code, code.length * 2);
+		set(size, op, dst, a, b, c);
+		return size++;
+	}
+	/**
+	 * Appends a CALL or CALLOUT of c with the first n registers of
+	 * regs as arguments.
+	 */
+	public int addCall(int op, int dst, int[] regs, int n, int c) {
+		if (numArgs + n > args.length)
+			args = Arrays.copyOf(args, Math.max(numArgs + n, args.length * 2));
+		System.arraycopy(regs, 0, args, numArgs, n);
+		numArgs += n;
+		return add(op, dst, numArgs - n, n, c);
+	}
+	/**
+	 * Inserts an instruction before instruction i.
+	 */
+	public void insert(int i, int op, int dst, int a, int b, int c) {
+		if ((size + 1) * WIDTH > code.length)
+			code = Arrays.copyOf(code, code.length * 2);
+		System.arraycopy(code, i * WIDTH, code, (i + 1) * WIDTH, (size - i) * WIDTH);
+		size++;
+		set(i, op, dst, a, b, c);
+	}
+	/**
+	 * Removes instruction i.  A call's arguments stay in the pool.
+	 */
+	public void remove(int i) {
+		System.arraycopy(code, (i + 1) * WIDTH, code, i * WIDTH, (size - i - 1) * WIDTH);
+		size--;
+	}
+	public void set(int i, int op, int dst, int a, int b, int c) {
+		int at = i * WIDTH;
+		code[at] = op;
+		code[at + 1] = dst;
+		code[at + 2] = a;
+		code[at + 3] = b;
+		code[at + 4] = c;
+	}
+
+	/**
+	 * Whether the block ends in a terminator yet.
+	 */
+	public boolean isTerminated() {
+		return size > 0 && LirOp.isTerminator(op(size - 1));
+	}
+
+	public int numSuccs() {
+		return succs.length;
+	}
+	public int succ(int k) {
+		return succs[k];
+	}
+	void setSuccs(int... succs) {
+		this.succs = succs;
+	}
+	public int numPreds() {
+		return this.numPreds;
+	}
+	public int pred(int k) {
+		return preds[k];
+	}
+	void clearPreds() {
+		this.numPreds = 0;
+	}
+	void addPred(int id) {
+		if (numPreds == preds.length)
+			preds = Arrays.copyOf(preds, Math.max(2, numPreds * 2));
+		preds[numPreds++] = id;
+	}
+}
+
+/**
+ * One method's low IR: a control-flow graph of BasicBlocks, entered at
+ * block 0.  Registers are numbered per method: the parameters come
+ * first, in order, then the checker's frame slots, then temporaries.
+ * Names of globals, methods and callouts, and string literals, are
+ * kept in tables that instructions index with their C operand; a
+ * string is kept as the source spells it, escapes and all, less the
+ * quotes.
+ */
+final class Cfg
+{
+	private final String name;
+	private final int line;
+	private final int numParams;
+	private int numRegs;
+	private List<BasicBlock> blocks;
+	private final List<String> names;
+	private final HashMap<String, Integer> nameIndex;
+	private final List<String> strings;
+
+	public Cfg(String name, int line, int numParams, int frameSize) {
+		this.name = name;
+		this.line = line;
+		this.numParams = numParams;
+		this.numRegs = numParams + frameSize;
+		this.blocks = new ArrayList<BasicBlock>();
+		this.names = new ArrayList<String>();
+		this.nameIndex = new HashMap<String, Integer>();
+		this.strings = new ArrayList<String>();
+	}
+
+	public String getName() {
+		return this.name;
+	}
+	public int getLine() {
+		return this.line;
+	}
+	public int numParams() {
+		return this.numParams;
+	}
+	public int numRegs() {
+		return this.numRegs;
+	}
+	public int newReg() {
+		return numRegs++;
+	}
+
+	public int numBlocks() {
+		return blocks.size();
+	}
+	public BasicBlock block(int id) {
+		return blocks.get(id);
+	}
+	public BasicBlock newBlock() {
+		BasicBlock b = new BasicBlock(blocks.size());
+		blocks.add(b);
+		return b;
+	}
+
+	public int numInstructions() {
+		int n = 0;
+		for (BasicBlock b : blocks)
+			n += b.size();
+		return n;
+	}
+
+	/**
+	 * The index of name in the name table, adding it if need be.
+	 */
+	public int name(String name) {
+		Integer i = nameIndex.get(name);
+		if (i == null) {
+			i = names.size();
+			names.add(name);
+			nameIndex.put(name, i);
+		}
+		return i;
+	}
+	public String nameAt(int i) {
+		return names.get(i);
+	}
+	public int string(String s) {
+		strings.add(s);
+		return strings.size() - 1;
+	}
+	public String stringAt(int i) {
+		return strings.get(i);
+	}
+	public int numStrings() {
+		return strings.size();
+	}
+
+	/**
+	 * Drops the blocks control cannot reach from the entry, numbers the
+	 * rest in their original order, and fills in predecessors.  Call
+	 * this once the successors are all set.
+	 */
+	public void finish() {
+		int n = blocks.size();
+		int[] number = new int[n];
+		Arrays.fill(number, -1);
+		int[] stack = new int[n];
+		int top = 0;
+		stack[top++] = 0;
+		number[0] = 0;
+		while (top > 0) {
+			BasicBlock b = blocks.get(stack[--top]);
+			for (int k=0; k<b.numSuccs(); k++) {
+				int s = b.succ(k);
+				if (number[s] < 0) {
+					number[s] = 0;
+					stack[top++] = s;
+				}
+			}
+		}
+		List<BasicBlock> live = new ArrayList<BasicBlock>(n);
+		for (int i=0; i<n; i++) {
+			if (number[i] >= 0) {
+				number[i] = live.size();
+				live.add(blocks.get(i));
+			}
+		}
+		for (BasicBlock b : live) {
+			b.setId(number[b.id()]);
+			b.clearPreds();
+		}
+		for (BasicBlock b : live) {
+			int[] succs = new int[b.numSuccs()];
+			for (int k=0; k<succs.length; k++) {
+				succs[k] = number[b.succ(k)];
+				live.get(succs[k]).addPred(b.id());
+			}
+			b.setSuccs(succs);
+		}
+		blocks = live;
+	}
+
+	/**
+	 * Removes instructions whose result is never used and that do
+	 * nothing else, until there are none, and returns how many went.
+	 * Division is kept, as it may trap.
+	 */
+	public int removeDeadCode() {
+		int[] uses = new int[numRegs];
+		for (BasicBlock b : blocks) {
+			for (int i=0; i<b.size(); i++) {
+				for (int k=0; k<b.numUses(i); k++)
+					uses[b.use(i, k)]++;
+			}
+		}
+		int removed = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (BasicBlock b : blocks) {
+				for (int i=b.size()-1; i>=0; i--) {
+					int op = b.op(i);
+					if (b.dst(i) == LirOp.NONE || uses[b.dst(i)] > 0 || LirOp.isCall(op)
+							|| op == LirOp.DIV || op == LirOp.MOD)
+						continue;
+					for (int k=0; k<b.numUses(i); k++)
+						uses[b.use(i, k)]--;
+					b.remove(i);
+					removed++;
+					changed = true;
+				}
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * Appends a listing of the method, one instruction per line.  Line
+	 * numbers are left out, so that a method's listing stays the same
+	 * when the lines above it change, as MethodCache assumes.
+	 */
+	public void emit(Emitter e) throws IOException {
+		e.append("METHOD ").append(name).append('(');
+		for (int i=0; i<numParams; i++) {
+			if (i > 0)
+				e.append(", ");
+			e.append('r').append(i);
+		}
+		e.append(") regs=").append(numRegs).append('\n');
+		for (BasicBlock b : blocks) {
+			e.append('B').append(b.id()).append(':');
+			for (int k=0; k<b.numPreds(); k++)
+				e.append(k == 0 ? " <- B" : ", B").append(b.pred(k));
+			e.append('\n');
+			for (int i=0; i<b.size(); i++)
+				emit(e, b, i);
+		}
+	}
+
+	private void emit(Emitter e, BasicBlock b, int i) throws IOException {
+		int op = b.op(i);
+		e.append('\t');
+		if (b.dst(i) != LirOp.NONE)
+			e.append('r').append(b.dst(i)).append(" = ");
+		switch (op) {
+		case LirOp.CONST:
+			e.append(b.c(i));
+			break;
+		case LirOp.MOV:
+			e.append('r').append(b.a(i));
+			break;
+		case LirOp.NEG:
+			e.append("-r").append(b.a(i));
+			break;
+		case LirOp.NOT:
+			e.append("!r").append(b.a(i));
+			break;
+		case LirOp.LOAD:
+			e.append(names.get(b.c(i)));
+			break;
+		case LirOp.STORE:
+			e.append(names.get(b.c(i))).append(" = r").append(b.a(i));
+			break;
+		case LirOp.LOADA:
+			e.append(names.get(b.c(i))).append("[r").append(b.a(i)).append(']');
+			break;
+		case LirOp.STOREA:
+			e.append(names.get(b.c(i))).append("[r").append(b.a(i))
+				.append("] = r").append(b.b(i));
+			break;
+		case LirOp.BOUND:
+			e.append("bound r").append(b.a(i)).append(", ").append(b.b(i));
+			break;
+		case LirOp.STR:
+			e.append('"').append(strings.get(b.c(i))).append('"');
+			break;
+		case LirOp.CALL:
+		case LirOp.CALLOUT:
+			e.append(LirOp.NAME[op]).append(' ').append(names.get(b.c(i))).append('(');
+			for (int k=0; k<b.numUses(i); k++) {
+				if (k > 0)
+					e.append(", ");
+				e.append('r').append(b.use(i, k));
+			}
+			e.append(')');
+			break;
+		case LirOp.JMP:
+			e.append("jmp B").append(b.succ(0));
+			break;
+		case LirOp.BR:
+			e.append("br r").append(b.a(i)).append(", B").append(b.succ(0))
+				.append(", B").append(b.succ(1));
+			break;
+		case LirOp.RET:
+			e.append("ret");
+			if (b.a(i) != LirOp.NONE)
+				e.append(" r").append(b.a(i));
+			break;
+		case LirOp.FAIL:
+			e.append("fail");
+			break;
+		default:
+			e.append('r').append(b.a(i)).append(' ').append(LirOp.NAME[op])
+				.append(" r").append(b.b(i));
+		}
+		e.append('\n');
+	}
+}
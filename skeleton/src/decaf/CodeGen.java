@@ -1,334 +1,593 @@
 package decaf;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.HashMap;
-import java.util.Set;
 import java.util.Deque;
 import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java6035.tools.CLI.*;
 
 public class CodeGen {
-	
+
+	// how many methods are lowered at once
+	private static final int WINDOW = 4 * ForkJoinPool.getCommonPoolParallelism();
+
 	private IrNode highIr; // root of high-order internal representation tree
 	private boolean debug;
-	private List<LowIrNode> lowIr;
-	//private PrintWriter out;
-	
-	public CodeGen(IrNode highIr, boolean debug) {
+	private PrintStream out;
+	private CompilationContext ctx;
+	private MethodCache cache; // null unless -cache was given
+	private String layout; // the program's MethodCache.layoutOf()
+	private boolean assembly; // emitting x86-64 rather than a listing
+
+	// state of the method being lowered
+	private Cfg cfg;
+	private BasicBlock cur; // where instructions go next
+	private Deque<BasicBlock> breakTargets;
+	private Deque<BasicBlock> continueTargets;
+
+	public CodeGen(IrNode highIr, CompilationContext ctx) {
 		this.highIr = highIr;
-		this.debug = debug;
-		this.lowIr = new ArrayList<LowIrNode>();
-		//this.out = new PrintWriter(new FileWriter("/tmp/codegen.out"))); 
+		this.debug = ctx.debug;
+		this.out = ctx.out;
+		this.ctx = ctx;
+		this.cache = ctx.cache;
+		this.assembly = ctx.target == CLI.ASSEMBLY;
 	}
-	
-	public void printLowIr() {
-		for (int i=0; i<lowIr.size(); i++)
-			printLirTree(lowIr.get(i));
+
+	/**
+	 * A CodeGen for lowering just one method of parent's program.
+	 * Anything it prints is held in a buffer until the parent is ready
+	 * to print it in declaration order.
+	 */
+	private CodeGen(CodeGen parent, IrMethodDecl method, ByteArrayOutputStream buf) {
+		this.highIr = method;
+		this.debug = parent.debug;
+		this.out = new PrintStream(buf);
+		this.ctx = parent.ctx;
+		this.cache = parent.cache;
+		this.layout = parent.layout;
+		this.assembly = parent.assembly;
+		this.breakTargets = new ArrayDeque<BasicBlock>();
+		this.continueTargets = new ArrayDeque<BasicBlock>();
 	}
-	
-	public void printLirTree(LowIrNode n) {
-		if (n == null) {
-			System.out.println("<null>");
-			return;
+
+	/**
+	 * Lowers one method on its own CodeGen.  With a cache, the method's
+	 * whole output is looked up first, and stored once it is made, in
+	 * output rather than as a Cfg.
+	 */
+	private class MethodTask extends RecursiveTask<Cfg> {
+		private static final long serialVersionUID = 1L;
+		
+		private final IrMethodDecl method;
+		private final ByteArrayOutputStream messages;
+		private byte[] output;
+		private int[] regs; // the register allocation, for assembly
+
+		public MethodTask(IrMethodDecl method) {
+			this.method = method;
+			this.messages = new ByteArrayOutputStream();
 		}
-		System.out.println(n);
-		for (int i=0; i<n.children.size(); i++) {
-			printLirTree(n.children.get(i));
+
+		@Override
+		protected Cfg compute() {
+			String key = null;
+			if (cache != null) {
+				key = MethodCache.keyOf(layout, method);
+				output = cache.get(key);
+				if (output != null) {
+					ctx.stats.count("cacheHits", 1);
+					return null;
+				}
+				ctx.stats.count("cacheMisses", 1);
+			}
+			CodeGen gen = new CodeGen(CodeGen.this, method, messages);
+			Cfg result = gen.genMethod(method);
+			gen.out.flush();
+			optimize(result);
+			if (assembly) {
+				regs = RegAlloc.allocate(result, ctx.isEnabled(Main.REGALLOC));
+				ctx.stats.count("spilledRegs", RegAlloc.numSpilled(regs));
+			}
+			if (cache == null)
+				return result;
+			try {
+				Emitter code = new Emitter(Channels.newChannel(messages), 4096);
+				emitCfg(code, result, regs);
+				code.flush();
+			} catch (IOException e) {
+				// can't happen writing to memory
+			}
+			output = messages.toByteArray();
+			cache.put(key, output);
+			return null;
 		}
 	}
-	public void genLowIr() {
+
+	/**
+	 * Runs the optimizations the options ask for over cfg: constants
+	 * first, so that the other passes see what they fold away.
+	 */
+	private void optimize(Cfg cfg) {
+		if (ctx.isEnabled(Main.CONSTPROP)) {
+			int[] folded = ConstProp.run(cfg);
+			ctx.stats.count("constFolded", folded[0]);
+			ctx.stats.count("constBranches", folded[1]);
+			ctx.stats.count("constBoundChecks", folded[2]);
+		}
+		if (ctx.isEnabled(Main.COPYPROP))
+			ctx.stats.count("copiesPropagated", CopyProp.run(cfg));
+		if (ctx.isEnabled(Main.CSE)) {
+			int[] eliminated = Cse.run(cfg);
+			ctx.stats.count("cseExpressions", eliminated[0]);
+			ctx.stats.count("cseBoundChecks", eliminated[1]);
+			// clean up the copies CSE leaves behind
+			if (ctx.isEnabled(Main.COPYPROP))
+				ctx.stats.count("copiesPropagated", CopyProp.run(cfg));
+		}
+	}
+
+	private void emitCfg(Emitter code, Cfg cfg, int[] regs) throws IOException {
+		if (assembly)
+			AsmGen.emit(cfg, regs, code);
+		else
+			cfg.emit(code);
+		ctx.stats.count("lirBlocks", cfg.numBlocks());
+		ctx.stats.count("lirInstructions", cfg.numInstructions());
+	}
+
+	/**
+	 * Lowers the program and streams it to code.  Fields are laid out
+	 * here in order.  Methods are independent of one another, so they
+	 * are lowered as fork-join tasks, a window of them at a time; each
+	 * window's results (and anything printed along the way) are emitted
+	 * in declaration order and dropped before the next window starts,
+	 * so only a window's worth of low IR is ever held in memory.
+	 */
+	public void genLowIr(Emitter code) throws IOException {
+		genMethods(code);
+	}
+
+	/**
+	 * Compiles the program to x86-64 assembly and streams it to code,
+	 * the same way genLowIr() does its listing.
+	 */
+	public void genAssembly(Emitter code) throws IOException {
+		genMethods(code);
+		AsmGen.emitRuntime(code);
+	}
+
+	private void genMethods(Emitter code) throws IOException {
+		if (cache != null)
+			layout = MethodCache.layoutOf(highIr, ctx);
+		List<MethodTask> window = new ArrayList<MethodTask>();
 		for (int i=0; i<highIr.numChildren(); i++) {
 			IrNode n = highIr.child(i);
 			if (n instanceof IrFieldDecl) {
-				lowIr.add(genField((IrFieldDecl) n));
+				emitMethods(code, window);
+				genField(code, (IrFieldDecl) n);
 			}
 			if (n instanceof IrMethodDecl) {
-				lowIr.add(genMethod((IrMethodDecl) n));
+				window.add(new MethodTask((IrMethodDecl) n));
+				if (window.size() == WINDOW)
+					emitMethods(code, window);
 			}
 		}
+		emitMethods(code, window);
 	}
-	
-	private String getJump(int op, boolean tf) {
-		// jump instructions corresponding to rel/eq ops in IrOps
-		String[] trueJump = {"X", "X", "X", "X", "X", "X", "X", 
-				"JL", "JLE", "JG", "JGE", "JE", "JNE"};
-		String[] falseJump = {"X", "X", "X", "X", "X", "X", "X", 
-				"JNL", "JNLE", "JNG", "JNGE", "JNE", "JE"};
-		if (tf)
-			return trueJump[op];
-		return falseJump[op];
-	}
-	
-	private LowIrNode genField(IrFieldDecl n) {
-		if (n instanceof IrArrayFieldDecl) {
-			return new LirField(n.getId().getIdString(), 
-									((IrArrayFieldDecl) n).getSize());
+
+	private void emitMethods(Emitter code, final List<MethodTask> window)
+			throws IOException {
+		if (window.isEmpty())
+			return;
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(window);
+			}
+		});
+		for (MethodTask t : window) {
+			if (t.output != null) {
+				code.append(t.output);
+				continue;
+			}
+			code.append(t.messages.toByteArray());
+			emitCfg(code, t.join(), t.regs);
 		}
-		else {
-			return new LirField(n.getId().getIdString(), 1);
+		window.clear();
+	}
+
+	private void genField(Emitter code, IrFieldDecl n) throws IOException {
+		int slots = 1;
+		if (n instanceof IrArrayFieldDecl)
+			slots = ((IrArrayFieldDecl) n).getSize();
+		if (assembly) {
+			AsmGen.emitField(code, n.getId().getIdString(), 8*slots);
+			return;
 		}
+		code.append("GLOBAL, ").append(n.getId().getIdString()).append(", ")
+			.append(8*slots).append('\n');
 	}
-	
-	private LowIrNode genMethod(IrMethodDecl n) {	
+
+	/**
+	 * Builds n's control-flow graph.  Control that reaches the end of
+	 * the body returns, or, if the method should have returned a
+	 * value, is a runtime error.
+	 */
+	private Cfg genMethod(IrMethodDecl n) {
 		int numParams = n.numChildren() - 1;
-		//Deque<HashMap<String, Integer>> symStack = 
-		//			new ArrayDeque<HashMap<String, Integer>>();
-		//HashMap<String, Integer> syms = new HashMap<String, Integer>();
-		List<String> args = new ArrayList<String>();
-		for (int i=0; i<numParams; i++) {
-			String id = ((IrMethodArg) n.child(i)).getArgId().getIdString();
-			args.add(id);
-			//syms.put(id, syms.size()+1);
+		cfg = new Cfg(n.getId().getIdString(), n.getLineNum(), numParams,
+				n.getFrameSize());
+		cur = cfg.newBlock();
+		genBlock((IrBlock) n.child(numParams));
+		if (!cur.isTerminated()) {
+			if (n.getReturnType().getTypeCode() == Ir.VOID)
+				cur.add(LirOp.RET, LirOp.NONE, LirOp.NONE, 0, 0);
+			else
+				cur.add(LirOp.FAIL, LirOp.NONE, 0, 0, n.getLineNum());
 		}
-		
-		//symStack.push(syms);
-		LowIrNode method = new LirMethod(n.getId().getIdString(), args);
-		//((LirMethod) method).syms = syms;
-		LowIrNode block = genBlock((IrBlock) n.child(n.numChildren()-1));
-		method.children.add(block);
-		
-		return method;
-		
+		cfg.finish();
+		return cfg;
 	}
-	
-	private LowIrNode genBlock(IrBlock n) {
-		//int curr = syms.size() + 1;
-		//HashMap<String, Integer> newSyms = new HashMap<String, Integer>(syms); // copy
-		List<String> vars = new ArrayList<String>();
-		LirBlock b = new LirBlock();
+
+	/**
+	 * The register holding local or parameter b.
+	 */
+	private int reg(SymbolTableEntry b) {
+		if (b.getStorage() == SymbolTableEntry.PARAM)
+			return b.getSlot();
+		return cfg.numParams() + b.getSlot();
+	}
+
+	/**
+	 * Ends the current block with a jump to target.
+	 */
+	private void jump(BasicBlock target) {
+		cur.add(LirOp.JMP, LirOp.NONE, 0, 0, 0);
+		cur.setSuccs(target.id());
+	}
+
+	private void branch(int cond, BasicBlock t, BasicBlock f) {
+		cur.add(LirOp.BR, LirOp.NONE, cond, 0, 0);
+		cur.setSuccs(t.id(), f.id());
+	}
+
+	/**
+	 * Goes on in a fresh block after a jump or return.  Nothing jumps
+	 * to it, so unless something does later, finish() drops it.
+	 */
+	private void unreachable() {
+		cur = cfg.newBlock();
+	}
+
+	private int emit(int op, int a, int b, int c) {
+		int dst = cfg.newReg();
+		cur.add(op, dst, a, b, c);
+		return dst;
+	}
+
+	private void genBlock(IrBlock n) {
 		for (int i=0; i<n.numChildren(); i++) {
-			if (n.child(i) instanceof IrVarDecl) {
-				String id = ((IrVarDecl) n.child(i)).getVarId().getIdString();
-				vars.add(id);
-				//newSyms.put(id, curr);
-				//curr++;
+			if (n.child(i).kind() == IrKind.VAR_DECL) {
+				// locals start at 0 (or false) each time the block is entered
+				int var = reg(((IrVarDecl) n.child(i)).getBinding());
+				cur.add(LirOp.CONST, var, 0, 0, 0);
 			}
-			if (n.child(i) instanceof IrStatement) {
-				//LowIrNode child = genStatement((IrStatement) n.child(i), newSyms);
-				LowIrNode child = genStatement((IrStatement) n.child(i));
-				b.children.add(child);
+			else {
+				genStatement((IrStatement) n.child(i));
 			}
 		}
-		b.vars = vars;
-		//((LirBlock) b).syms = newSyms;
-		return (LowIrNode) b;
 	}
-	
-	private LowIrNode genStatement(IrStatement s) {
-		if (s instanceof IrAssignStmt) {
-			return genAssignStmt((IrAssignStmt) s);
-		} 
-		else if (s instanceof IrPlusAssignStmt) {
-			return genPlusAssignStmt((IrPlusAssignStmt) s);
-		} 
-		else if (s instanceof IrMinusAssignStmt) {
-			return genMinusAssignStmt((IrMinusAssignStmt) s);
-		} 
-//			else if (s instanceof IrBreakStmt) {
-//			return genBreakStmt((IrBreakStmt) s);
-//		} 
-		else if (s instanceof IrIfStmt) {
-			return genIfStmt((IrIfStmt) s);
-		} 
-//		else if (s instanceof IrForStmt) {
-//			return genForStmt((IrForStmt) s);
-//		} else if (s instanceof IrReturnStmt) {
-//			return genReturnStmt((IrReturnStmt) s);
-//		} else if (s instanceof IrContinueStmt) {
-//			return genContinueStmt((IrContinueStmt) s);
-//		} else if (s instanceof IrInvokeStmt) {
-//			return genInvokeStmt((IrInvokeStmt) s);
-//		}
-		else if (s instanceof IrBlock) {
-			return genBlock((IrBlock) s);
-		} 
-		else {
-			System.out.println("genStatement: skipping");
+
+	private void genStatement(IrStatement s) {
+		s.accept(statementGen);
+	}
+
+	/**
+	 * Dispatches statements to their gen methods.
+	 */
+	private final IrVisitor<Void> statementGen = new IrWalker<Void>() {
+		@Override
+		public Void visitNode(IrNode n) {
+			out.println("genStatement: this shouldn't happen");
 			return null;
 		}
-	}
+		@Override
+		public Void visitAssignStmt(IrAssignStmt s) {
+			genAssignStmt(s);
+			return null;
+		}
+		@Override
+		public Void visitPlusAssignStmt(IrPlusAssignStmt s) {
+			genUpdateStmt(s, LirOp.ADD);
+			return null;
+		}
+		@Override
+		public Void visitMinusAssignStmt(IrMinusAssignStmt s) {
+			genUpdateStmt(s, LirOp.SUB);
+			return null;
+		}
+		@Override
+		public Void visitIfStmt(IrIfStmt s) {
+			genIfStmt(s);
+			return null;
+		}
+		@Override
+		public Void visitForStmt(IrForStmt s) {
+			genForStmt(s);
+			return null;
+		}
+		@Override
+		public Void visitReturnStmt(IrReturnStmt s) {
+			int value = LirOp.NONE;
+			if (s.numChildren() > 0)
+				value = genExpression((IrExpression) s.child(0));
+			cur.add(LirOp.RET, LirOp.NONE, value, 0, 0);
+			unreachable();
+			return null;
+		}
+		@Override
+		public Void visitBreakStmt(IrBreakStmt s) {
+			jump(breakTargets.peek());
+			unreachable();
+			return null;
+		}
+		@Override
+		public Void visitContinueStmt(IrContinueStmt s) {
+			jump(continueTargets.peek());
+			unreachable();
+			return null;
+		}
+		@Override
+		public Void visitInvokeStmt(IrInvokeStmt s) {
+			genCallExpr((IrCallExpr) s.child(0));
+			return null;
+		}
+		@Override
+		public Void visitBlock(IrBlock s) {
+			genBlock(s);
+			return null;
+		}
+	};
 
-	private LowIrNode genAssignStmt(IrAssignStmt s) {
+	private void genAssignStmt(IrAssignStmt s) {
 		IrLocationExpr lhs = (IrLocationExpr) s.child(0);
 		IrExpression rhs = (IrExpression) s.child(1);
-		String loc = lhs.getId().getIdString();
-//		String tLoc;
-		String jump = null;
-		// TODO: deal with array location, deal with boolean type
-//		if (syms.get(loc) == null) 
-//			tLoc = "GLOBAL_" + loc;
-//		else
-//			tLoc = "LOCAL_" + syms.get(loc);
-		String exp = genExpression(rhs, 0);
-		if (rhs.getType() == Ir.BOOL) {
-			if (rhs instanceof IrBinopExpr) {
-				int op = ((IrBinopExpr) rhs).getOperator();
-				if (IrOps.isRel(op) || IrOps.isEq(op)) {
-					jump = getJump(op, true);
-				}
-			}
+		SymbolTableEntry b = lhs.getBinding();
+		if (b.getStorage() != SymbolTableEntry.GLOBAL) {
+			int value = genExpression(rhs);
+			cur.add(LirOp.MOV, reg(b), value, 0, 0);
+		}
+		else if (lhs.kind() == IrKind.ARRAY_LOCATION_EXPR) {
+			int index = genExpression((IrExpression) lhs.child(0));
+			int value = genExpression(rhs);
+			genBound(lhs, index);
+			cur.add(LirOp.STOREA, LirOp.NONE, index, value, cfg.name(b.getId().getIdString()));
+		}
+		else {
+			int value = genExpression(rhs);
+			cur.add(LirOp.STORE, LirOp.NONE, value, 0, cfg.name(b.getId().getIdString()));
 		}
-		return new LirAssignStmt(loc, exp, jump);
-	}
-	
-	private LowIrNode genPlusAssignStmt(IrPlusAssignStmt s) {
-		IrLocationExpr lhs = (IrLocationExpr) s.child(0);
-		IrExpression rhs = (IrExpression) s.child(1);
-		String loc = lhs.getId().getIdString();
-//		String tLoc = "LOC_" + syms.get(loc);
-		String exp = genExpression(rhs, 0);
-		return new LirPlusAssignStmt(loc, exp);
 	}
-	
-	private LowIrNode genMinusAssignStmt(IrMinusAssignStmt s) {
+
+	/**
+	 * Lowers += (op ADD) or -= (op SUB).  The location is read before
+	 * the right side is evaluated.
+	 */
+	private void genUpdateStmt(IrStatement s, int op) {
 		IrLocationExpr lhs = (IrLocationExpr) s.child(0);
 		IrExpression rhs = (IrExpression) s.child(1);
-		String loc = lhs.getId().getIdString();
-//		String tLoc = "LOC_" + syms.get(loc);
-		String exprCode = genExpression(rhs, 0);
-		return new LirMinusAssignStmt(loc, exprCode);
-	}
-	
-	private LowIrNode genIfStmt(IrIfStmt s) {
-		IrExpr c = (IrExpr) s.child(0);
-		IrBlock trueB = (IrBlock) s.child(1);
-		IrBlock falseB = null;
-		if (s.numChildren() == 3) {
-			falseB = (IrBlock) s.child(2);
+		SymbolTableEntry b = lhs.getBinding();
+		if (b.getStorage() != SymbolTableEntry.GLOBAL) {
+			int value = genExpression(rhs);
+			cur.add(op, reg(b), reg(b), value, 0);
+			return;
 		}
-		LirBlock tb = (LirBlock) genBlock(trueB);
-		LirBlock fb;
-		if (falseB == null) {
-			fb = new Nop();
+		int name = cfg.name(b.getId().getIdString());
+		if (lhs.kind() == IrKind.ARRAY_LOCATION_EXPR) {
+			int index = genExpression((IrExpression) lhs.child(0));
+			genBound(lhs, index);
+			int old = emit(LirOp.LOADA, index, 0, name);
+			int value = genExpression(rhs);
+			int sum = emit(op, old, value, 0);
+			cur.add(LirOp.STOREA, LirOp.NONE, index, sum, name);
 		}
 		else {
-			fb = (LirBlock) genBlock(falseB);
+			int old = emit(LirOp.LOAD, 0, 0, name);
+			int value = genExpression(rhs);
+			int sum = emit(op, old, value, 0);
+			cur.add(LirOp.STORE, LirOp.NONE, sum, 0, name);
 		}
-		Nop e = new Nop();
-		tb.next = e;
-		fb.next = e;
-		
-		
 	}
-	
-	private String genExpression(IrExpression e, int tempNum) {
-		String result = null;
-		if (e instanceof IrIntLiteral) {
-					result = "\nT" + tempNum + " = $" + ((IrIntLiteral) e).getValue();		
-		} 
-		else if (e instanceof IrBooleanLiteral) {
-			result = genBooleanLiteral((IrBooleanLiteral) e, tempNum);
-		} 
-//		else if (e instanceof IrCharLiteral) {
-//			genCharLiteral((IrCharLiteral) e);
-//		} 
-//		else if (e instanceof IrStringLiteral) {
-//			genStringLiteral((IrStringLiteral) e);
-//		} 
-//		else if (e instanceof IrMethodCallExpr) {
-//			genMethodCallExpr((IrMethodCallExpr) e, syms);
-//		} 
-//		else if (e instanceof IrCalloutExpr) {
-//			genCalloutExpr((IrCalloutExpr) e, syms);
-//		} 
-		else if (e instanceof IrBinopExpr) {
+
+	private void genIfStmt(IrIfStmt s) {
+		BasicBlock t = cfg.newBlock();
+		BasicBlock f = s.numChildren() == 3 ? cfg.newBlock() : null;
+		BasicBlock join = cfg.newBlock();
+		genCondition((IrExpression) s.child(0), t, f == null ? join : f);
+		cur = t;
+		genBlock((IrBlock) s.child(1));
+		jump(join);
+		if (f != null) {
+			cur = f;
+			genBlock((IrBlock) s.child(2));
+			jump(join);
+		}
+		cur = join;
+	}
+
+	/**
+	 * Lowers a for loop.  Both bounds are evaluated once, before the
+	 * loop; continue goes to the increment.
+	 */
+	private void genForStmt(IrForStmt s) {
+		int var = reg(s.getBinding());
+		int init = genExpression((IrExpression) s.child(0));
+		int end = genExpression((IrExpression) s.child(1));
+		if (end < cfg.numParams() + frameSize())
+			end = emit(LirOp.MOV, end, 0, 0); // the body may change it
+		cur.add(LirOp.MOV, var, init, 0, 0);
+		BasicBlock header = cfg.newBlock();
+		BasicBlock body = cfg.newBlock();
+		BasicBlock step = cfg.newBlock();
+		BasicBlock exit = cfg.newBlock();
+		jump(header);
+		cur = header;
+		branch(emit(LirOp.LT, var, end, 0), body, exit);
+		cur = body;
+		breakTargets.push(exit);
+		continueTargets.push(step);
+		genBlock((IrBlock) s.child(2));
+		breakTargets.pop();
+		continueTargets.pop();
+		jump(step);
+		cur = step;
+		cur.add(LirOp.ADD, var, var, emit(LirOp.CONST, 0, 0, 1), 0);
+		jump(header);
+		cur = exit;
+	}
+
+	private int frameSize() {
+		return ((IrMethodDecl) highIr).getFrameSize();
+	}
+
+	/**
+	 * Ends the current block with a branch on e to t or f.  && and ||
+	 * branch as soon as their left side settles the outcome.
+	 */
+	private void genCondition(IrExpression e, BasicBlock t, BasicBlock f) {
+		switch (e.kind()) {
+		case IrKind.BOOLEAN_LITERAL:
+			jump(((IrBooleanLiteral) e).getValue() ? t : f);
+			return;
+		case IrKind.NOT_EXPR:
+			genCondition((IrExpression) e.child(0), f, t);
+			return;
+		case IrKind.BINOP_EXPR:
 			int op = ((IrBinopExpr) e).getOperator();
-			if (IrOps.isArith(op)) {
-				result = genArithBinopExpr((IrBinopExpr) e, tempNum);
+			if (IrOps.isCond(op)) {
+				BasicBlock right = cfg.newBlock();
+				if (op == IrOps.AND)
+					genCondition((IrExpression) e.child(0), right, f);
+				else
+					genCondition((IrExpression) e.child(0), t, right);
+				cur = right;
+				genCondition((IrExpression) e.child(1), t, f);
+				return;
 			}
-			if (IrOps.isRel(op) || IrOps.isEq(op)) {
-				result = genRelBinopExpr((IrBinopExpr) e, tempNum);
-			}
-		} 
-		else if (e instanceof IrNotExpr) {
-			result = genNotExpr((IrNotExpr) e, tempNum);
-		} 
-		else if (e instanceof IrNegativeExpr) {
-			result = genNegativeExpr((IrNegativeExpr) e, tempNum);
-		}
-//		else if (e instanceof IrArrayLocationExpr) {
-//			genArrayLocationExpr((IrArrayLocationExpr) e, syms);
-//		}
-		else if (e instanceof IrLocationExpr) {
-			result = genLocationExpr((IrLocationExpr) e, tempNum);
-		} 
-		else {
-			System.out.println("genExpression: this shouldn't happen");
+			break;
 		}
-		return result;
+		branch(genExpression(e), t, f);
 	}
-	
-	private String genBooleanLiteral(IrBooleanLiteral e, int tempNum) {
-		String result = "";
-		if (e.getValue())
-			result += "\nT" + tempNum + "= $1";
-		else
-			result += "\nT" + tempNum + "= $0";
-		return result;
+
+	/**
+	 * Lowers e and returns the register holding its value, or NONE for
+	 * a call of a void method.  A local or parameter is its own
+	 * register; everything else gets a new one.
+	 */
+	private int genExpression(IrExpression e) {
+		switch (e.kind()) {
+		case IrKind.INT_LITERAL:
+			return emit(LirOp.CONST, 0, 0, ((IrIntLiteral) e).getValue());
+		case IrKind.CHAR_LITERAL:
+			return emit(LirOp.CONST, 0, 0, ((IrCharLiteral) e).getValue());
+		case IrKind.BOOLEAN_LITERAL:
+			return emit(LirOp.CONST, 0, 0, ((IrBooleanLiteral) e).getValue() ? 1 : 0);
+		case IrKind.STRING_LITERAL:
+			return emit(LirOp.STR, 0, 0, cfg.string(unquote(((IrStringLiteral) e).getValue())));
+		case IrKind.METHOD_CALL_EXPR:
+		case IrKind.CALLOUT_EXPR:
+			int result = genCallExpr((IrCallExpr) e);
+			// a void method's value, which the checker has reported
+			if (result == LirOp.NONE)
+				result = emit(LirOp.CONST, 0, 0, 0);
+			return result;
+		case IrKind.BINOP_EXPR:
+			int op = ((IrBinopExpr) e).getOperator();
+			if (IrOps.isCond(op))
+				return genCondExpr(e);
+			int l = genExpression((IrExpression) e.child(0));
+			int r = genExpression((IrExpression) e.child(1));
+			return emit(op, l, r, 0); // same codes as IrOps
+		case IrKind.NOT_EXPR:
+			return emit(LirOp.NOT, genExpression((IrExpression) e.child(0)), 0, 0);
+		case IrKind.NEGATIVE_EXPR:
+			return emit(LirOp.NEG, genExpression((IrExpression) e.child(0)), 0, 0);
+		case IrKind.LOCATION_EXPR:
+		case IrKind.ARRAY_LOCATION_EXPR:
+			return genLocationExpr((IrLocationExpr) e);
+		default:
+			throw new IllegalStateException("genExpression: unknown kind " + e.kind());
+		}
 	}
 
-	private String genArithBinopExpr(IrBinopExpr e, int tempNum) {
-		// generate code to put value in TtempNum
-		String result; 
-		IrExpression lhs = (IrExpression) e.child(0);
-		IrExpression rhs = (IrExpression) e.child(1);
-		result = genExpression(lhs, tempNum + 1);
-		result += genExpression(rhs, tempNum + 2);
-		int op = e.getOperator();
-		result += "\n";
-		result += "T" + tempNum + " = ";
-		result += "T" + (tempNum + 1);
-		result += " "+ IrOps.SYM[op] + " ";
-		result += "T" + (tempNum + 2);
-		return result;
+	/**
+	 * An && or || as a value: 1 or 0 from the two ends of a branch.
+	 */
+	private int genCondExpr(IrExpression e) {
+		int dst = cfg.newReg();
+		BasicBlock t = cfg.newBlock();
+		BasicBlock f = cfg.newBlock();
+		BasicBlock join = cfg.newBlock();
+		genCondition(e, t, f);
+		cur = t;
+		cur.add(LirOp.CONST, dst, 0, 0, 1);
+		jump(join);
+		cur = f;
+		cur.add(LirOp.CONST, dst, 0, 0, 0);
+		jump(join);
+		cur = join;
+		return dst;
 	}
 
-	private String genRelBinopExpr(IrBinopExpr e, int tempNum) {
-		String r0 = "T" + tempNum;
-		String r1 = "T" + (tempNum + 1);
-		IrExpression lhs = (IrExpression) e.child(0);
-		IrExpression rhs = (IrExpression) e.child(1);
-		int op = e.getOperator();
-		String result = genExpression(lhs, tempNum);
-		result += genExpression(rhs, tempNum + 1);
-		result += "\nCMP " + r0 + ", " + r1;
-		return result;
+	private int genCallExpr(IrCallExpr e) {
+		int n = e.numChildren();
+		int[] args = new int[n];
+		for (int i=0; i<n; i++)
+			args[i] = genExpression((IrExpression) e.child(i));
+		int dst = cfg.newReg();
+		if (e.kind() == IrKind.CALLOUT_EXPR) {
+			String name = unquote(((IrCalloutExpr) e).getCallout());
+			cur.addCall(LirOp.CALLOUT, dst, args, n, cfg.name(name));
+			return dst;
+		}
+		IrMethodCallExpr call = (IrMethodCallExpr) e;
+		if (call.getBinding().getSig().getReturnType() == Ir.VOID)
+			dst = LirOp.NONE;
+		cur.addCall(LirOp.CALL, dst, args, n, cfg.name(call.getId().getIdString()));
+		return dst;
 	}
 
-	private String genNotExpr(IrNotExpr e, int tempNum) {
-		IrExpression child = (IrExpression) e.child(0);
-		String result = genExpression(child, tempNum);
-		return result; // TODO: this is wrong
+	// string literals keep their quotes in the high IR
+	private static String unquote(String s) {
+		return s.substring(1, s.length() - 1);
 	}
 
-	private String genNegativeExpr(IrNegativeExpr e, int tempNum) {
-		IrExpression child = (IrExpression) e.child(0);
-		String result = genExpression(child, tempNum);
-		// T0 has child
-		// T1 = $-1
-		// T0 = T1 * T0
-		result += "\nT" + (tempNum + 1) + " = $-1";
-		result += "\nT" + tempNum + " = T" + (tempNum + 1) + " * T" + tempNum;
-		return result;
+	private int genLocationExpr(IrLocationExpr e) {
+		SymbolTableEntry b = e.getBinding();
+		if (b.getStorage() != SymbolTableEntry.GLOBAL)
+			return reg(b);
+		int name = cfg.name(b.getId().getIdString());
+		if (e.kind() == IrKind.ARRAY_LOCATION_EXPR) {
+			int index = genExpression((IrExpression) e.child(0));
+			genBound(e, index);
+			return emit(LirOp.LOADA, index, 0, name);
+		}
+		return emit(LirOp.LOAD, 0, 0, name);
 	}
 
-	private String genLocationExpr(IrLocationExpr e, int tempNum) {
-		String loc = e.getId().getIdString();
-//		String tLoc;
-//		if (syms.get(loc) == null) 
-//			tLoc = "GLOBAL_" + loc;
-//		else
-//			tLoc = "LOCAL_" + syms.get(loc);
-		return "\nT" + tempNum + " = " + loc;
+	/**
+	 * Checks index against the length of the array e names.
+	 */
+	private void genBound(IrLocationExpr e, int index) {
+		int size = ((IrArrayFieldDecl) e.getBinding().getDecl()).getSize();
+		cur.add(LirOp.BOUND, LirOp.NONE, index, size, e.getLineNum());
 	}
-	
-//	private String genAndExpr(IrBinopExpr e, int tempNum, 
-//								String trueLabel, String falseLabel) {
-//		IrExpression lhs = (IrExpression) e.child(0);
-//		IrExpression rhs = (IrExpression) e.child(1);
-//		String result = "";
-//		String trueLabel2 = trueLabel + "_x";
-//		
-//		
-//	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package decaf;
+
+import java.io.PrintStream;
+import java6035.tools.CLI.*;
+
+/**
+ * Everything one run of the compiler knows about the file it is
+ * compiling: the settings it was started with, where its output goes,
+ * and the identifiers it has seen.  The pipeline keeps no state
+ * anywhere else, so each context can be compiled on its own thread.
+ */
+public class CompilationContext {
+	public final String infile;
+	public final String outfile;
+	public final int target;
+	public final int scanner;
+	public final boolean[] opts;
+	public final boolean debug;
+	public final PrintStream out; // normal output
+	public final PrintStream err; // parser diagnostics
+	public final IdTable ids;
+	public final MethodCache cache; // lowered methods, or null for none
+	public final Stats stats; // records nothing unless -stats was given
+	
+	/**
+	 * Creates a context for one input file, taking the target, scanner,
+	 * opts and debug flag from the command line already read by CLI.parse.
+	 */
+	public CompilationContext(String infile, String outfile, 
+								PrintStream out, PrintStream err) {
+		this(infile, outfile, out, err, null);
+	}
+	
+	/**
+	 * Same, but reusing lowered methods from cache, which may be
+	 * shared with other contexts.
+	 */
+	public CompilationContext(String infile, String outfile, 
+								PrintStream out, PrintStream err, MethodCache cache) {
+		this.infile = infile;
+		this.outfile = outfile;
+		this.target = CLI.target;
+		this.scanner = CLI.scanner;
+		this.opts = CLI.opts.clone();
+		this.debug = CLI.debug;
+		this.out = out;
+		this.err = err;
+		this.ids = new IdTable();
+		this.cache = cache;
+		this.stats = new Stats(CLI.stats);
+	}
+	
+	/**
+	 * Whether -opt turned on the option at index i of Main.OPTS.
+	 */
+	public boolean isEnabled(int i) {
+		// CLI.parse may have been given fewer names, as by the benchmarks
+		return i < opts.length && opts[i];
+	}
+}
@@ -0,0 +1,226 @@
+package decaf;
+
+import java.util.Arrays;
+
+/**
+ * Conditional constant propagation, after Wegman and Zadeck, over the
+ * blocks of a Cfg.  Each register has a value on entry to each block:
+ * UNDEF until something defines it, a constant, or VARYING.  Only the
+ * edges a branch can take, given what its condition may be, carry
+ * values, so a constant that only an impossible path would spoil stays
+ * a constant.  Then an instruction whose result is a known constant
+ * becomes a CONST, a branch on a known condition becomes a jump, and a
+ * BOUND check of a constant index that is in bounds goes, along with
+ * the blocks no longer reached and the constants no longer read.
+ *
+ * Nothing that would trap is folded: division or remainder by zero,
+ * or of the least int by -1, is left for the machine to do at run
+ * time.
+ */
+final class ConstProp
+{
+	private static final byte UNDEF = 0;
+	private static final byte CONST = 1;
+	private static final byte VARYING = 2;
+
+	private final Cfg cfg;
+	private final int numRegs;
+	private final byte[][] kind;  // per block, per register, on entry
+	private final int[][] value;  // the constant, if kind is CONST
+
+	private ConstProp(Cfg cfg) {
+		this.cfg = cfg;
+		this.numRegs = cfg.numRegs();
+		this.kind = new byte[cfg.numBlocks()][];
+		this.value = new int[cfg.numBlocks()][];
+	}
+
+	/**
+	 * Propagates cfg's constants, returning how many instructions were
+	 * folded (index 0), branches pruned (1) and bound checks dropped (2).
+	 */
+	static int[] run(Cfg cfg) {
+		ConstProp cp = new ConstProp(cfg);
+		cp.solve();
+		return cp.rewrite();
+	}
+
+	private void solve() {
+		int n = cfg.numBlocks();
+		kind[0] = new byte[numRegs];
+		value[0] = new int[numRegs];
+		for (int r=0; r<cfg.numParams(); r++)
+			kind[0][r] = VARYING;
+		boolean[] queued = new boolean[n];
+		int[] work = new int[n];
+		int head = 0, size = 0;
+		work[size++] = 0;
+		queued[0] = true;
+		byte[] k = new byte[numRegs];
+		int[] v = new int[numRegs];
+		while (size > 0) {
+			int id = work[head];
+			head = (head + 1) % n;
+			size--;
+			queued[id] = false;
+			BasicBlock b = cfg.block(id);
+			System.arraycopy(kind[id], 0, k, 0, numRegs);
+			System.arraycopy(value[id], 0, v, 0, numRegs);
+			for (int i=0; i<b.size()-1; i++)
+				evaluate(b, i, k, v);
+			int last = b.size() - 1;
+			for (int s=0; s<b.numSuccs(); s++) {
+				if (!takes(b, last, s, k, v))
+					continue;
+				int to = b.succ(s);
+				if (meet(to, k, v) && !queued[to]) {
+					work[(head + size) % n] = to;
+					size++;
+					queued[to] = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Whether the terminator i of b can go to its successor s.
+	 */
+	private static boolean takes(BasicBlock b, int i, int s, byte[] k, int[] v) {
+		if (b.op(i) != LirOp.BR)
+			return true;
+		int cond = b.a(i);
+		if (k[cond] == VARYING)
+			return true;
+		if (k[cond] == UNDEF)
+			return false;
+		return (v[cond] != 0) == (s == 0);
+	}
+
+	/**
+	 * Merges k and v into what block id starts with, returning whether
+	 * that changed (or the block was first reached).
+	 */
+	private boolean meet(int id, byte[] k, int[] v) {
+		if (kind[id] == null) {
+			kind[id] = k.clone();
+			value[id] = v.clone();
+			return true;
+		}
+		byte[] bk = kind[id];
+		int[] bv = value[id];
+		boolean changed = false;
+		for (int r=0; r<numRegs; r++) {
+			if (k[r] == UNDEF || bk[r] == VARYING)
+				continue;
+			if (bk[r] == UNDEF) {
+				bk[r] = k[r];
+				bv[r] = v[r];
+				changed = true;
+			}
+			else if (k[r] == VARYING || v[r] != bv[r]) {
+				bk[r] = VARYING;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Sets what instruction i of b defines in k and v.
+	 */
+	private static void evaluate(BasicBlock b, int i, byte[] k, int[] v) {
+		int dst = b.dst(i);
+		if (dst == LirOp.NONE)
+			return;
+		int op = b.op(i);
+		if (op == LirOp.CONST) {
+			k[dst] = CONST;
+			v[dst] = b.c(i);
+			return;
+		}
+		int n = (op == LirOp.MOV || op == LirOp.NEG || op == LirOp.NOT) ? 1
+			: LirOp.isBinop(op) ? 2 : 0;
+		if (n == 0) {
+			k[dst] = VARYING;
+			return;
+		}
+		byte ka = k[b.a(i)], kb = n == 2 ? k[b.b(i)] : CONST;
+		if (ka == VARYING || kb == VARYING) {
+			k[dst] = VARYING;
+			return;
+		}
+		if (ka == UNDEF || kb == UNDEF) {
+			k[dst] = UNDEF;
+			return;
+		}
+		int x = v[b.a(i)], y = n == 2 ? v[b.b(i)] : 0;
+		if ((op == LirOp.DIV || op == LirOp.MOD)
+				&& (y == 0 || (x == Integer.MIN_VALUE && y == -1))) {
+			k[dst] = VARYING;
+			return;
+		}
+		k[dst] = CONST;
+		v[dst] = fold(op, x, y);
+	}
+
+	private static int fold(int op, int x, int y) {
+		switch (op) {
+		case LirOp.MOV: return x;
+		case LirOp.ADD: return x + y;
+		case LirOp.SUB: return x - y;
+		case LirOp.MUL: return x * y;
+		case LirOp.DIV: return x / y;
+		case LirOp.MOD: return x % y;
+		case LirOp.LT: return x < y ? 1 : 0;
+		case LirOp.LE: return x <= y ? 1 : 0;
+		case LirOp.GT: return x > y ? 1 : 0;
+		case LirOp.GE: return x >= y ? 1 : 0;
+		case LirOp.EQ: return x == y ? 1 : 0;
+		case LirOp.NE: return x != y ? 1 : 0;
+		case LirOp.NEG: return -x;
+		case LirOp.NOT: return x ^ 1;
+		default: throw new IllegalArgumentException("can't fold op " + op);
+		}
+	}
+
+	private int[] rewrite() {
+		int[] counts = new int[3];
+		boolean pruned = false;
+		byte[] k = new byte[numRegs];
+		int[] v = new int[numRegs];
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			if (kind[id] == null)
+				continue; // never reached; finish() drops it if it can
+			BasicBlock b = cfg.block(id);
+			System.arraycopy(kind[id], 0, k, 0, numRegs);
+			System.arraycopy(value[id], 0, v, 0, numRegs);
+			for (int i=0; i<b.size()-1; i++) {
+				int op = b.op(i);
+				if (op == LirOp.BOUND && k[b.a(i)] == CONST
+						&& v[b.a(i)] >= 0 && v[b.a(i)] < b.b(i)) {
+					b.remove(i--);
+					counts[2]++;
+					continue;
+				}
+				evaluate(b, i, k, v);
+				int dst = b.dst(i);
+				if (dst != LirOp.NONE && op != LirOp.CONST && k[dst] == CONST) {
+					b.set(i, LirOp.CONST, dst, 0, 0, v[dst]);
+					counts[0]++;
+				}
+			}
+			int last = b.size() - 1;
+			if (b.op(last) == LirOp.BR && k[b.a(last)] == CONST) {
+				int to = b.succ(v[b.a(last)] != 0 ? 0 : 1);
+				b.set(last, LirOp.JMP, LirOp.NONE, 0, 0, 0);
+				b.setSuccs(to);
+				counts[1]++;
+				pruned = true;
+			}
+		}
+		if (pruned)
+			cfg.finish();
+		cfg.removeDeadCode();
+		return counts;
+	}
+}
@@ -0,0 +1,174 @@
+package decaf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Global copy propagation.  A copy d = s is available at a point if
+ * every path there makes it and redefines neither d nor s after; a use
+ * of d there can read s instead.  Copies of copies are followed by
+ * running again until nothing changes, after which the copies nothing
+ * reads any more are dropped.
+ */
+final class CopyProp
+{
+	private final Cfg cfg;
+	private final int numRegs;
+	private int[] copyDst = new int[16], copySrc = new int[16];
+	private int numCopies;
+	private int[][] byReg; // the copies each register is part of
+
+	private CopyProp(Cfg cfg) {
+		this.cfg = cfg;
+		this.numRegs = cfg.numRegs();
+	}
+
+	/**
+	 * Propagates cfg's copies, returning how many uses were changed.
+	 */
+	static int run(Cfg cfg) {
+		// each round moves uses further back along the copies, which
+		// cannot go round in a circle, so this ends
+		int replaced = 0;
+		for (int n; (n = new CopyProp(cfg).propagate()) > 0; )
+			replaced += n;
+		// a register copied to itself needs no copy
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			for (int i=b.size()-1; i>=0; i--) {
+				if (b.op(i) == LirOp.MOV && b.a(i) == b.dst(i))
+					b.remove(i);
+			}
+		}
+		cfg.removeDeadCode();
+		return replaced;
+	}
+
+	private int propagate() {
+		int n = cfg.numBlocks();
+		int[][] copyAt = new int[n][];
+		HashMap<Long, Integer> ids = new HashMap<Long, Integer>();
+		for (int id=0; id<n; id++) {
+			BasicBlock b = cfg.block(id);
+			copyAt[id] = new int[b.size()];
+			for (int i=0; i<b.size(); i++) {
+				copyAt[id][i] = -1;
+				if (b.op(i) != LirOp.MOV || b.a(i) == b.dst(i))
+					continue;
+				Long key = ((long) b.dst(i) << 32) | b.a(i);
+				Integer c = ids.get(key);
+				if (c == null) {
+					c = numCopies++;
+					if (c == copyDst.length) {
+						copyDst = Arrays.copyOf(copyDst, 2 * c);
+						copySrc = Arrays.copyOf(copySrc, 2 * c);
+					}
+					copyDst[c] = b.dst(i);
+					copySrc[c] = b.a(i);
+					ids.put(key, c);
+				}
+				copyAt[id][i] = c;
+			}
+		}
+		if (numCopies == 0)
+			return 0;
+		indexCopies();
+
+		// available copies, forwards over the blocks
+		int words = (numCopies + 63) >>> 6;
+		long[][] gen = new long[n][words];
+		long[][] kill = new long[n][words];
+		for (int id=0; id<n; id++) {
+			BasicBlock b = cfg.block(id);
+			for (int i=0; i<b.size(); i++)
+				transfer(b.dst(i), copyAt[id][i], gen[id], kill[id]);
+		}
+		long[][] in = new long[n][words];
+		long[][] out = new long[n][words];
+		for (int w=0; w<words; w++)
+			out[0][w] = gen[0][w];
+		for (int id=1; id<n; id++)
+			Arrays.fill(out[id], -1L);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int id=1; id<n; id++) {
+				BasicBlock b = cfg.block(id);
+				Arrays.fill(in[id], -1L);
+				for (int k=0; k<b.numPreds(); k++) {
+					long[] p = out[b.pred(k)];
+					for (int w=0; w<words; w++)
+						in[id][w] &= p[w];
+				}
+				for (int w=0; w<words; w++) {
+					long x = gen[id][w] | (in[id][w] & ~kill[id][w]);
+					if (x != out[id][w]) {
+						out[id][w] = x;
+						changed = true;
+					}
+				}
+			}
+		}
+
+		int replaced = 0;
+		int[] source = new int[numRegs]; // of each register's available copy
+		Arrays.fill(source, LirOp.NONE);
+		for (int id=0; id<n; id++) {
+			BasicBlock b = cfg.block(id);
+			long[] avail = in[id];
+			for (int c=0; c<numCopies; c++) {
+				if (Bits.has(avail, c))
+					source[copyDst[c]] = copySrc[c];
+			}
+			for (int i=0; i<b.size(); i++) {
+				for (int k=0; k<b.numUses(i); k++) {
+					int s = source[b.use(i, k)];
+					if (s != LirOp.NONE) {
+						b.setUse(i, k, s);
+						replaced++;
+					}
+				}
+				int dst = b.dst(i);
+				if (dst != LirOp.NONE) {
+					for (int c : byReg[dst])
+						source[copyDst[c]] = LirOp.NONE;
+					int c = copyAt[id][i];
+					if (c >= 0)
+						source[dst] = copySrc[c];
+				}
+			}
+			for (int c=0; c<numCopies; c++)
+				source[copyDst[c]] = LirOp.NONE;
+		}
+		return replaced;
+	}
+
+	private void indexCopies() {
+		int[] count = new int[numRegs];
+		for (int c=0; c<numCopies; c++) {
+			count[copyDst[c]]++;
+			count[copySrc[c]]++;
+		}
+		byReg = new int[numRegs][];
+		for (int r=0; r<numRegs; r++)
+			byReg[r] = new int[count[r]];
+		Arrays.fill(count, 0);
+		for (int c=0; c<numCopies; c++) {
+			byReg[copyDst[c]][count[copyDst[c]]++] = c;
+			byReg[copySrc[c]][count[copySrc[c]]++] = c;
+		}
+	}
+
+	// a definition of dst kills the copies it is part of; copy c, if
+	// any, then becomes available
+	private void transfer(int dst, int c, long[] gen, long[] kill) {
+		if (dst == LirOp.NONE)
+			return;
+		for (int k : byReg[dst]) {
+			Bits.remove(gen, k);
+			Bits.add(kill, k);
+		}
+		if (c >= 0)
+			Bits.add(gen, c);
+	}
+}
@@ -0,0 +1,441 @@
+package decaf;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Global common subexpression elimination.  An expression is available
+ * at a point if every path there computes it, with nothing since that
+ * could change its value; a computation of an available expression is
+ * replaced by a copy of the value saved where it was computed, and a
+ * BOUND check of an index already checked against the same length is
+ * dropped.
+ *
+ * Expressions are numbered by value over the operators and leaves they
+ * are built from, so that the two evaluations of (i-1)*303 in one
+ * statement get one number although each computes into temporaries of
+ * its own.  A temporary stands for its expression only where that is
+ * sure to still give the same value: it must be set once, by a plain
+ * operation, and used only later in the same block, before anything it
+ * reads changes.  Any other register is a leaf, whose every definition
+ * kills what was computed from it.  Stores kill the loads of what they
+ * store to, and a method call the loads of every global; a callout
+ * cannot see Decaf's globals, so it kills nothing.
+ */
+final class Cse
+{
+	private static final int LEAF = -1; // op of a register's own value
+
+	private final Cfg cfg;
+	private final int numRegs;
+	private final int[] start; // position of each block's first instruction
+
+	// the value numbers: operator, operands (value numbers) and c
+	private int[] vnOp = new int[64], vnX = new int[64], vnY = new int[64], vnC = new int[64];
+	private int[][] vnRegs = new int[64][];  // leaf registers each reads, sorted
+	private int[][] vnNames = new int[64][]; // and globals it loads
+	private int[] vnExpr = new int[64];      // its expression number, or -1
+	private int numVns;
+	private final HashMap<Key, Integer> vns = new HashMap<Key, Integer>();
+	private final Key probe = new Key();
+
+	// the expressions, whose bits the dataflow sets hold
+	private int[] exprVn = new int[64];
+	private int numExprs;
+	private int[] exprAt; // computed by the instruction at each position, or -1
+
+	private Cse(Cfg cfg) {
+		this.cfg = cfg;
+		this.numRegs = cfg.numRegs();
+		int n = cfg.numBlocks();
+		this.start = new int[n + 1];
+		for (int id=0; id<n; id++)
+			start[id + 1] = start[id] + cfg.block(id).size();
+		this.exprAt = new int[start[n]];
+	}
+
+	/**
+	 * Eliminates the common subexpressions of cfg, returning how many
+	 * computations went (index 0) and how many bound checks (index 1).
+	 */
+	static int[] run(Cfg cfg) {
+		Cse cse = new Cse(cfg);
+		cse.number();
+		if (cse.numExprs == 0)
+			return new int[2];
+		return cse.rewrite(cse.solve());
+	}
+
+	private static final class Key {
+		int op, x, y, c;
+
+		@Override
+		public boolean equals(Object o) {
+			Key k = (Key) o;
+			return op == k.op && x == k.x && y == k.y && c == k.c;
+		}
+		@Override
+		public int hashCode() {
+			return ((op * 31 + x) * 31 + y) * 31 + c;
+		}
+	}
+
+	/**
+	 * The value number of op applied to x and y, with c.
+	 */
+	private int vn(int op, int x, int y, int c) {
+		if ((op == LirOp.ADD || op == LirOp.MUL || op == LirOp.EQ || op == LirOp.NE)
+				&& x > y) {
+			int t = x;
+			x = y;
+			y = t;
+		}
+		probe.op = op;
+		probe.x = x;
+		probe.y = y;
+		probe.c = c;
+		Integer known = vns.get(probe);
+		if (known != null)
+			return known;
+		int v = numVns++;
+		if (v == vnOp.length) {
+			vnOp = Arrays.copyOf(vnOp, 2 * v);
+			vnX = Arrays.copyOf(vnX, 2 * v);
+			vnY = Arrays.copyOf(vnY, 2 * v);
+			vnC = Arrays.copyOf(vnC, 2 * v);
+			vnRegs = Arrays.copyOf(vnRegs, 2 * v);
+			vnNames = Arrays.copyOf(vnNames, 2 * v);
+			vnExpr = Arrays.copyOf(vnExpr, 2 * v);
+		}
+		vnOp[v] = op;
+		vnX[v] = x;
+		vnY[v] = y;
+		vnC[v] = c;
+		vnExpr[v] = -1;
+		int[] none = new int[0];
+		if (op == LEAF) {
+			vnRegs[v] = new int[] {x};
+			vnNames[v] = none;
+		}
+		else if (op == LirOp.CONST) {
+			vnRegs[v] = none;
+			vnNames[v] = none;
+		}
+		else {
+			vnRegs[v] = x < 0 ? none : vnRegs[x];
+			vnNames[v] = x < 0 ? none : vnNames[x];
+			if (y >= 0) {
+				vnRegs[v] = union(vnRegs[v], vnRegs[y]);
+				vnNames[v] = union(vnNames[v], vnNames[y]);
+			}
+			if (op == LirOp.LOAD || op == LirOp.LOADA)
+				vnNames[v] = union(vnNames[v], new int[] {c});
+			if (numExprs == exprVn.length)
+				exprVn = Arrays.copyOf(exprVn, 2 * numExprs);
+			vnExpr[v] = numExprs;
+			exprVn[numExprs++] = v;
+		}
+		Key k = new Key();
+		k.op = op;
+		k.x = x;
+		k.y = y;
+		k.c = c;
+		vns.put(k, v);
+		return v;
+	}
+
+	private static int[] union(int[] a, int[] b) {
+		if (b.length == 0 || a == b)
+			return a;
+		if (a.length == 0)
+			return b;
+		int[] u = new int[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while (i < a.length || j < b.length) {
+			if (j == b.length || (i < a.length && a[i] < b[j]))
+				u[n++] = a[i++];
+			else if (i == a.length || b[j] < a[i])
+				u[n++] = b[j++];
+			else {
+				u[n++] = a[i++];
+				j++;
+			}
+		}
+		return n == u.length ? u : Arrays.copyOf(u, n);
+	}
+
+	private static boolean isExpression(int op) {
+		return LirOp.isBinop(op) || op == LirOp.NEG || op == LirOp.NOT
+			|| op == LirOp.LOAD || op == LirOp.LOADA || op == LirOp.BOUND;
+	}
+
+	/**
+	 * Numbers the expression each instruction computes, if any.
+	 */
+	private void number() {
+		// which temporaries can stand for their expression
+		int[] defs = new int[numRegs];
+		int[] defBlock = new int[numRegs];
+		boolean[] local = new boolean[numRegs];
+		Arrays.fill(local, true);
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			for (int i=0; i<b.size(); i++) {
+				int dst = b.dst(i);
+				if (dst != LirOp.NONE) {
+					defs[dst]++;
+					defBlock[dst] = id;
+					int op = b.op(i);
+					if (!(isExpression(op) || op == LirOp.CONST))
+						local[dst] = false;
+				}
+			}
+		}
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			for (int i=0; i<b.size(); i++) {
+				for (int k=0; k<b.numUses(i); k++) {
+					if (defBlock[b.use(i, k)] != id)
+						local[b.use(i, k)] = false;
+				}
+			}
+		}
+		for (int r=0; r<numRegs; r++) {
+			if (defs[r] != 1 || r < cfg.numParams())
+				local[r] = false;
+		}
+
+		int[] tempVn = new int[numRegs];
+		Arrays.fill(tempVn, -1);
+		int[] temps = new int[16]; // set in the block so far
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			int numTemps = 0;
+			for (int i=0; i<b.size(); i++) {
+				int op = b.op(i);
+				int dst = b.dst(i);
+				int v = -1;
+				if (op == LirOp.CONST) {
+					v = vn(LirOp.CONST, -1, -1, b.c(i));
+				}
+				else if (op == LirOp.LOAD) {
+					v = vn(op, -1, -1, b.c(i));
+				}
+				else if (op == LirOp.LOADA) {
+					v = vn(op, operand(b.a(i), tempVn), -1, b.c(i));
+				}
+				else if (op == LirOp.BOUND) {
+					v = vn(op, operand(b.a(i), tempVn), -1, b.b(i));
+				}
+				else if (op == LirOp.NEG || op == LirOp.NOT) {
+					v = vn(op, operand(b.a(i), tempVn), -1, 0);
+				}
+				else if (LirOp.isBinop(op)) {
+					v = vn(op, operand(b.a(i), tempVn), operand(b.b(i), tempVn), 0);
+				}
+				exprAt[start[id] + i] = v < 0 ? -1 : vnExpr[v];
+
+				// forget the temporaries whose values this changes
+				if (numTemps > 0 && (dst != LirOp.NONE || op == LirOp.STORE
+						|| op == LirOp.STOREA || op == LirOp.CALL)) {
+					int kept = 0;
+					for (int t=0; t<numTemps; t++) {
+						int tv = tempVn[temps[t]];
+						boolean killed = (dst != LirOp.NONE && contains(vnRegs[tv], dst))
+							|| ((op == LirOp.STORE || op == LirOp.STOREA)
+								&& contains(vnNames[tv], b.c(i)))
+							|| (op == LirOp.CALL && vnNames[tv].length > 0);
+						if (killed)
+							tempVn[temps[t]] = -1;
+						else
+							temps[kept++] = temps[t];
+					}
+					numTemps = kept;
+				}
+				if (dst != LirOp.NONE && local[dst] && v >= 0) {
+					tempVn[dst] = v;
+					if (numTemps == temps.length)
+						temps = Arrays.copyOf(temps, 2 * numTemps);
+					temps[numTemps++] = dst;
+				}
+			}
+			for (int t=0; t<numTemps; t++)
+				tempVn[temps[t]] = -1;
+		}
+	}
+
+	private int operand(int r, int[] tempVn) {
+		return tempVn[r] >= 0 ? tempVn[r] : vn(LEAF, r, -1, 0);
+	}
+
+	private static boolean contains(int[] sorted, int x) {
+		return Arrays.binarySearch(sorted, x) >= 0;
+	}
+
+	// the expressions each leaf register, and each global, is read by
+	private int[][] byReg;
+	private int[][] byName;
+	private long[] memory; // every expression that loads
+
+	private void indexKills() {
+		int[] regCount = new int[numRegs];
+		int numNames = 0;
+		for (int e=0; e<numExprs; e++) {
+			for (int r : vnRegs[exprVn[e]])
+				regCount[r]++;
+			for (int c : vnNames[exprVn[e]])
+				numNames = Math.max(numNames, c + 1);
+		}
+		int[] nameCount = new int[numNames];
+		for (int e=0; e<numExprs; e++) {
+			for (int c : vnNames[exprVn[e]])
+				nameCount[c]++;
+		}
+		byReg = new int[numRegs][];
+		for (int r=0; r<numRegs; r++)
+			byReg[r] = new int[regCount[r]];
+		byName = new int[numNames][];
+		for (int c=0; c<numNames; c++)
+			byName[c] = new int[nameCount[c]];
+		memory = new long[(numExprs + 63) >>> 6];
+		Arrays.fill(regCount, 0);
+		Arrays.fill(nameCount, 0);
+		for (int e=0; e<numExprs; e++) {
+			for (int r : vnRegs[exprVn[e]])
+				byReg[r][regCount[r]++] = e;
+			for (int c : vnNames[exprVn[e]])
+				byName[c][nameCount[c]++] = e;
+			if (vnNames[exprVn[e]].length > 0)
+				Bits.add(memory, e);
+		}
+	}
+
+	/**
+	 * Applies instruction i of b to the available expressions avail,
+	 * and adds whatever it kills to killed, if that is not null.
+	 */
+	private void transfer(BasicBlock b, int i, long[] avail, long[] killed) {
+		int e = exprAt[start[b.id()] + i];
+		if (e >= 0)
+			Bits.add(avail, e);
+		int op = b.op(i);
+		if (b.dst(i) != LirOp.NONE)
+			kill(byReg[b.dst(i)], avail, killed);
+		if ((op == LirOp.STORE || op == LirOp.STOREA) && b.c(i) < byName.length)
+			kill(byName[b.c(i)], avail, killed);
+		if (op == LirOp.CALL) {
+			for (int w=0; w<avail.length; w++) {
+				avail[w] &= ~memory[w];
+				if (killed != null)
+					killed[w] |= memory[w];
+			}
+		}
+	}
+
+	private static void kill(int[] exprs, long[] avail, long[] killed) {
+		for (int e : exprs) {
+			Bits.remove(avail, e);
+			if (killed != null)
+				Bits.add(killed, e);
+		}
+	}
+
+	/**
+	 * Solves available expressions forwards, returning what is
+	 * available on entry to each block.
+	 */
+	private long[][] solve() {
+		indexKills();
+		int n = cfg.numBlocks();
+		int words = (numExprs + 63) >>> 6;
+		long[][] gen = new long[n][words];
+		long[][] kill = new long[n][words];
+		for (int id=0; id<n; id++) {
+			BasicBlock b = cfg.block(id);
+			for (int i=0; i<b.size(); i++)
+				transfer(b, i, gen[id], kill[id]);
+		}
+		long[][] in = new long[n][words];
+		long[][] out = new long[n][words];
+		// nothing is available on entry, and at first, all is elsewhere
+		transferBlock(gen[0], kill[0], in[0], out[0]);
+		for (int id=1; id<n; id++)
+			Arrays.fill(out[id], -1L);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int id=1; id<n; id++) {
+				BasicBlock b = cfg.block(id);
+				Arrays.fill(in[id], -1L);
+				for (int k=0; k<b.numPreds(); k++) {
+					long[] p = out[b.pred(k)];
+					for (int w=0; w<words; w++)
+						in[id][w] &= p[w];
+				}
+				if (transferBlock(gen[id], kill[id], in[id], out[id]))
+					changed = true;
+			}
+		}
+		return in;
+	}
+
+	// out = gen + (in - kill), returning whether out changed
+	private static boolean transferBlock(long[] gen, long[] kill, long[] in, long[] out) {
+		boolean changed = false;
+		for (int w=0; w<out.length; w++) {
+			long x = gen[w] | (in[w] & ~kill[w]);
+			if (x != out[w]) {
+				out[w] = x;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Replaces the computations of available expressions and saves the
+	 * value of each such expression wherever else it is computed.
+	 */
+	private int[] rewrite(long[][] in) {
+		boolean[] redundant = new boolean[exprAt.length];
+		int[] save = new int[numExprs]; // register holding each, or NONE
+		Arrays.fill(save, LirOp.NONE);
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			long[] avail = in[id];
+			for (int i=0; i<b.size(); i++) {
+				int e = exprAt[start[id] + i];
+				if (e >= 0 && Bits.has(avail, e)) {
+					redundant[start[id] + i] = true;
+					if (save[e] == LirOp.NONE && b.op(i) != LirOp.BOUND)
+						save[e] = cfg.newReg();
+				}
+				transfer(b, i, avail, null);
+			}
+		}
+		int[] eliminated = new int[2];
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			for (int i=b.size()-1; i>=0; i--) {
+				int e = exprAt[start[id] + i];
+				if (e < 0)
+					continue;
+				if (redundant[start[id] + i]) {
+					if (b.op(i) == LirOp.BOUND) {
+						b.remove(i);
+						eliminated[1]++;
+					}
+					else {
+						b.set(i, LirOp.MOV, b.dst(i), save[e], 0, 0);
+						eliminated[0]++;
+					}
+				}
+				else if (save[e] != LirOp.NONE && !contains(vnRegs[exprVn[e]], b.dst(i))) {
+					b.insert(i + 1, LirOp.MOV, save[e], b.dst(i), 0, 0);
+				}
+			}
+		}
+		cfg.removeDeadCode();
+		return eliminated;
+	}
+}
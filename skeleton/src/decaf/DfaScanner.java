@@ -0,0 +1,307 @@
+package decaf;
+
+import antlr.CommonToken;
+import antlr.MismatchedCharException;
+import antlr.NoViableAltForCharException;
+import antlr.RecognitionException;
+import antlr.Token;
+import antlr.TokenStream;
+import antlr.TokenStreamException;
+import antlr.TokenStreamRecognitionException;
+
+/**
+ * Hand-written replacement for the ANTLR-generated DecafScanner.  It
+ * scans straight over a SourceBuffer, recognizing tokens with a DFA that
+ * dispatches on a 256-entry character class table, instead of going a
+ * character at a time through an InputBuffer and a StringBuffer.
+ *
+ * It is meant to be indistinguishable from DecafScanner: it returns the
+ * same token types, lines, columns and text, and throws the same ANTLR
+ * exceptions, at the same points, with the same messages.  That includes
+ * DecafScanner's quirks: tabs advance the column to the next multiple
+ * of 8, characters above 0x7f are errors even inside comments and
+ * strings, and consume() after an error does not count newlines.
+ */
+public class DfaScanner implements TokenStream, DecafScannerTokenTypes {
+	private static final char EOF_CHAR = (char) -1;
+	private static final int TAB_SIZE = 8;
+
+	// character classes
+	private static final byte OTHER = 0;
+	private static final byte SINGLE = 1;	// always a one-character token
+	private static final byte ALPHA = 2;
+	private static final byte DIGIT = 3;
+	private static final byte SPACE = 4;
+	private static final byte NEWLINE = 5;
+	private static final byte PAIRED = 6;	// '&' or '|', must be doubled
+	private static final byte EQ_SUFFIX = 7; // may be followed by '='
+	private static final byte QUOTE = 8;
+	private static final byte DQUOTE = 9;
+	private static final byte SLASH = 10;
+
+	private static final byte[] CLASS = new byte[256];
+	// token type of a SINGLE, PAIRED or EQ_SUFFIX char on its own...
+	private static final int[] TYPE = new int[256];
+	// ...and of an EQ_SUFFIX char followed by '='
+	private static final int[] EQ_TYPE = new int[256];
+	// chars that may appear unescaped in a char or string literal
+	private static final boolean[] PLAIN = new boolean[256];
+	private static final String[] KEYWORDS = {
+		"boolean", "break", "callout", "class", "continue", "else", "for",
+		"if", "int", "return", "void", "true", "false"
+	};
+	private static final int[] KEYWORD_TYPES = {
+		TK_boolean, TK_break, TK_callout, TK_class, TK_continue, TK_else, TK_for,
+		TK_if, TK_int, TK_return, TK_void, TRUE, FALSE
+	};
+
+	static {
+		single('{', LCURLY);
+		single('}', RCURLY);
+		single('[', LSQUARE);
+		single(']', RSQUARE);
+		single('(', LPAREN);
+		single(')', RPAREN);
+		single(',', COMMA);
+		single(';', SEMI);
+		single('*', TIMES);
+		single('%', MOD);
+		CLASS['&'] = PAIRED;
+		TYPE['&'] = AND;
+		CLASS['|'] = PAIRED;
+		TYPE['|'] = OR;
+		eqSuffix('<', LESS, LESSEQ);
+		eqSuffix('>', GREATER, GREATEREQ);
+		eqSuffix('=', ASSIGN, EQUAL);
+		eqSuffix('!', NOT, NOTEQUAL);
+		eqSuffix('-', MINUS, MINUSASSIGN);
+		eqSuffix('+', PLUS, PLUSASSIGN);
+		for (char c='a'; c<='z'; c++)
+			CLASS[c] = ALPHA;
+		for (char c='A'; c<='Z'; c++)
+			CLASS[c] = ALPHA;
+		CLASS['_'] = ALPHA;
+		for (char c='0'; c<='9'; c++)
+			CLASS[c] = DIGIT;
+		CLASS[' '] = SPACE;
+		CLASS['\t'] = SPACE;
+		CLASS['\n'] = NEWLINE;
+		CLASS['\''] = QUOTE;
+		CLASS['"'] = DQUOTE;
+		CLASS['/'] = SLASH;
+
+		for (char c=0; c<0x80; c++)
+			PLAIN[c] = true;
+		PLAIN['\t'] = PLAIN['\n'] = PLAIN['\''] = PLAIN['"'] = PLAIN['\\'] = false;
+	}
+
+	private static void single(char c, int type) {
+		CLASS[c] = SINGLE;
+		TYPE[c] = type;
+	}
+
+	private static void eqSuffix(char c, int type, int eqType) {
+		CLASS[c] = EQ_SUFFIX;
+		TYPE[c] = type;
+		EQ_TYPE[c] = eqType;
+	}
+
+	private final SourceBuffer src;
+	private final int end;
+	private int pos;
+	private int line;
+	private int column;
+	// where the last token scanned started
+	int tokenStart;
+	int tokenLine;
+	int tokenColumn;
+
+	public DfaScanner(SourceBuffer src) {
+		this.src = src;
+		this.end = src.length();
+		this.pos = 0;
+		this.line = 1;
+		this.column = 1;
+	}
+
+	private char LA(int i) {
+		int p = pos + i - 1;
+		return p < end ? src.charAt(p) : EOF_CHAR;
+	}
+
+	/**
+	 * Skips one character.  Like CharScanner.consume(), this advances
+	 * the column but never the line, even past a newline.
+	 */
+	public void consume() {
+		if (pos < end) {
+			if (src.byteAt(pos) == '\t')
+				column = ((column - 1) / TAB_SIZE + 1) * TAB_SIZE + 1;
+			else
+				column++;
+			pos++;
+		}
+		else
+			column++;
+	}
+
+	private void newline() {
+		line++;
+		column = 1;
+	}
+
+	public Token nextToken() throws TokenStreamException {
+		int type;
+		try {
+			type = scan();
+		} catch (RecognitionException e) {
+			throw new TokenStreamRecognitionException(e);
+		}
+		Token t = new CommonToken(type, type == Token.EOF_TYPE ? null 
+				: src.subSequence(tokenStart, pos));
+		t.setLine(tokenLine);
+		t.setColumn(tokenColumn);
+		return t;
+	}
+
+	/**
+	 * Scans the next token and returns its type, leaving its position in
+	 * tokenStart, tokenEnd(), tokenLine and tokenColumn.  Allocates
+	 * nothing unless the input is in error.
+	 */
+	int scan() throws RecognitionException {
+		for (;;) {
+			tokenStart = pos;
+			tokenLine = line;
+			tokenColumn = column;
+			char c = LA(1);
+			switch (c < 256 ? CLASS[c] : OTHER) {
+			case SINGLE:
+				consume();
+				return TYPE[c];
+			case PAIRED:
+				consume();
+				match(c);
+				return TYPE[c];
+			case EQ_SUFFIX:
+				consume();
+				if (LA(1) == '=') {
+					consume();
+					return EQ_TYPE[c];
+				}
+				return TYPE[c];
+			case ALPHA:
+				consume();
+				for (c = LA(1); c < 256 && (CLASS[c] == ALPHA || CLASS[c] == DIGIT); c = LA(1))
+					consume();
+				return keywordOrId();
+			case DIGIT:
+				if (c == '0' && LA(2) == 'x') {
+					consume();
+					consume();
+					if (!isHexDigit(LA(1)))
+						throw noViableAlt();
+					while (isHexDigit(LA(1)))
+						consume();
+					return HEX;
+				}
+				for (c = LA(1); c >= '0' && c <= '9'; c = LA(1))
+					consume();
+				return DECIMAL;
+			case SPACE:
+				consume();
+				continue;
+			case NEWLINE:
+				consume();
+				newline();
+				continue;
+			case SLASH:
+				consume();
+				if (LA(1) != '/')
+					return DIV;
+				consume();
+				for (c = LA(1); c < 0x80 && c != '\n'; c = LA(1))
+					consume();
+				match('\n');
+				newline();
+				continue;
+			case QUOTE:
+				consume();
+				matchCh();
+				match('\'');
+				return CHAR;
+			case DQUOTE:
+				consume();
+				for (c = LA(1); c < 0x80 && c != '\t' && c != '\n' && c != '\''
+						&& c != '"'; c = LA(1))
+					matchCh();
+				match('"');
+				return STRING;
+			default:
+				if (c == EOF_CHAR)
+					return Token.EOF_TYPE;
+				throw noViableAlt();
+			}
+		}
+	}
+
+	int tokenEnd() {
+		return pos;
+	}
+
+	/**
+	 * Looks the identifier just scanned up among the keywords, without
+	 * making a String of it.
+	 */
+	private int keywordOrId() {
+		int len = pos - tokenStart;
+		for (int k=0; k<KEYWORDS.length; k++) {
+			String word = KEYWORDS[k];
+			if (word.length() == len && word.charAt(0) == src.charAt(tokenStart)) {
+				int i = 1;
+				while (i < len && word.charAt(i) == src.charAt(tokenStart + i))
+					i++;
+				if (i == len)
+					return KEYWORD_TYPES[k];
+			}
+		}
+		return ID;
+	}
+
+	private static boolean isHexDigit(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+
+	/**
+	 * One character of a char or string literal, possibly escaped.
+	 */
+	private void matchCh() throws RecognitionException {
+		char c = LA(1);
+		if (c == '\\') {
+			consume();
+			c = LA(1);
+			if (c != 'n' && c != '"' && c != 't' && c != '\\' && c != '\'')
+				throw noViableAlt();
+		}
+		else if (c >= 256 || !PLAIN[c])
+			throw noViableAlt();
+		consume();
+	}
+
+	private void match(char c) throws RecognitionException {
+		if (LA(1) != c) {
+			MismatchedCharException e = new MismatchedCharException();
+			e.mismatchType = MismatchedCharException.CHAR;
+			e.foundChar = LA(1);
+			e.expecting = c;
+			e.line = line;
+			e.column = column;
+			throw e;
+		}
+		consume();
+	}
+
+	private RecognitionException noViableAlt() {
+		return new NoViableAltForCharException(LA(1), null, line, column);
+	}
+}
@@ -0,0 +1,117 @@
+package decaf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Append-only sink for generated code.  Text is encoded straight into
+ * a fixed-size buffer, which is written to the channel each time it
+ * fills, so an Emitter never holds more than one buffer of code no
+ * matter how much goes through it.  Generated code is plain ASCII, so
+ * each char is written as one byte.
+ */
+public class Emitter {
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+	
+	private final WritableByteChannel channel;
+	private final ByteBuffer buf;
+	private long numBytes;
+	
+	public Emitter(WritableByteChannel channel) {
+		this(channel, DEFAULT_CAPACITY);
+	}
+	
+	public Emitter(WritableByteChannel channel, int capacity) {
+		this.channel = channel;
+		this.buf = ByteBuffer.allocate(capacity);
+		this.numBytes = 0;
+	}
+	
+	public Emitter append(char c) throws IOException {
+		if (!buf.hasRemaining())
+			drain();
+		buf.put((byte) c);
+		return this;
+	}
+	
+	public Emitter append(CharSequence s) throws IOException {
+		if (s == null)
+			s = "null";
+		int len = s.length();
+		for (int i=0; i<len; i++) {
+			if (!buf.hasRemaining())
+				drain();
+			buf.put((byte) s.charAt(i));
+		}
+		return this;
+	}
+	
+	/**
+	 * Appends chars [start, end) of s.
+	 */
+	public Emitter append(CharSequence s, int start, int end) throws IOException {
+		for (int i=start; i<end; i++) {
+			if (!buf.hasRemaining())
+				drain();
+			buf.put((byte) s.charAt(i));
+		}
+		return this;
+	}
+	
+	public Emitter append(int n) throws IOException {
+		if (n == Integer.MIN_VALUE)
+			return append(Integer.toString(n));
+		if (n < 0) {
+			append('-');
+			n = -n;
+		}
+		int div = 1;
+		while (n / div >= 10)
+			div *= 10;
+		for (; div > 0; div /= 10)
+			append((char) ('0' + (n / div) % 10));
+		return this;
+	}
+	
+	/**
+	 * Appends s and a newline.
+	 */
+	public Emitter line(CharSequence s) throws IOException {
+		return append(s).append('\n');
+	}
+	
+	/**
+	 * Appends raw bytes, such as output captured elsewhere.
+	 */
+	public Emitter append(byte[] bytes) throws IOException {
+		for (int i=0; i<bytes.length; i++) {
+			if (!buf.hasRemaining())
+				drain();
+			buf.put(bytes[i]);
+		}
+		return this;
+	}
+	
+	/**
+	 * Writes everything appended so far to the channel.
+	 */
+	public void flush() throws IOException {
+		drain();
+	}
+	
+	/**
+	 * Number of bytes appended so far, including those still buffered.
+	 */
+	public long size() {
+		return numBytes + buf.position();
+	}
+	
+	private void drain() throws IOException {
+		buf.flip();
+		numBytes += buf.remaining();
+		while (buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+}
@@ -0,0 +1,87 @@
+package decaf;
+
+import antlr.Token;
+
+/**
+ * The identifiers of one compilation.  Each distinct name is given one
+ * IrId, numbered densely from 0 in order of first appearance, so IrIds
+ * can be compared with == and symbol tables can index on getNum().
+ *
+ * Names can be looked up by a range of any CharSequence, so a token's
+ * text only becomes a String the first time that name is seen.
+ */
+public class IdTable {
+	private IrId[] slots = new IrId[256]; // open addressing, size a power of 2
+	private int[] hashes = new int[256];
+	private int size;
+
+	public int size() {
+		return size;
+	}
+
+	public IrId intern(String s) {
+		return intern(s, 0, s.length());
+	}
+
+	/**
+	 * Returns the IrId for a token's text, without materializing the text
+	 * if the token came from a TokenBuffer.
+	 */
+	public IrId intern(Token t) {
+		if (t instanceof TokenBuffer.Ref)
+			return ((TokenBuffer.Ref) t).intern(this);
+		return intern(t.getText());
+	}
+
+	/**
+	 * Returns the IrId for chars [start, end) of s.
+	 */
+	public IrId intern(CharSequence s, int start, int end) {
+		int h = 0;
+		for (int i=start; i<end; i++)
+			h = 31 * h + s.charAt(i);
+		int mask = slots.length - 1;
+		int i = mix(h) & mask;
+		for (IrId id; (id = slots[i]) != null; i = (i + 1) & mask) {
+			if (hashes[i] == h && matches(id.getIdString(), s, start, end))
+				return id;
+		}
+		IrId id = new IrId(s.subSequence(start, end).toString(), size++);
+		slots[i] = id;
+		hashes[i] = h;
+		if (size * 2 > slots.length)
+			rehash();
+		return id;
+	}
+
+	private static int mix(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean matches(String name, CharSequence s, int start, int end) {
+		if (name.length() != end - start)
+			return false;
+		for (int i=start; i<end; i++) {
+			if (name.charAt(i - start) != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private void rehash() {
+		IrId[] oldSlots = slots;
+		int[] oldHashes = hashes;
+		slots = new IrId[oldSlots.length * 2];
+		hashes = new int[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for (int j=0; j<oldSlots.length; j++) {
+			if (oldSlots[j] == null)
+				continue;
+			int i = mix(oldHashes[j]) & mask;
+			while (slots[i] != null)
+				i = (i + 1) & mask;
+			slots[i] = oldSlots[j];
+			hashes[i] = oldHashes[j];
+		}
+	}
+}
@@ -1,6 +1,6 @@
 package decaf;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public abstract class Ir
@@ -63,29 +63,72 @@ abstract class IrOps extends Ir
 	}
 }
 
+/**
+ * Codes for the concrete classes of IrNode, as returned by kind().
+ */
+abstract class IrKind extends Ir
+{
+	static final int INT_LITERAL = 0;
+	static final int CHAR_LITERAL = 1;
+	static final int BOOLEAN_LITERAL = 2;
+	static final int STRING_LITERAL = 3;
+	static final int METHOD_CALL_EXPR = 4;
+	static final int CALLOUT_EXPR = 5;
+	static final int BINOP_EXPR = 6;
+	static final int NOT_EXPR = 7;
+	static final int NEGATIVE_EXPR = 8;
+	static final int LOCATION_EXPR = 9;
+	static final int ARRAY_LOCATION_EXPR = 10;
+	static final int ASSIGN_STMT = 11;
+	static final int PLUS_ASSIGN_STMT = 12;
+	static final int MINUS_ASSIGN_STMT = 13;
+	static final int BREAK_STMT = 14;
+	static final int IF_STMT = 15;
+	static final int FOR_STMT = 16;
+	static final int RETURN_STMT = 17;
+	static final int CONTINUE_STMT = 18;
+	static final int INVOKE_STMT = 19;
+	static final int BLOCK = 20;
+	static final int CLASS_DECL = 21;
+	static final int FIELD_DECL = 22;
+	static final int ARRAY_FIELD_DECL = 23;
+	static final int METHOD_DECL = 24;
+	static final int METHOD_ARG = 25;
+	static final int VAR_DECL = 26;
+	static final int NUM_KINDS = 27;
+}
+
 abstract class IrNode
 {
-    private IrType type;
-    private IrNode parent;
-    private List<IrNode> children;
+	private static final IrNode[] NO_CHILDREN = new IrNode[0];
+
+    // type and kind codes both fit in a byte, and together take the
+    // space of the int type code alone
+    private byte type; // type code; see Ir
+    private final byte kind; // see IrKind
     private int lineNum;
+    private IrNode parent;
+    private IrNode[] children; // shared NO_CHILDREN until a child is added
+    private int numChildren;
 
-    public IrNode() {
-    	setType(Ir.VOID);
-    	this.parent = null;
-    	this.children = null;
-    	this.lineNum = -1;
-    }
-    public IrNode(IrNode parent) {
-    	setType(Ir.VOID);
+    public IrNode(IrNode parent, int kind) {
+    	this.type = Ir.VOID;
+    	this.kind = (byte) kind;
     	this.parent = parent;
-    	this.children = new ArrayList<IrNode>();
+    	this.children = NO_CHILDREN;
     }
     public int getType() {
-        return this.type.getTypeCode();
+        return this.type;
     }
     public void setType(int typeCode) {
-        this.type = new IrType(typeCode);
+        this.type = (byte) typeCode;
+    }
+    /**
+     * Which concrete class of node this is, as an IrKind code, for
+     * passes that dispatch with a switch.
+     */
+    public int kind() {
+    	return this.kind;
     }
     public void setLineNum(int n) {
     	this.lineNum = n;
@@ -100,37 +143,120 @@ abstract class IrNode
     	this.parent = parent;
     }
     public void setChild(int index, IrNode n) {
-    	this.children.set(index, n);
+    	if (index >= numChildren)
+    		throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + numChildren);
+    	this.children[index] = n;
     }
     public int indexOf(IrNode child) {
-    	return this.children.indexOf(child);
+    	for (int i=0; i<numChildren; i++) {
+    		if (children[i] == child)
+    			return i;
+    	}
+    	return -1;
     }
     public List<IrNode> children() {
-    	return this.children;
+    	return Arrays.asList(this.children).subList(0, numChildren);
     }
+    /**
+     * Appends child.  Most nodes have at most three children, so the
+     * array grows one slot at a time up to four and by half after that.
+     */
     public void addChild(IrNode child) {
-    	this.children.add(child);
+    	if (numChildren == children.length) {
+    		int capacity = numChildren < 4 ? numChildren + 1 : numChildren + (numChildren >> 1);
+    		IrNode[] bigger = new IrNode[capacity];
+    		System.arraycopy(children, 0, bigger, 0, numChildren);
+    		children = bigger;
+    	}
+    	children[numChildren++] = child;
     }
     public int numChildren() {
-		return this.children.size();
+		return this.numChildren;
 	}
 	
 	public IrNode child(int i) {
-		return this.children.get(i);
+		if (i >= numChildren)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + numChildren);
+		return this.children[i];
+	}
+
+	/**
+	 * Calls v's visit method for this node's class.  Dispatch is a
+	 * switch on kind, so it costs the same for every kind of node.
+	 */
+	public <R> R accept(IrVisitor<R> v) {
+		switch (kind) {
+		case IrKind.INT_LITERAL:
+			return v.visitIntLiteral((IrIntLiteral) this);
+		case IrKind.CHAR_LITERAL:
+			return v.visitCharLiteral((IrCharLiteral) this);
+		case IrKind.BOOLEAN_LITERAL:
+			return v.visitBooleanLiteral((IrBooleanLiteral) this);
+		case IrKind.STRING_LITERAL:
+			return v.visitStringLiteral((IrStringLiteral) this);
+		case IrKind.METHOD_CALL_EXPR:
+			return v.visitMethodCallExpr((IrMethodCallExpr) this);
+		case IrKind.CALLOUT_EXPR:
+			return v.visitCalloutExpr((IrCalloutExpr) this);
+		case IrKind.BINOP_EXPR:
+			return v.visitBinopExpr((IrBinopExpr) this);
+		case IrKind.NOT_EXPR:
+			return v.visitNotExpr((IrNotExpr) this);
+		case IrKind.NEGATIVE_EXPR:
+			return v.visitNegativeExpr((IrNegativeExpr) this);
+		case IrKind.LOCATION_EXPR:
+			return v.visitLocationExpr((IrLocationExpr) this);
+		case IrKind.ARRAY_LOCATION_EXPR:
+			return v.visitArrayLocationExpr((IrArrayLocationExpr) this);
+		case IrKind.ASSIGN_STMT:
+			return v.visitAssignStmt((IrAssignStmt) this);
+		case IrKind.PLUS_ASSIGN_STMT:
+			return v.visitPlusAssignStmt((IrPlusAssignStmt) this);
+		case IrKind.MINUS_ASSIGN_STMT:
+			return v.visitMinusAssignStmt((IrMinusAssignStmt) this);
+		case IrKind.BREAK_STMT:
+			return v.visitBreakStmt((IrBreakStmt) this);
+		case IrKind.IF_STMT:
+			return v.visitIfStmt((IrIfStmt) this);
+		case IrKind.FOR_STMT:
+			return v.visitForStmt((IrForStmt) this);
+		case IrKind.RETURN_STMT:
+			return v.visitReturnStmt((IrReturnStmt) this);
+		case IrKind.CONTINUE_STMT:
+			return v.visitContinueStmt((IrContinueStmt) this);
+		case IrKind.INVOKE_STMT:
+			return v.visitInvokeStmt((IrInvokeStmt) this);
+		case IrKind.BLOCK:
+			return v.visitBlock((IrBlock) this);
+		case IrKind.CLASS_DECL:
+			return v.visitClassDecl((IrClassDecl) this);
+		case IrKind.FIELD_DECL:
+			return v.visitFieldDecl((IrFieldDecl) this);
+		case IrKind.ARRAY_FIELD_DECL:
+			return v.visitArrayFieldDecl((IrArrayFieldDecl) this);
+		case IrKind.METHOD_DECL:
+			return v.visitMethodDecl((IrMethodDecl) this);
+		case IrKind.METHOD_ARG:
+			return v.visitMethodArg((IrMethodArg) this);
+		case IrKind.VAR_DECL:
+			return v.visitVarDecl((IrVarDecl) this);
+		default:
+			throw new IllegalStateException("unknown node kind " + kind);
+		}
 	}
 }
 
 abstract class IrExpression extends IrNode
 {
-	public IrExpression(IrNode parent) {
-    	super(parent);
+	public IrExpression(IrNode parent, int kind) {
+    	super(parent, kind);
     }
 }
 
 abstract class IrLiteral extends IrExpression
 {
-    public IrLiteral(IrNode parent) {
-    	super(parent);
+    public IrLiteral(IrNode parent, int kind) {
+    	super(parent, kind);
     }
 }
 
@@ -141,7 +267,7 @@ class IrIntLiteral extends IrLiteral
     private int value; 
 
     public IrIntLiteral(IrNode parent, String intString) {
-    	super(parent);
+    	super(parent, IrKind.INT_LITERAL);
         this.intString = intString;
         setType(Ir.INT);
         this.value = 0; // will be changed by semantic checker after range check
@@ -171,7 +297,7 @@ class IrCharLiteral extends IrLiteral
     private final char value;
 
     public IrCharLiteral(IrNode parent, char value) {
-    	super(parent);
+    	super(parent, IrKind.CHAR_LITERAL);
         this.value = value;
         setType(Ir.CHAR);
     }
@@ -186,7 +312,7 @@ class IrBooleanLiteral extends IrLiteral
     private final boolean value;
 
     public IrBooleanLiteral(IrNode parent, boolean value) {
-    	super(parent);
+    	super(parent, IrKind.BOOLEAN_LITERAL);
         this.value = value;
         setType(Ir.BOOL);
     }
@@ -205,7 +331,7 @@ class IrStringLiteral extends IrLiteral
     private final String value;
 
     public IrStringLiteral(IrNode parent, String value) {
-    	super(parent);
+    	super(parent, IrKind.STRING_LITERAL);
         this.value = value;
         setType(Ir.STRING);
     }
@@ -220,8 +346,8 @@ class IrStringLiteral extends IrLiteral
 
 abstract class IrCallExpr extends IrExpression
 {
-	public IrCallExpr(IrNode parent) {
-    	super(parent);
+	public IrCallExpr(IrNode parent, int kind) {
+    	super(parent, kind);
     }
 }
 
@@ -230,14 +356,24 @@ class IrMethodCallExpr extends IrCallExpr
 	// type INT, BOOL, or ERROR
 	// children: IrExpression_1, IrExpression_2, ...
     private final IrId id;
+    private MethodEntry binding; // set by the checker
    
     public IrMethodCallExpr(IrNode parent, IrId id) {
-    	super(parent);
+    	super(parent, IrKind.METHOD_CALL_EXPR);
         this.id = id;
     }
     public IrId getId() {
         return this.id;
     }
+    /**
+     * The method id was resolved to, or null if it was not resolved.
+     */
+    public MethodEntry getBinding() {
+    	return this.binding;
+    }
+    public void setBinding(MethodEntry binding) {
+    	this.binding = binding;
+    }
     @Override
 	public String toString() {
 		return "MethodCallExpr: " + id.toString();
@@ -251,7 +387,7 @@ class IrCalloutExpr extends IrCallExpr
     private final String callout;
    
     public IrCalloutExpr(IrNode parent, String callout) {
-    	super(parent);
+    	super(parent, IrKind.CALLOUT_EXPR);
         this.callout = callout;
     }
     public String getCallout() {
@@ -270,7 +406,7 @@ class IrBinopExpr extends IrExpression
     private final int operator;
 
     public IrBinopExpr(IrNode parent, int operator) {
-        super(parent);
+        super(parent, IrKind.BINOP_EXPR);
     	this.operator = operator;
     }
     public int getOperator() {
@@ -287,7 +423,7 @@ class IrNotExpr extends IrExpression
 	// type BOOL or ERROR
     // child: IrExpression
     public IrNotExpr(IrNode parent) {
-    	super(parent);
+    	super(parent, IrKind.NOT_EXPR);
     }
     @Override
 	public String toString() {
@@ -300,7 +436,7 @@ class IrNegativeExpr extends IrExpression
 	// type INT or ERROR
 	// child: IrExpression
     public IrNegativeExpr(IrNode parent) {
-    	super(parent);
+    	super(parent, IrKind.NEGATIVE_EXPR);
     }
     @Override
 	public String toString() {
@@ -312,14 +448,27 @@ class IrLocationExpr extends IrExpression
 {
 	// type INT, BOOL, or ERROR
     private IrId id;
+    private SymbolTableEntry binding; // set by the checker
     
     public IrLocationExpr(IrNode parent, IrId id) {
-    	super(parent);
+    	this(parent, id, IrKind.LOCATION_EXPR);
+    }
+    protected IrLocationExpr(IrNode parent, IrId id, int kind) {
+    	super(parent, kind);
     	this.id = id;
     }
     public IrId getId() {
         return this.id;
     }
+    /**
+     * The variable id was resolved to, or null if it was not resolved.
+     */
+    public SymbolTableEntry getBinding() {
+    	return this.binding;
+    }
+    public void setBinding(SymbolTableEntry binding) {
+    	this.binding = binding;
+    }
     @Override
 	public String toString() {
 		return "LocationExpr: " + id.toString();
@@ -332,7 +481,7 @@ class IrArrayLocationExpr extends IrLocationExpr
     // inherits id, getId()
 	// child: IrExpression (index)
     public IrArrayLocationExpr(IrNode parent, IrId id) {
-    	super(parent, id);
+    	super(parent, id, IrKind.ARRAY_LOCATION_EXPR);
     }
     @Override
 	public String toString() {
@@ -343,8 +492,8 @@ class IrArrayLocationExpr extends IrLocationExpr
 abstract class IrStatement extends IrNode
 {
 	// type INT, BOOL, VOID, or ERROR
-	public IrStatement(IrNode parent) {
-    	super(parent);
+	public IrStatement(IrNode parent, int kind) {
+    	super(parent, kind);
     }
 }
 
@@ -353,7 +502,7 @@ class IrAssignStmt extends IrStatement
 	// type INT, BOOL, or ERROR
 	// children: lhs=IrLocation, rhs=IrExpression
     public IrAssignStmt(IrNode parent) {
-    	super(parent);
+    	super(parent, IrKind.ASSIGN_STMT);
     }
     @Override
 	public String toString() {
@@ -366,7 +515,7 @@ class IrPlusAssignStmt extends IrStatement
 	// type INT or ERROR
 	// children: lhs=IrLocation, rhs=IrExpression
     public IrPlusAssignStmt(IrNode parent) {
-    	super(parent);
+    	super(parent, IrKind.PLUS_ASSIGN_STMT);
     }
     @Override
 	public String toString() {
@@ -379,7 +528,7 @@ class IrMinusAssignStmt extends IrStatement
 	// type INT or ERROR
 	// children: lhs=IrLocation, rhs=IrExpression
     public IrMinusAssignStmt(IrNode parent) {
-        super(parent);
+        super(parent, IrKind.MINUS_ASSIGN_STMT);
     }
     @Override
 	public String toString() {
@@ -392,7 +541,7 @@ class IrBreakStmt extends IrStatement
 	// leaf
 	// type VOID or ERROR
 	public IrBreakStmt(IrNode parent) {
-    	super(parent);
+    	super(parent, IrKind.BREAK_STMT);
     }
 	@Override
 	public String toString() {
@@ -405,7 +554,7 @@ class IrIfStmt extends IrStatement
 	// type VOID or ERROR
 	// children: IrExpr, IrBlock, IrBlock? (optional else-block)
     public IrIfStmt(IrNode parent) {
-        super(parent);      
+        super(parent, IrKind.IF_STMT);      
     }
    
     @Override
@@ -419,14 +568,21 @@ class IrForStmt extends IrStatement
 	// type VOID or ERROR
 	// children IrExpression (init expr), IrExpression (end expr), IrBlock
     private final IrId initId;
+    private IntEntry binding; // the loop variable, set by the checker
     
     public IrForStmt(IrNode parent, IrId initId) {
-        super(parent);
+        super(parent, IrKind.FOR_STMT);
     	this.initId = initId;
     }
     public IrId getInitId() {
         return this.initId;
     }
+    public IntEntry getBinding() {
+    	return this.binding;
+    }
+    public void setBinding(IntEntry binding) {
+    	this.binding = binding;
+    }
     @Override
 	public String toString() {
 		return "ForStmt";
@@ -438,7 +594,7 @@ class IrReturnStmt extends IrStatement
 	// type VOID, INT, BOOL, or ERROR
 	// child: IrExpression? 
     public IrReturnStmt(IrNode parent) {
-    	super(parent);
+    	super(parent, IrKind.RETURN_STMT);
     }
     @Override
 	public String toString() {
@@ -451,7 +607,7 @@ class IrContinueStmt extends IrStatement
 	// leaf
 	// type VOID or ERROR
 	public IrContinueStmt(IrNode parent) {
-    	super(parent);
+    	super(parent, IrKind.CONTINUE_STMT);
     }
 	@Override
 	public String toString() {
@@ -465,7 +621,7 @@ class IrInvokeStmt extends IrStatement
 	// child: IrCallExpr (IrMethodCallExpr or IrCalloutExpr)
 
     public IrInvokeStmt(IrNode parent) {
-        super(parent);
+        super(parent, IrKind.INVOKE_STMT);
     }
     @Override
 	public String toString() {
@@ -478,7 +634,7 @@ class IrBlock extends IrStatement
 	// type VOID or ERROR
 	// children: IrVarDecl's, IrStatement's 
     public IrBlock(IrNode parent) {
-        super(parent);
+        super(parent, IrKind.BLOCK);
     }
     @Override
 	public String toString() {
@@ -491,7 +647,7 @@ class IrClassDecl extends IrNode
 	// type VOID or ERROR
 	// children: FieldDecl's, MethodDecl's
 	public IrClassDecl(IrNode parent) {
-    	super(parent);
+    	super(parent, IrKind.CLASS_DECL);
     }
 	@Override
 	public String toString() {
@@ -501,8 +657,8 @@ class IrClassDecl extends IrNode
 
 abstract class IrMemberDecl extends IrNode
 {
-	public IrMemberDecl(IrNode parent) {
-    	super(parent);
+	public IrMemberDecl(IrNode parent, int kind) {
+    	super(parent, kind);
     }
 }
 
@@ -513,7 +669,10 @@ class IrFieldDecl extends IrMemberDecl
     private final IrId  	id;
 
     public IrFieldDecl(IrNode parent, IrType fieldType, IrId id) {
-    	super(parent);
+    	this(parent, fieldType, id, IrKind.FIELD_DECL);
+    }
+    protected IrFieldDecl(IrNode parent, IrType fieldType, IrId id, int kind) {
+    	super(parent, kind);
     	this.fieldType = fieldType;
     	this.id = id;
     }
@@ -536,7 +695,7 @@ class IrArrayFieldDecl extends IrFieldDecl
     private final int size;
 
     public IrArrayFieldDecl(IrNode parent, IrType fieldType, IrId id, int size) {
-        super(parent, fieldType, id);
+        super(parent, fieldType, id, IrKind.ARRAY_FIELD_DECL);
         this.size = size;
     }
     public int getSize() {
@@ -555,9 +714,10 @@ class IrMethodDecl extends IrMemberDecl
 	// children: IrMethodArg_1, IrMethodArg_2, ... , IrMethodArg_N, IrBlock
     private final IrType            returnType; // allow for void
     private final IrId              id;
+    private int                     frameSize; // local slots, set by the checker
 
     public IrMethodDecl(IrNode parent, IrType returnType, IrId id) {
-    	super(parent);
+    	super(parent, IrKind.METHOD_DECL);
     	this.returnType = returnType;
     	this.id = id;
     }
@@ -567,6 +727,16 @@ class IrMethodDecl extends IrMemberDecl
     public IrType getReturnType() {
     	return this.returnType;
     }
+    /**
+     * How many frame slots the method's locals need, counting the ones
+     * that disjoint scopes share once.  Parameters are not counted.
+     */
+    public int getFrameSize() {
+    	return this.frameSize;
+    }
+    public void setFrameSize(int frameSize) {
+    	this.frameSize = frameSize;
+    }
     @Override
 	public String toString() {
     	return "MethodDecl: " + returnType.toString() + " " + id.toString();
@@ -579,7 +749,7 @@ class IrMethodArg extends IrNode {
     private final IrId      argId;
 
     public IrMethodArg(IrNode parent, IrType argType, IrId argId) {
-    	super(parent);
+    	super(parent, IrKind.METHOD_ARG);
         this.argType = argType;
         this.argId = argId;
     }
@@ -601,9 +771,10 @@ class IrVarDecl extends IrNode
 	// exactly like an IrMethodArg
 	private final IrType    varType;
     private final IrId      varId;
+    private SymbolTableEntry binding; // set by the checker
 
     public IrVarDecl(IrNode parent, IrType varType, IrId varId) {
-    	super(parent);
+    	super(parent, IrKind.VAR_DECL);
         this.varType = varType;
         this.varId = varId;
     }
@@ -613,6 +784,12 @@ class IrVarDecl extends IrNode
     public IrId getVarId() {
     	return this.varId;
     }
+    public SymbolTableEntry getBinding() {
+    	return this.binding;
+    }
+    public void setBinding(SymbolTableEntry binding) {
+    	this.binding = binding;
+    }
     @Override
 	public String toString() {
     	return "VarDecl: " + varType.toString() + " " + varId.toString();
@@ -623,11 +800,21 @@ class IrVarDecl extends IrNode
 class IrType extends Ir
 {	// not a tree node
 	
-    private int typeCode;
+	// one shared, immutable instance per type code
+	private static final IrType[] TYPES = new IrType[TYPE.length];
+	static {
+		for (int i=0; i<TYPES.length; i++)
+			TYPES[i] = new IrType(i);
+	}
+
+    private final int typeCode;
 
-    public IrType(int typeCode) {
+    private IrType(int typeCode) {
         this.typeCode = typeCode;
     }
+    public static IrType of(int typeCode) {
+    	return TYPES[typeCode];
+    }
     public int getTypeCode() {
         return this.typeCode;
     }
@@ -663,32 +850,35 @@ class IrId extends Ir
 {
 	// not a tree node
 	
-    private String id;
-
-    public IrId(String id) {
+    private final String id;
+    private final int num;
+
+    /**
+     * IrIds are made only by an IdTable, so there is one per name per
+     * compilation, and they can be compared with ==.
+     */
+    IrId(String id, int num) {
         this.id = id;
+        this.num = num;
     }
     public String getIdString() {
         return this.id;
     }
-    public void setId(String id) {
-        this.id = id;
+    /**
+     * This id's number in its IdTable: 0 for the first name seen, 1 for
+     * the next, and so on.
+     */
+    public int getNum() {
+        return this.num;
     }
     @Override
     public String toString() {
         return this.id;
     }
     @Override
-    public boolean equals(Object other) {
-        if (other instanceof IrId) {
-            IrId otherId = (IrId) other;
-            return this.id.equals(otherId.id);
-        }
-        return false;
-    }
-    @Override
     public int hashCode() {
-        return this.id.hashCode();
+        return this.num;
     }
 }
 
+
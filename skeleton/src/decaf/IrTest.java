@@ -6,8 +6,9 @@ import java.util.Set;
 
 public class IrTest {
     public static void main(String[] args) {
-        IrId i1 = new IrId("crapola");
-        IrId i2 = new IrId("crapola");
+        IdTable ids = new IdTable();
+        IrId i1 = ids.intern("crapola");
+        IrId i2 = ids.intern("crapola");
         System.out.println("i1 == i2: " + (i1==i2));
         //System.out.println("i1 instanceof Object: " + (i1 instanceof Object));
         System.out.println("i1.equals(i2): " + i1.equals(i2));
@@ -0,0 +1,35 @@
+package decaf;
+
+/**
+ * An operation on IR trees, with one method per concrete class of
+ * IrNode.  IrNode.accept() picks the method to call.
+ */
+interface IrVisitor<R> {
+	R visitIntLiteral(IrIntLiteral n);
+	R visitCharLiteral(IrCharLiteral n);
+	R visitBooleanLiteral(IrBooleanLiteral n);
+	R visitStringLiteral(IrStringLiteral n);
+	R visitMethodCallExpr(IrMethodCallExpr n);
+	R visitCalloutExpr(IrCalloutExpr n);
+	R visitBinopExpr(IrBinopExpr n);
+	R visitNotExpr(IrNotExpr n);
+	R visitNegativeExpr(IrNegativeExpr n);
+	R visitLocationExpr(IrLocationExpr n);
+	R visitArrayLocationExpr(IrArrayLocationExpr n);
+	R visitAssignStmt(IrAssignStmt n);
+	R visitPlusAssignStmt(IrPlusAssignStmt n);
+	R visitMinusAssignStmt(IrMinusAssignStmt n);
+	R visitBreakStmt(IrBreakStmt n);
+	R visitIfStmt(IrIfStmt n);
+	R visitForStmt(IrForStmt n);
+	R visitReturnStmt(IrReturnStmt n);
+	R visitContinueStmt(IrContinueStmt n);
+	R visitInvokeStmt(IrInvokeStmt n);
+	R visitBlock(IrBlock n);
+	R visitClassDecl(IrClassDecl n);
+	R visitFieldDecl(IrFieldDecl n);
+	R visitArrayFieldDecl(IrArrayFieldDecl n);
+	R visitMethodDecl(IrMethodDecl n);
+	R visitMethodArg(IrMethodArg n);
+	R visitVarDecl(IrVarDecl n);
+}
@@ -0,0 +1,125 @@
+package decaf;
+
+/**
+ * An IrVisitor that by default just walks the tree: each visit method
+ * hands its node to visitNode(), which visits the node's children in
+ * order and returns null.  A pass overrides the methods for the nodes
+ * it cares about, and visitNode() to change what happens to the rest.
+ * The array forms of location and field declaration fall back to the
+ * plain forms, just as their classes extend them.
+ */
+class IrWalker<R> implements IrVisitor<R> {
+	public R visitNode(IrNode n) {
+		for (int i=0; i<n.numChildren(); i++)
+			n.child(i).accept(this);
+		return null;
+	}
+
+	public R visitIntLiteral(IrIntLiteral n) {
+		return visitNode(n);
+	}
+
+	public R visitCharLiteral(IrCharLiteral n) {
+		return visitNode(n);
+	}
+
+	public R visitBooleanLiteral(IrBooleanLiteral n) {
+		return visitNode(n);
+	}
+
+	public R visitStringLiteral(IrStringLiteral n) {
+		return visitNode(n);
+	}
+
+	public R visitMethodCallExpr(IrMethodCallExpr n) {
+		return visitNode(n);
+	}
+
+	public R visitCalloutExpr(IrCalloutExpr n) {
+		return visitNode(n);
+	}
+
+	public R visitBinopExpr(IrBinopExpr n) {
+		return visitNode(n);
+	}
+
+	public R visitNotExpr(IrNotExpr n) {
+		return visitNode(n);
+	}
+
+	public R visitNegativeExpr(IrNegativeExpr n) {
+		return visitNode(n);
+	}
+
+	public R visitLocationExpr(IrLocationExpr n) {
+		return visitNode(n);
+	}
+
+	public R visitArrayLocationExpr(IrArrayLocationExpr n) {
+		return visitLocationExpr(n);
+	}
+
+	public R visitAssignStmt(IrAssignStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitPlusAssignStmt(IrPlusAssignStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitMinusAssignStmt(IrMinusAssignStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitBreakStmt(IrBreakStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitIfStmt(IrIfStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitForStmt(IrForStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitReturnStmt(IrReturnStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitContinueStmt(IrContinueStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitInvokeStmt(IrInvokeStmt n) {
+		return visitNode(n);
+	}
+
+	public R visitBlock(IrBlock n) {
+		return visitNode(n);
+	}
+
+	public R visitClassDecl(IrClassDecl n) {
+		return visitNode(n);
+	}
+
+	public R visitFieldDecl(IrFieldDecl n) {
+		return visitNode(n);
+	}
+
+	public R visitArrayFieldDecl(IrArrayFieldDecl n) {
+		return visitFieldDecl(n);
+	}
+
+	public R visitMethodDecl(IrMethodDecl n) {
+		return visitNode(n);
+	}
+
+	public R visitMethodArg(IrMethodArg n) {
+		return visitNode(n);
+	}
+
+	public R visitVarDecl(IrVarDecl n) {
+		return visitNode(n);
+	}
+}
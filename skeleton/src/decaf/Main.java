@@ -1,94 +1,512 @@
 package decaf;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import antlr.CharStreamException;
+import antlr.RecognitionException;
 import antlr.Token;
+import antlr.TokenStream;
+import antlr.TokenStreamException;
+import antlr.TokenStreamRecognitionException;
 import java6035.tools.CLI.*;
 
 class Main {
+	/**
+	 * Names of the options -opt turns on, indexed by the constants
+	 * below.
+	 */
+	static final String[] OPTS = {"fused", "parcheck", "regalloc", "cse",
+		"copyprop", "constprop"};
+	static final int FUSED = 0;    // check each member as it is parsed
+	static final int PARCHECK = 1; // check method bodies in parallel
+	static final int REGALLOC = 2; // allocate registers by graph coloring
+	static final int CSE = 3;      // eliminate common subexpressions
+	static final int COPYPROP = 4; // propagate copies
+	static final int CONSTPROP = 5;// propagate and fold constants
+	
+	// lowered methods kept across runs, shared by every compilation
+	// of a batch; null unless -cache was given
+	private static MethodCache cache;
+	
     public static void main(String[] args) {
+    	int status;
         try {
-        	CLI.parse (args, new String[0]);
-        	
-        	InputStream inputStream = args.length == 0 ?
-                    System.in : new java.io.FileInputStream(CLI.infile);
+        	CLI.parse (args, OPTS);
+        	if (CLI.cachedir != null)
+        		cache = new MethodCache(CLI.cachedir);
 
-        	if (CLI.target == CLI.SCAN)
+        	if (CLI.port != 0)
+        		status = serve(CLI.port);
+        	else if (CLI.batch)
+        		status = batch(CLI.infiles);
+        	else {
+        		SourceBuffer source = CLI.infile == null ?
+        				SourceBuffer.read(System.in) : SourceBuffer.map(CLI.infile);
+        		// output goes to stdout unless -o names a file for it
+        		PrintStream out = System.out;
+        		if (CLI.outfileGiven)
+        			out = new PrintStream(new BufferedOutputStream(
+        					new FileOutputStream(CLI.outfile)));
+        		CompilationContext ctx = new CompilationContext(CLI.infile, 
+        				CLI.outfile, out, System.err, cache);
+        		try {
+        			status = compile(ctx, source);
+        		} finally {
+        			out.flush();
+        			if (out != System.out)
+        				out.close();
+        		}
+        		reportStats(ctx, status);
+        	}
+        	reportCache();
+        } catch(Exception e) {
+        	// print the error:
+            System.out.println(CLI.infile+" "+e);
+            status = 1;
+        }
+        if (status != 0)
+        	System.exit(status);
+    }
+
+    /**
+     * Prints how many methods -cache found lowered already and how many
+     * it had to lower, so far.
+     */
+    private static void reportCache() {
+    	if (cache != null)
+    		System.err.println("cache: " + cache.getHits() + " hits, " + 
+    				cache.getMisses() + " misses");
+    }
+
+    /**
+     * Runs the pipeline for ctx.target over source, printing its
+     * output to ctx.out.  Returns 0 if the input compiled cleanly and 1
+     * if any stage reported an error.  Uses no state outside ctx, so
+     * it may be called from several threads at once.
+     */
+    static int compile(CompilationContext ctx, SourceBuffer source) {
+    	PrintStream out = ctx.out;
+    	int status = 0;
+    	ctx.stats.begin("total");
+        try {
+        	if (ctx.target == CLI.SCAN)
         	{
-        		DecafScanner lexer = new DecafScanner(new DataInputStream(inputStream));
-        		Token token;
-        		boolean done = false;
-        		while (!done)
-        		{
-        			try
-        			{
-		        		for (token=lexer.nextToken(); token.getType()!=DecafParserTokenTypes.EOF; token=lexer.nextToken())
-		        		{
-		        			String type = "";
-		        			String text = token.getText();
-		
-		        			switch (token.getType())
-		        			{
-		        			case DecafScannerTokenTypes.ID:
-		        				type = " IDENTIFIER";
-		        				break;
-		        			case DecafScannerTokenTypes.CHAR:
-		        				type = " CHARLITERAL";
-		        				break;
-		        			case DecafScannerTokenTypes.TRUE:
-		        			case DecafScannerTokenTypes.FALSE:
-		        				type = " BOOLEANLITERAL";
-		        				break;
-		        			case DecafScannerTokenTypes.HEX:
-		        			case DecafScannerTokenTypes.DECIMAL:
-		        				type = " INTLITERAL";
-		        				break;
-		        			case DecafScannerTokenTypes.STRING:
-		        				type = " STRINGLITERAL";
-		        				break;
-		        			}
-		        			System.out.println (token.getLine() + type + " " + text);
-		        		}
-		        		done = true;
-        			} catch(Exception e) {
-        	        	// print the error:
-        	            System.out.println(CLI.infile+" "+e);
-        	            lexer.consume ();
-        	        }
+        		ctx.stats.begin("scan");
+        		try {
+	        		TokenStream lexer = newScanner(ctx, source);
+	        		// one line per token adds up; format them all into one
+	        		// buffer and write it out in large pieces
+	        		out.flush();
+	        		Emitter scan = new Emitter(Channels.newChannel(out));
+	        		if (lexer instanceof TokenBuffer)
+	        			status = printTokens(ctx, (TokenBuffer) lexer, source, scan);
+	        		else
+	        			status = printTokens(ctx, lexer, scan);
+	        		scan.flush();
+        		} finally {
+        			ctx.stats.end();
         		}
         	}
-        	else if (CLI.target == CLI.PARSE || CLI.target == CLI.DEFAULT)
+        	else if (ctx.target == CLI.PARSE || ctx.target == CLI.DEFAULT)
         	{
-        		DecafScanner lexer = new DecafScanner(new DataInputStream(inputStream));
-        		DecafParser parser = new DecafParser (lexer, CLI.debug);
+        		TokenStream lexer = scan(ctx, source);
+        		DecafParser parser = new DecafParser (lexer, ctx);
         		//DecafParser parser = new DecafParser (lexer);
-                parser.program(); 
+        		ctx.stats.begin("parse");
+        		try {
+        			parser.program();
+        		} finally {
+        			ctx.stats.end();
+        		}
+        		countIr(ctx, parser.getIrTree());
+                if (parser.getNumErrors() > 0)
+                	status = 1;
         	}
-        	else if (CLI.target == CLI.INTER)
+        	else if (ctx.target == CLI.INTER)
         	{
-        		DecafScanner lexer = new DecafScanner(new DataInputStream(inputStream));
-        		DecafParser parser = new DecafParser (lexer, CLI.debug);
-                parser.program(); 
+        		DecafParser parser = parseAndCheck(ctx, source);
                 IrNode irRoot = parser.getIrTree();
-                SemanticChecker checker = new SemanticChecker(CLI.infile, CLI.debug);
-                if (CLI.debug) System.out.println("--- checking -----");
-                checker.checkProgram((IrClassDecl) irRoot);
+                if (parser.getNumErrors() > 0 || irRoot.getType() == Ir.ERROR)
+                	status = 1;
         	}
-        	else if (CLI.target == CLI.LOWIR) {
-        		DecafScanner lexer = new DecafScanner(new DataInputStream(inputStream));
-        		DecafParser parser = new DecafParser (lexer, CLI.debug);
-                parser.program(); 
+        	else if (ctx.target == CLI.LOWIR || ctx.target == CLI.ASSEMBLY) {
+        		DecafParser parser = parseAndCheck(ctx, source);
                 IrNode irRoot = parser.getIrTree();
-                SemanticChecker checker = new SemanticChecker(CLI.infile, CLI.debug);
-                if (CLI.debug) System.out.println("--- checking -----");
-                checker.checkProgram((IrClassDecl) irRoot);
-                CodeGen codegen = new CodeGen(irRoot, CLI.debug);
-                codegen.genLowIr();
-                codegen.printLowIr();
+                if (parser.getNumErrors() > 0 || irRoot.getType() == Ir.ERROR)
+                	return 1; // lowering needs every name resolved
+                CodeGen codegen = new CodeGen(irRoot, ctx);
+                // stream straight to the output rather than building the
+                // whole listing in memory first
+                out.flush();
+                ctx.stats.begin(ctx.target == CLI.LOWIR ? "lowir" : "codegen");
+                try {
+	                Emitter code = new Emitter(Channels.newChannel(out));
+	                if (ctx.target == CLI.LOWIR)
+	                	codegen.genLowIr(code);
+	                else
+	                	codegen.genAssembly(code);
+	                code.flush();
+                } finally {
+                	ctx.stats.end();
+                }
         	}
         } catch(Exception e) {
         	// print the error:
-            System.out.println(CLI.infile+" "+e);
+            out.println(ctx.infile+" "+e);
+            status = 1;
+        } finally {
+        	ctx.stats.end();
         }
+        return status;
+    }
+
+    /**
+     * Prints what -stats recorded for ctx, as one line of JSON on
+     * standard error.
+     */
+    private static void reportStats(CompilationContext ctx, int status) {
+    	if (ctx.stats.isEnabled())
+    		System.err.println(ctx.stats.toJson(ctx.infile, status));
+    }
+
+    /**
+     * Prints each token lexer returns on a line of its own, and each
+     * error, in order, skipping past errors.  Returns 1 if there were
+     * any errors.
+     */
+    private static int printTokens(CompilationContext ctx, TokenStream lexer, Emitter scan) 
+    		throws IOException, CharStreamException {
+    	int status = 0;
+    	boolean done = false;
+    	while (!done)
+    	{
+    		try
+    		{
+    			Token token;
+    			for (token=lexer.nextToken(); token.getType()!=DecafParserTokenTypes.EOF; token=lexer.nextToken())
+    			{
+    				scan.append(token.getLine()).append(tokenLabel(token.getType()))
+    					.append(' ').line(token.getText());
+    			}
+    			done = true;
+    		} catch(TokenStreamException e) {
+    			// print the error:
+    			scan.append(ctx.infile).append(' ').line(e.toString());
+    			status = 1;
+    			skipChar(lexer);
+    		}
+    	}
+    	return status;
+    }
+
+    /**
+     * Same as printTokens, but copies token text straight from source.
+     */
+    private static int printTokens(CompilationContext ctx, TokenBuffer tokens, 
+    		SourceBuffer source, Emitter scan) throws IOException {
+    	int status = 0;
+    	for (int i=0; i<tokens.size(); i++)
+    	{
+    		if (tokens.isError(i)) {
+    			TokenStreamException e = new TokenStreamRecognitionException(tokens.error(i));
+    			scan.append(ctx.infile).append(' ').line(e.toString());
+    			status = 1;
+    		}
+    		else if (tokens.type(i) != DecafParserTokenTypes.EOF) {
+    			int start = tokens.start(i);
+    			scan.append(tokens.line(i)).append(tokenLabel(tokens.type(i))).append(' ')
+    				.append(source, start, start + tokens.length(i)).append('\n');
+    		}
+    	}
+    	return status;
+    }
+
+    /**
+     * What -target scan prints after the line number of a token of the
+     * given type.
+     */
+    private static String tokenLabel(int type) {
+    	switch (type)
+    	{
+    	case DecafScannerTokenTypes.ID:
+    		return " IDENTIFIER";
+    	case DecafScannerTokenTypes.CHAR:
+    		return " CHARLITERAL";
+    	case DecafScannerTokenTypes.TRUE:
+    	case DecafScannerTokenTypes.FALSE:
+    		return " BOOLEANLITERAL";
+    	case DecafScannerTokenTypes.HEX:
+    	case DecafScannerTokenTypes.DECIMAL:
+    		return " INTLITERAL";
+    	case DecafScannerTokenTypes.STRING:
+    		return " STRINGLITERAL";
+    	default:
+    		return "";
+    	}
     }
-}
 
+    /**
+     * Parses source and checks the resulting tree, returning the parser
+     * the tree and parse errors can be had from.  With the fused option
+     * the checker runs inside the parse, one member at a time;
+     * otherwise it walks the whole tree once the parse is done.
+     */
+    private static DecafParser parseAndCheck(CompilationContext ctx, SourceBuffer source) 
+    		throws RecognitionException, TokenStreamException {
+		TokenStream lexer = scan(ctx, source);
+		if (ctx.isEnabled(FUSED)) {
+			SemanticChecker checker = new SemanticChecker(ctx);
+			DecafParser parser = new DecafParser(lexer, ctx, checker);
+			ctx.stats.begin("parse+check");
+			try {
+				parser.program();
+				checker.finishProgram();
+			} finally {
+				ctx.stats.end();
+			}
+			countIr(ctx, parser.getIrTree());
+			return parser;
+		}
+		DecafParser parser = new DecafParser (lexer, ctx);
+		ctx.stats.begin("parse");
+		try {
+			parser.program();
+		} finally {
+			ctx.stats.end();
+		}
+		countIr(ctx, parser.getIrTree());
+        SemanticChecker checker = new SemanticChecker(ctx);
+        if (ctx.debug) ctx.out.println("--- checking -----");
+        ctx.stats.begin("check");
+        try {
+        	checker.checkProgram((IrClassDecl) parser.getIrTree());
+        } finally {
+        	ctx.stats.end();
+        }
+        return parser;
+    }
+
+    /**
+     * Returns the scanner selected by ctx over source, to be read by a
+     * parser.  A TokenBuffer scans all of source here, and is timed as
+     * a phase of its own; other scanners are timed with the parser
+     * that pulls tokens from them.
+     */
+    private static TokenStream scan(CompilationContext ctx, SourceBuffer source) {
+    	TokenStream lexer;
+    	if (ctx.scanner == CLI.BUFFERED_SCANNER) {
+    		ctx.stats.begin("scan");
+    		try {
+    			lexer = newScanner(ctx, source);
+    		} finally {
+    			ctx.stats.end();
+    		}
+    	} else {
+    		lexer = newScanner(ctx, source);
+    	}
+    	return ctx.stats.countTokens(lexer);
+    }
+
+    /**
+     * Counts the nodes of the tree at root, if -stats is on.
+     */
+    private static void countIr(CompilationContext ctx, IrNode root) {
+    	if (ctx.stats.isEnabled() && root != null)
+    		ctx.stats.count("irNodes", Stats.countNodes(root));
+    }
+
+    /**
+     * Returns the scanner selected by ctx over source.
+     */
+    private static TokenStream newScanner(CompilationContext ctx, SourceBuffer source) {
+    	if (ctx.scanner == CLI.DFA_SCANNER)
+    		return new DfaScanner(source);
+    	if (ctx.scanner == CLI.BUFFERED_SCANNER)
+    		return new TokenBuffer(source);
+    	return new DecafScanner(source.inputBuffer());
+    }
+
+    /**
+     * Skips the character a scanner choked on, so scanning can resume.
+     * A TokenBuffer has already done so by the time it reports an error.
+     */
+    private static void skipChar(TokenStream lexer) throws CharStreamException {
+    	if (lexer instanceof TokenBuffer)
+    		return;
+    	if (lexer instanceof DfaScanner)
+    		((DfaScanner) lexer).consume();
+    	else
+    		((DecafScanner) lexer).consume();
+    }
+
+    /**
+     * Compiles one file of a batch.  Everything the pipeline prints,
+     * including the parser's diagnostics, goes to the file's output
+     * file instead of the console.  A file that can't be read is
+     * reported on standard error and gets no output file.
+     */
+    private static int compileFile(String file) {
+    	String outfile = CLI.outfileFor(file);
+    	SourceBuffer source;
+    	PrintStream out;
+    	try {
+    		// map the source first: a file that can't be read gets no
+    		// output file
+    		source = SourceBuffer.map(file);
+    		out = new PrintStream(new BufferedOutputStream(
+    				new FileOutputStream(outfile)));
+    	} catch (IOException e) {
+    		System.err.println(file+" "+e);
+    		return 1;
+    	}
+    	CompilationContext ctx = new CompilationContext(file, outfile, out, out, cache);
+    	int status;
+    	try {
+    		status = compile(ctx, source);
+    	} catch (Throwable e) {
+    		// even an Error only fails this file, not the whole batch
+    		out.println(file+" "+e);
+    		status = 1;
+    	} finally {
+    		out.close();
+    	}
+    	reportStats(ctx, status);
+    	return status;
+    }
+    
+    private static Callable<Integer> compileTask(final String file) {
+    	return new Callable<Integer>() {
+    		public Integer call() {
+    			return compileFile(file);
+    		}
+    	};
+    }
+    
+    /**
+     * The status a task finished with.  compileFile catches everything
+     * itself, so this is only a backstop: a task that failed anyway
+     * counts as one failed file rather than ending the batch.
+     */
+    private static int statusOf(Future<Integer> result) throws InterruptedException {
+    	try {
+    		return result.get();
+    	} catch (ExecutionException e) {
+    		System.err.println(e.getCause());
+    		return 1;
+    	}
+    }
+
+    /**
+     * Compiles each of the named files, or every file named on standard
+     * input if the list is empty, CLI.threads files at a time.  Prints
+     * one "<file> <status>" line per file, in input order.  Returns 1
+     * if any file failed.
+     */
+    private static int batch(List<String> files) 
+    		throws IOException, InterruptedException {
+    	long start = System.nanoTime();
+    	int numFiles = 0, numFailed = 0;
+    	ExecutorService pool = Executors.newFixedThreadPool(CLI.threads);
+    	try {
+	    	if (files.isEmpty()) {
+	    		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	    		int[] counts = serveRequests(in, System.out, pool);
+	    		numFiles = counts[0];
+	    		numFailed = counts[1];
+	    	}
+	    	else {
+	    		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+	    		for (String file : files)
+	    			results.add(pool.submit(compileTask(file)));
+	    		for (int i=0; i<files.size(); i++) {
+	    			int status = statusOf(results.get(i));
+	    			System.out.println(files.get(i) + " " + status);
+	    			numFiles++;
+	    			if (status != 0)
+	    				numFailed++;
+	    		}
+	    	}
+    	} finally {
+    		pool.shutdown();
+    	}
+    	long ms = (System.nanoTime() - start) / 1000000;
+    	System.err.println("batch: " + numFiles + " files, " + numFailed +
+    			" failed, " + ms + " ms, " + CLI.threads + " threads");
+    	return numFailed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Listens on a loopback socket and treats each connection as a
+     * batch: the client writes file names one per line, and gets back
+     * a "<file> <status>" line for each, in the order it asked.  Never
+     * returns unless the socket fails.
+     */
+    private static int serve(int port) throws IOException, InterruptedException {
+    	ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+    	ExecutorService pool = Executors.newFixedThreadPool(CLI.threads);
+    	System.err.println("server: listening on port " + server.getLocalPort());
+    	while (true) {
+    		Socket client = server.accept();
+    		try {
+    			BufferedReader in = new BufferedReader(
+    					new InputStreamReader(client.getInputStream()));
+    			PrintStream reply = new PrintStream(client.getOutputStream(), true);
+    			serveRequests(in, reply, pool);
+    			reportCache();
+    		} catch (IOException e) {
+    			System.err.println("server: " + e);
+    		} finally {
+    			client.close();
+    		}
+    	}
+    }
+
+    /**
+     * Compiles files named one per line on in until end of input.  Each
+     * file is handed to pool as soon as it is read, and its status line
+     * is written to reply as soon as it and every file before it have
+     * finished, so a client may wait for each answer before asking
+     * again.  Returns the number of files compiled and the number that
+     * failed.
+     */
+    private static int[] serveRequests(BufferedReader in, final PrintStream reply,
+    		ExecutorService pool) throws IOException, InterruptedException {
+    	ExecutorService replier = Executors.newSingleThreadExecutor();
+    	List<Future<Integer>> replies = new ArrayList<Future<Integer>>();
+    	String line;
+    	try {
+	    	while ((line = in.readLine()) != null) {
+	    		final String file = line.trim();
+	    		if (file.length() == 0)
+	    			continue;
+	    		final Future<Integer> result = pool.submit(compileTask(file));
+	    		replies.add(replier.submit(new Callable<Integer>() {
+	    			public Integer call() throws InterruptedException {
+	    				int status = statusOf(result);
+	    				reply.println(file + " " + status);
+	    				reply.flush();
+	    				return status;
+	    			}
+	    		}));
+	    	}
+    	} finally {
+    		replier.shutdown();
+    	}
+    	int numFailed = 0;
+    	for (Future<Integer> r : replies) {
+    		if (statusOf(r) != 0)
+    			numFailed++;
+    	}
+    	return new int[] {replies.size(), numFailed};
+    }
+}
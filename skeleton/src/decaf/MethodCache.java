@@ -0,0 +1,203 @@
+package decaf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An on-disk cache of each method's lowered output, so recompiling a
+ * program only lowers the methods that changed.  Entries are files in
+ * one directory, named by a digest of everything the output depends
+ * on: the method's checked tree (its source less whitespace, comments
+ * and line numbers), the signatures of the methods it calls, the
+ * program's field layout, and the target and options.  One cache may
+ * be shared by every compilation of a batch.
+ */
+public class MethodCache {
+	// bump whenever lowering changes what it emits for the same tree
+	private static final int FORMAT = 3;
+
+	private final File dir;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	public MethodCache(String dir) {
+		this.dir = new File(dir);
+		this.dir.mkdirs();
+	}
+
+	public int getHits() {
+		return hits.get();
+	}
+
+	public int getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * The output stored under key, or null (a miss) if there is none.
+	 */
+	public byte[] get(String key) {
+		try {
+			byte[] output = Files.readAllBytes(new File(dir, key).toPath());
+			hits.incrementAndGet();
+			return output;
+		} catch (NoSuchFileException e) {
+			// not seen before
+		} catch (IOException e) {
+			// an unreadable entry is no worse than a missing one
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores output under key.  The entry is written aside and renamed
+	 * into place, so a compilation reading it at the same time sees
+	 * all of it or none.  A cache that cannot be written to is only
+	 * slower, so failures are ignored.
+	 */
+	public void put(String key, byte[] output) {
+		File tmp = null;
+		try {
+			tmp = File.createTempFile(key, ".tmp", dir);
+			Files.write(tmp.toPath(), output);
+			Files.move(tmp.toPath(), new File(dir, key).toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			tmp = null;
+		} catch (IOException e) {
+			// leave it uncached
+		} finally {
+			if (tmp != null)
+				tmp.delete();
+		}
+	}
+
+	/**
+	 * The part of every key that is the same for all of program's
+	 * methods: the format, target and options, and each field's name,
+	 * type and size in declaration order.
+	 */
+	public static String layoutOf(IrNode program, CompilationContext ctx) {
+		StringBuilder s = new StringBuilder();
+		s.append(FORMAT).append(' ').append(ctx.target).append(' ');
+		for (int i=0; i<ctx.opts.length; i++)
+			s.append(ctx.opts[i] ? '1' : '0');
+		for (int i=0; i<program.numChildren(); i++) {
+			IrNode n = program.child(i);
+			if (n instanceof IrFieldDecl) {
+				IrFieldDecl f = (IrFieldDecl) n;
+				s.append(' ').append(f.getFieldType().getTypeCode())
+					.append(' ').append(f.getId().getIdString());
+				if (f instanceof IrArrayFieldDecl)
+					s.append('[').append(((IrArrayFieldDecl) f).getSize()).append(']');
+			}
+		}
+		return s.append('\n').toString();
+	}
+
+	/**
+	 * The key of method in a program whose layoutOf() is layout.
+	 */
+	public static String keyOf(String layout, IrMethodDecl method) {
+		StringBuilder s = new StringBuilder(layout);
+		encode(method, s);
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e); // every JVM has SHA-256
+		}
+		byte[] hash = digest.digest(s.toString().getBytes(StandardCharsets.UTF_8));
+		StringBuilder hex = new StringBuilder(2 * hash.length);
+		for (byte b : hash) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+				.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Appends a text form of the tree at n that two trees share only
+	 * if lowering cannot tell them apart.  Strings are prefixed with
+	 * their length, so no two trees run together the same way.
+	 */
+	private static void encode(IrNode n, StringBuilder s) {
+		s.append('(').append(n.kind()).append(' ').append(n.getType());
+		switch (n.kind()) {
+		case IrKind.INT_LITERAL:
+			IrIntLiteral i = (IrIntLiteral) n;
+			s.append(' ').append(i.getIntString()).append(' ').append(i.getValue());
+			break;
+		case IrKind.CHAR_LITERAL:
+			s.append(' ').append((int) ((IrCharLiteral) n).getValue());
+			break;
+		case IrKind.BOOLEAN_LITERAL:
+			s.append(' ').append(((IrBooleanLiteral) n).getValue());
+			break;
+		case IrKind.STRING_LITERAL:
+			encode(((IrStringLiteral) n).getValue(), s);
+			break;
+		case IrKind.METHOD_CALL_EXPR:
+			IrMethodCallExpr call = (IrMethodCallExpr) n;
+			s.append(' ').append(call.getId().getIdString());
+			if (call.getBinding() != null)
+				s.append(' ').append(call.getBinding().getSig());
+			break;
+		case IrKind.CALLOUT_EXPR:
+			encode(((IrCalloutExpr) n).getCallout(), s);
+			break;
+		case IrKind.BINOP_EXPR:
+			s.append(' ').append(((IrBinopExpr) n).getOperator());
+			break;
+		case IrKind.LOCATION_EXPR:
+		case IrKind.ARRAY_LOCATION_EXPR:
+			IrLocationExpr loc = (IrLocationExpr) n;
+			s.append(' ').append(loc.getId().getIdString());
+			encode(loc.getBinding(), s);
+			break;
+		case IrKind.FOR_STMT:
+			IrForStmt f = (IrForStmt) n;
+			s.append(' ').append(f.getInitId().getIdString());
+			encode(f.getBinding(), s);
+			break;
+		case IrKind.METHOD_DECL:
+			IrMethodDecl m = (IrMethodDecl) n;
+			s.append(' ').append(m.getReturnType().getTypeCode())
+				.append(' ').append(m.getId().getIdString())
+				.append(' ').append(m.getFrameSize());
+			break;
+		case IrKind.METHOD_ARG:
+			IrMethodArg a = (IrMethodArg) n;
+			s.append(' ').append(a.getArgType().getTypeCode())
+				.append(' ').append(a.getArgId().getIdString());
+			break;
+		case IrKind.VAR_DECL:
+			IrVarDecl v = (IrVarDecl) n;
+			s.append(' ').append(v.getVarType().getTypeCode())
+				.append(' ').append(v.getVarId().getIdString());
+			break;
+		}
+		for (int c=0; c<n.numChildren(); c++)
+			encode(n.child(c), s);
+		s.append(')');
+	}
+
+	private static void encode(String str, StringBuilder s) {
+		s.append(' ').append(str.length()).append(':').append(str);
+	}
+
+	private static void encode(SymbolTableEntry binding, StringBuilder s) {
+		if (binding != null) {
+			s.append(' ').append(binding.getId().getIdString())
+				.append(' ').append(binding.getStorage())
+				.append(' ').append(binding.getSlot());
+		}
+	}
+}
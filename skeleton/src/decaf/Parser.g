@@ -1,6 +1,7 @@
 header 
 {
     package decaf;
+    import java.io.PrintStream;
     import java.util.List;
     import java.util.ArrayList;
     import java.util.Deque;
@@ -22,58 +23,103 @@ options
 
 {
     private boolean debug;
+    private PrintStream out, err;
     private SymbolTable syms;
+    private IdTable ids;
     private IrNode parent, child;
     private Deque<IrNode> stack, auxStack; 
+    private int numErrors;
+    private SemanticChecker checker; // checks members as they are parsed, if set
 
-    public DecafParser(TokenStream lexer, boolean debug) {
+    public DecafParser(TokenStream lexer, CompilationContext ctx) {
         this(lexer, 3);
-        this.debug = debug;
-        this.syms = new SymbolTable();
+        this.debug = ctx.debug;
+        this.out = ctx.out;
+        this.err = ctx.err;
+        this.syms = new SymbolTable(debug);
+        this.ids = ctx.ids;
         this.parent = null; // root of IR tree after program() finishes
         this.child = null;
         this.stack = new ArrayDeque<IrNode>();
         this.auxStack = new ArrayDeque<IrNode>(); 
     }
     
+    /**
+     * A parser that hands each field and method to checker as soon as
+     * it is parsed, so the program is checked in the same pass.  The
+     * checker then does all the binding of names, so the parser keeps
+     * no symbol table of its own.
+     */
+    public DecafParser(TokenStream lexer, CompilationContext ctx, 
+    					SemanticChecker checker) {
+    	this(lexer, ctx);
+    	this.checker = checker;
+    }
+    
+    private void beginScope() {
+    	if (checker == null)
+    		syms.beginScope();
+    }
+    
+    private void endScope() {
+    	if (checker == null)
+    		syms.endScope();
+    }
+    
+    private void check(IrNode member) {
+    	// after a syntax error the stack may not hold the class here
+    	if (checker != null && member.parent() instanceof IrClassDecl)
+    		checker.checkMember((IrClassDecl) member.parent(), member);
+    }
+    
     private void put(Token t, int type) {
-        IrId id = new IrId(t.getText());
+    	if (checker != null)
+    		return;
+        IrId id = ids.intern(t);
         switch (type) {
             case TK_int:
                 syms.put(id, new IntEntry());
-                if (debug) syms.print();
+                if (debug) syms.print(out);
                 break;
             case TK_boolean:
                 syms.put(id, new BoolEntry());
-                if (debug) syms.print();
+                if (debug) syms.print(out);
                 break;
         }
     }
     
     private void put(Token t, int type, String aSizeStr) {
+    	if (checker != null)
+    		return;
     	int aSize = Integer.parseInt(aSizeStr);
-        IrId id = new IrId(t.getText());
+        IrId id = ids.intern(t);
         switch (type) {
             case TK_int:
                 syms.put(id, new IntArrayEntry(aSize));
-                if (debug) syms.print();
+                if (debug) syms.print(out);
                 break;
             case TK_boolean:
                 syms.put(id, new BoolArrayEntry(aSize));
-                if (debug) syms.print();
+                if (debug) syms.print(out);
                 break;
         }
     }
     
     private void put(Token t, int retType, List<IrType> args) {
-        IrId id = new IrId(t.getText());
-        IrType rt = tkToIrType(retType);
-        MethodSignature sig = new MethodSignature(rt, args);
+    	if (checker != null)
+    		return;
+        IrId id = ids.intern(t);
+        int[] argTypes = new int[args.size()];
+        for (int i=0; i<argTypes.length; i++)
+        	argTypes[i] = args.get(i).getTypeCode();
+        MethodSignature sig = new MethodSignature(tkToIrType(retType).getTypeCode(), argTypes);
         syms.put(id, new MethodEntry(sig));
-        if (debug) syms.print();
+        if (debug) syms.print(out);
     }
     
     private void put(List<IrType> argTypes, List<IrId> argIds) {
+    	if (checker != null)
+    		return;
     	int typeCode;
     	for (int i=0; i<argTypes.size(); i++) {
     		typeCode = argTypes.get(i).getTypeCode();
@@ -85,7 +131,7 @@ options
     }
     
     private IrId tokenToIrId (Token t) {
-    	return new IrId(t.getText());
+    	return ids.intern(t);
     }
     
     private IrType tkToIrType(int tk) {
@@ -96,15 +142,39 @@ options
             irt = Ir.BOOL;
         else
             irt = Ir.VOID;
-        return new IrType(irt);
+        return IrType.of(irt);
     }
     
     public IrNode getIrTree() {
     	return this.parent;
     }
     
+    public int getNumErrors() {
+    	return this.numErrors;
+    }
+    
+    public void reportError(RecognitionException ex) {
+    	numErrors++;
+    	err.println(ex);
+    }
+    
+    public void reportError(String s) {
+    	numErrors++;
+    	if (getFilename() == null)
+    		err.println("error: " + s);
+    	else
+    		err.println(getFilename() + ": error: " + s);
+    }
+    
+    public void reportWarning(String s) {
+    	if (getFilename() == null)
+    		err.println("warning: " + s);
+    	else
+    		err.println(getFilename() + ": warning: " + s);
+    }
+    
     public void printIr(IrNode root) {
-    	System.out.println("============ IR TREE ==========================");
+    	out.println("============ IR TREE ==========================");
     	printIrR(root, 0);
     }
     
@@ -113,7 +183,7 @@ options
 		for (int i=0; i<level; i++) {
 			indent += "  ";
 		}
-		System.out.println(indent + node);
+		out.println(indent + node);
     	for (int i=0; i<node.numChildren(); i++)
     		printIrR(node.child(i), level+1);
     }
@@ -121,9 +191,11 @@ options
 
 program: 
     {
-    	syms.beginScope();
+    	beginScope();
     	parent = new IrClassDecl(null);
     	stack.push(parent);
+    	if (checker != null)
+    		checker.beginProgram();
     } 
     TK_class id:ID {id.getText().equals("Program")}?
     LCURLY 
@@ -137,6 +209,7 @@ program:
     			child = auxStack.pop();
     			child.setParent(parent);
     			parent.addChild(child);
+    			check(child);
     		}
     		stack.push(parent);
     	}
@@ -149,11 +222,14 @@ program:
     		child.setParent(parent);
     		parent.addChild(child);
     		stack.push(parent);
+    		check(child);
     	}
     )* RCURLY EOF
     {
-        syms.endScope();
+        endScope();
         parent = stack.pop();
+        if (checker != null)
+        	checker.endProgram((IrClassDecl) parent);
         if (debug) {
         	printIr(parent);
         }
@@ -214,12 +290,12 @@ method_decl
     ( t=type aid:ID 
         {
         	argTypes.add(tkToIrType(t));
-        	argIds.add(new IrId(aid.getText()));
+        	argIds.add(ids.intern(aid));
         }
         (COMMA t=type aid2:ID
             {
             	argTypes.add(tkToIrType(t));
-            	argIds.add(new IrId(aid2.getText()));
+            	argIds.add(ids.intern(aid2));
             }
         )* 
     )? RPAREN 
@@ -230,12 +306,12 @@ method_decl
     		parent.addChild(new IrMethodArg(parent, argTypes.get(i), argIds.get(i)));
     	stack.push(parent);
     	put(mid, rt, argTypes);
-    	syms.beginScope();
+    	beginScope();
     	put(argTypes, argIds);
     }
     block[true]
     {
-    	syms.endScope();
+    	endScope();
     	
     	child = stack.pop();
     	parent = stack.pop();
@@ -251,7 +327,7 @@ block
     lc:LCURLY 
     {
         if (!methodOrForBlock)
-        	syms.beginScope();
+        	beginScope();
         parent = new IrBlock(null);
         parent.setLineNum(lc.getLine());
         stack.push(parent);
@@ -282,7 +358,7 @@ block
     )* RCURLY
     {
         if (!methodOrForBlock)
-        	syms.endScope();
+        	endScope();
     }
     ;
 
@@ -311,6 +387,9 @@ var_decl:
     ;
 
 statement:
+	{ 
+		Token forId = null; 
+	}
 	(
     location assign_op 
     	{
@@ -365,14 +444,26 @@ statement:
     		stack.push(parent);
     	}
     )?
-    | tf:TK_for id:ID 
+    | tf:TK_for 
+    (
+    id:ID 
     	{ 
-    		syms.beginScope(); 
+    		beginScope(); 
     		put(id, TK_int);
+    		forId = id;
+    	}
+    ASSIGN expr COMMA expr 
+    | LPAREN fid:ID
+    	{ 
+    		beginScope(); 
+    		put(fid, TK_int);
+    		forId = fid;
     	}
-    ASSIGN expr COMMA expr block[true]
+    ASSIGN expr SEMI expr RPAREN
+    )
+    block[true]
     	{
-    		parent = new IrForStmt(null, tokenToIrId(id));
+    		parent = new IrForStmt(null, tokenToIrId(forId));
     		parent.setLineNum(tf.getLine());
     		IrNode b = stack.pop();
     		IrNode endExpr = stack.pop();
@@ -385,7 +476,7 @@ statement:
     		parent.addChild(b);
     		stack.push(parent);
     		
-    		syms.endScope();
+    		endScope();
     	}
     | t:TK_return 
     	{
@@ -0,0 +1,446 @@
+package decaf;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates valid Decaf programs of a given shape, for measuring how
+ * the compiler scales.  The same settings and seed always give the
+ * same program.
+ *
+ * Each method has a few parameters and locals, and a body of
+ * assignments, calls, ifs and for loops nested up to the statement
+ * depth, over expressions nested up to the expression depth.  Methods
+ * only call methods declared before them, so there is no recursion,
+ * but the programs are meant to be compiled rather than run: nothing
+ * bounds how often a deep call chain is taken.
+ *
+ *   java decaf.ProgramGenerator [-methods n] [-depth n] [-expr-depth n]
+ *       [-statements n] [-globals n] [-arrays n] [-array-size n]
+ *       [-calls percent] [-seed n] [-o file]
+ */
+public class ProgramGenerator {
+	private int methods = 100;
+	private int depth = 2;       // statement nesting
+	private int exprDepth = 3;   // expression nesting
+	private int statements = 4;  // per block
+	private int globals = 8;     // scalar fields
+	private int arrays = 2;      // array fields
+	private int arraySize = 100;
+	private int calls = 10;      // percent of leaves and statements that call
+	private long seed = 6035;
+
+	private Random random;
+	private StringBuilder out;
+	private int[] returnTypes;   // of each method so far: VOID, INT or BOOL
+	private int[][] paramTypes;
+	private int numDeclared;     // methods whose bodies are done
+	// names in scope, by type, innermost last
+	private List<String> ints, bools, intArrays, boolArrays, loopVars;
+	private int numLocals;
+
+	public ProgramGenerator methods(int n) {
+		this.methods = n;
+		return this;
+	}
+
+	public ProgramGenerator depth(int n) {
+		this.depth = n;
+		return this;
+	}
+
+	public ProgramGenerator exprDepth(int n) {
+		this.exprDepth = n;
+		return this;
+	}
+
+	public ProgramGenerator statements(int n) {
+		this.statements = n;
+		return this;
+	}
+
+	public ProgramGenerator globals(int n) {
+		this.globals = n;
+		return this;
+	}
+
+	public ProgramGenerator arrays(int n) {
+		this.arrays = n;
+		return this;
+	}
+
+	public ProgramGenerator arraySize(int n) {
+		this.arraySize = Math.max(1, n);
+		return this;
+	}
+
+	public ProgramGenerator calls(int percent) {
+		this.calls = percent;
+		return this;
+	}
+
+	public ProgramGenerator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * The program, as source text.
+	 */
+	public String generate() {
+		random = new Random(seed);
+		out = new StringBuilder();
+		returnTypes = new int[methods];
+		paramTypes = new int[methods][];
+		numDeclared = 0;
+		ints = new ArrayList<String>();
+		bools = new ArrayList<String>();
+		intArrays = new ArrayList<String>();
+		boolArrays = new ArrayList<String>();
+		loopVars = new ArrayList<String>();
+
+		out.append("class Program {\n");
+		for (int i=0; i<globals; i++) {
+			boolean isInt = i % 2 == 0;
+			out.append(isInt ? "  int g" : "  boolean g").append(i).append(";\n");
+			(isInt ? ints : bools).add("g" + i);
+		}
+		for (int i=0; i<arrays; i++) {
+			boolean isInt = i % 2 == 0;
+			out.append(isInt ? "  int a" : "  boolean a").append(i)
+				.append('[').append(arraySize).append("];\n");
+			(isInt ? intArrays : boolArrays).add("a" + i);
+		}
+		for (int m=0; m<methods; m++)
+			method(m);
+		mainMethod();
+		out.append("}\n");
+		return out.toString();
+	}
+
+	private void method(int m) {
+		int returnType = pick(Ir.VOID, Ir.INT, Ir.BOOL);
+		int[] params = new int[random.nextInt(4)];
+		for (int i=0; i<params.length; i++)
+			params[i] = pick(Ir.INT, Ir.BOOL);
+		out.append("  ").append(typeName(returnType)).append(" m").append(m).append('(');
+		int outerInts = ints.size(), outerBools = bools.size();
+		for (int i=0; i<params.length; i++) {
+			if (i > 0)
+				out.append(", ");
+			out.append(typeName(params[i])).append(" p").append(i);
+			(params[i] == Ir.INT ? ints : bools).add("p" + i);
+		}
+		out.append(") ");
+		numLocals = 0;
+		// the method can't call itself; declare it once its body is done
+		block(1, returnType);
+		out.append('\n');
+		returnTypes[m] = returnType;
+		paramTypes[m] = params;
+		numDeclared++;
+		truncate(ints, outerInts);
+		truncate(bools, outerBools);
+	}
+
+	private void mainMethod() {
+		out.append("  void main() {\n");
+		for (int m=Math.max(0, methods - 4); m<methods; m++) {
+			indent(1);
+			if (returnTypes[m] == Ir.INT) {
+				out.append("callout(\"printf\", \"%d\\n\", ");
+				call(m, 0);
+				out.append(");\n");
+			} else {
+				call(m, 0);
+				out.append(";\n");
+			}
+		}
+		out.append("  }\n");
+	}
+
+	/**
+	 * A block at the given nesting level, which in a method returning
+	 * returnType ends with a return if it is the method's body.
+	 */
+	private void block(int level, int returnType) {
+		int outerInts = ints.size(), outerBools = bools.size();
+		out.append("{\n");
+		int numInts = 1 + random.nextInt(3), numBools = random.nextInt(3);
+		declare(level, "int", numInts, ints);
+		declare(level, "boolean", numBools, bools);
+		for (int i=0; i<statements; i++)
+			statement(level);
+		if (level == 1 && returnType != Ir.VOID) {
+			indent(level);
+			out.append("return ");
+			expression(returnType, exprDepth);
+			out.append(";\n");
+		}
+		indent(level - 1);
+		out.append("}");
+		truncate(ints, outerInts);
+		truncate(bools, outerBools);
+	}
+
+	private void declare(int level, String type, int n, List<String> names) {
+		if (n == 0)
+			return;
+		indent(level);
+		out.append(type);
+		for (int i=0; i<n; i++) {
+			String name = "v" + numLocals++;
+			out.append(i == 0 ? " " : ", ").append(name);
+			names.add(name);
+		}
+		out.append(";\n");
+	}
+
+	private void statement(int level) {
+		indent(level);
+		int kind = random.nextInt(100);
+		int m = kind < calls ? callable(-1) : -1;
+		if (m >= 0) {
+			call(m, exprDepth - 1);
+			out.append(";\n");
+		} else if (level <= depth && kind < 25) {
+			out.append("if (");
+			expression(Ir.BOOL, exprDepth);
+			out.append(") ");
+			block(level + 1, Ir.VOID);
+			if (random.nextBoolean()) {
+				out.append(" else ");
+				block(level + 1, Ir.VOID);
+			}
+			out.append('\n');
+		} else if (level <= depth && kind < 40) {
+			String var = "l" + loopVars.size();
+			out.append("for (").append(var).append(" = 0; ")
+				.append(1 + random.nextInt(10)).append(") ");
+			loopVars.add(var);
+			block(level + 1, Ir.VOID);
+			loopVars.remove(loopVars.size() - 1);
+			out.append('\n');
+		} else if (!loopVars.isEmpty() && kind < 43) {
+			out.append(random.nextBoolean() ? "break;\n" : "continue;\n");
+		} else if (kind < 60 && !ints.isEmpty()) {
+			location(Ir.INT);
+			out.append(random.nextBoolean() ? " += " : " -= ");
+			expression(Ir.INT, exprDepth);
+			out.append(";\n");
+		} else {
+			boolean canBool = !bools.isEmpty() || !boolArrays.isEmpty();
+			int type = canBool ? pick(Ir.INT, Ir.BOOL) : Ir.INT;
+			location(type);
+			out.append(" = ");
+			expression(type, exprDepth);
+			out.append(";\n");
+		}
+	}
+
+	/**
+	 * A variable or array element of the given type that can be
+	 * assigned to.  Loop variables are read but never written.
+	 */
+	private void location(int type) {
+		List<String> vars = type == Ir.INT ? ints : bools;
+		List<String> arrs = type == Ir.INT ? intArrays : boolArrays;
+		if (!arrs.isEmpty() && (vars.isEmpty() || random.nextInt(4) == 0)) {
+			out.append(choose(arrs)).append('[');
+			index();
+			out.append(']');
+		} else {
+			// statement() only asks for a type there is somewhere to
+			// put, and there is always an int local
+			out.append(choose(vars));
+		}
+	}
+
+	/**
+	 * An index that is in bounds: the loop variable, wrapped, or a
+	 * literal.
+	 */
+	private void index() {
+		if (!loopVars.isEmpty() && random.nextBoolean())
+			out.append(choose(loopVars)).append(" % ").append(arraySize);
+		else
+			out.append(random.nextInt(arraySize));
+	}
+
+	private void expression(int type, int d) {
+		if (d <= 0 || random.nextInt(10) < 3) {
+			leaf(type, d);
+			return;
+		}
+		if (type == Ir.INT) {
+			switch (random.nextInt(6)) {
+			case 0:
+				out.append('-');
+				expression(Ir.INT, d - 1);
+				break;
+			case 1:
+				out.append('(');
+				expression(Ir.INT, d - 1);
+				out.append(random.nextBoolean() ? " / " : " % ").append(1 + random.nextInt(9));
+				out.append(')');
+				break;
+			default:
+				out.append('(');
+				expression(Ir.INT, d - 1);
+				out.append(' ').append(choose("+", "-", "*")).append(' ');
+				expression(Ir.INT, d - 1);
+				out.append(')');
+			}
+		} else {
+			switch (random.nextInt(5)) {
+			case 0:
+				out.append('!');
+				expression(Ir.BOOL, d - 1);
+				break;
+			case 1:
+				out.append('(');
+				expression(Ir.INT, d - 1);
+				out.append(' ').append(choose("<", "<=", ">", ">=", "==", "!=")).append(' ');
+				expression(Ir.INT, d - 1);
+				out.append(')');
+				break;
+			default:
+				out.append('(');
+				expression(Ir.BOOL, d - 1);
+				out.append(' ').append(choose("&&", "||", "==", "!=")).append(' ');
+				expression(Ir.BOOL, d - 1);
+				out.append(')');
+			}
+		}
+	}
+
+	/**
+	 * A leaf, or a call whose arguments are at most d - 1 deep.
+	 */
+	private void leaf(int type, int d) {
+		int kind = random.nextInt(100);
+		int m = kind < calls && d > 0 ? callable(type) : -1;
+		List<String> vars = type == Ir.INT ? ints : bools;
+		List<String> arrs = type == Ir.INT ? intArrays : boolArrays;
+		if (m >= 0) {
+			call(m, d - 1);
+		} else if (kind < 40 && !vars.isEmpty()) {
+			out.append(choose(vars));
+		} else if (kind < 50 && type == Ir.INT && !loopVars.isEmpty()) {
+			out.append(choose(loopVars));
+		} else if (kind < 60 && !arrs.isEmpty()) {
+			out.append(choose(arrs)).append('[');
+			index();
+			out.append(']');
+		} else if (type == Ir.INT) {
+			out.append(random.nextInt(1000));
+		} else {
+			out.append(random.nextBoolean() ? "true" : "false");
+		}
+	}
+
+	/**
+	 * A method declared so far that returns type (any type for -1),
+	 * chosen at random, or -1 if there is none.
+	 */
+	private int callable(int type) {
+		if (numDeclared == 0)
+			return -1;
+		// a few tries keeps this cheap; near misses fall back to a leaf
+		for (int tries=0; tries<4; tries++) {
+			int m = random.nextInt(numDeclared);
+			if (type < 0 || returnTypes[m] == type)
+				return m;
+		}
+		return -1;
+	}
+
+	private void call(int m, int d) {
+		out.append('m').append(m).append('(');
+		for (int i=0; i<paramTypes[m].length; i++) {
+			if (i > 0)
+				out.append(", ");
+			expression(paramTypes[m][i], d);
+		}
+		out.append(')');
+	}
+
+	private int pick(int... choices) {
+		return choices[random.nextInt(choices.length)];
+	}
+
+	private String choose(String... choices) {
+		return choices[random.nextInt(choices.length)];
+	}
+
+	private String choose(List<String> choices) {
+		return choices.get(random.nextInt(choices.size()));
+	}
+
+	private static void truncate(List<String> names, int size) {
+		while (names.size() > size)
+			names.remove(names.size() - 1);
+	}
+
+	// methods are at level 0, inside the class's braces
+	private void indent(int level) {
+		for (int i=0; i<=level; i++)
+			out.append("  ");
+	}
+
+	private static String typeName(int type) {
+		return type == Ir.INT ? "int" : type == Ir.BOOL ? "boolean" : "void";
+	}
+
+	public static void main(String[] args) throws IOException {
+		ProgramGenerator gen = new ProgramGenerator();
+		String outfile = null;
+		for (int i=0; i<args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("-o") && i + 1 < args.length) {
+				outfile = args[++i];
+				continue;
+			}
+			if (i + 1 >= args.length) {
+				System.err.println("usage: ProgramGenerator [-methods n] [-depth n] " +
+						"[-expr-depth n] [-statements n] [-globals n] [-arrays n] " +
+						"[-array-size n] [-calls percent] [-seed n] [-o file]");
+				System.exit(1);
+			}
+			long n = Long.parseLong(args[++i]);
+			if (arg.equals("-methods"))
+				gen.methods((int) n);
+			else if (arg.equals("-depth"))
+				gen.depth((int) n);
+			else if (arg.equals("-expr-depth"))
+				gen.exprDepth((int) n);
+			else if (arg.equals("-statements"))
+				gen.statements((int) n);
+			else if (arg.equals("-globals"))
+				gen.globals((int) n);
+			else if (arg.equals("-arrays"))
+				gen.arrays((int) n);
+			else if (arg.equals("-array-size"))
+				gen.arraySize((int) n);
+			else if (arg.equals("-calls"))
+				gen.calls((int) n);
+			else if (arg.equals("-seed"))
+				gen.seed(n);
+			else
+				System.err.println("ProgramGenerator: ignoring " + arg);
+		}
+		String program = gen.generate();
+		if (outfile == null) {
+			System.out.print(program);
+		} else {
+			Writer w = new FileWriter(outfile);
+			try {
+				w.write(program);
+			} finally {
+				w.close();
+			}
+		}
+	}
+}
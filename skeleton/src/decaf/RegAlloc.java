@@ -0,0 +1,497 @@
+package decaf;
+
+import java.util.Arrays;
+
+/**
+ * Assigns each register of a Cfg a machine register, or a frame slot if
+ * it must be spilled.  The result is indexed by Cfg register and holds
+ * an index into REG64/REG32, SPILLED, or UNUSED for a register no
+ * instruction mentions.
+ *
+ * Ten registers are handed out.  The caller-saved ones come first, and
+ * a call clobbers them, so anything live across a call is given one of
+ * the callee-saved ones (which the method saves itself) or spilled.
+ * %rax, %rdx, %r10 and %r11 are kept back for AsmGen's own use.  Spill
+ * costs count each use and definition 10^d times, d being the depth of
+ * loops it sits in.
+ *
+ * Two allocators share the analysis here: LinearScan, the default, and
+ * GraphColoring, under -opt regalloc.
+ */
+abstract class RegAlloc
+{
+	static final int SPILLED = -1;
+	static final int UNUSED = -2;
+
+	static final String[] REG64 = {"%rcx", "%rsi", "%rdi", "%r8", "%r9",
+		"%rbx", "%r12", "%r13", "%r14", "%r15"};
+	static final String[] REG32 = {"%ecx", "%esi", "%edi", "%r8d", "%r9d",
+		"%ebx", "%r12d", "%r13d", "%r14d", "%r15d"};
+	static final int CALLEE_SAVED = 5; // index of the first callee-saved one
+	static final int NUM_REGS = REG64.length;
+	private static final int MAX_DEPTH = 6; // deeper loops weigh no more
+
+	protected final Cfg cfg;
+	protected final int numRegs;
+	protected final int words;      // longs per set of registers
+	protected final int[] start;     // position of each block's first instruction
+	protected final long[][] liveIn; // per block
+	protected final long[][] liveOut;
+	protected final double[] cost;   // of spilling each register
+	protected final boolean[] crossesCall;
+	protected final int[] where;
+
+	protected RegAlloc(Cfg cfg) {
+		this.cfg = cfg;
+		this.numRegs = cfg.numRegs();
+		this.words = (numRegs + 63) >>> 6;
+		int n = cfg.numBlocks();
+		this.start = new int[n + 1];
+		for (int id=0; id<n; id++)
+			start[id + 1] = start[id] + cfg.block(id).size();
+		this.liveIn = new long[n][words];
+		this.liveOut = new long[n][words];
+		this.cost = new double[numRegs];
+		this.crossesCall = new boolean[numRegs];
+		this.where = new int[numRegs];
+		Arrays.fill(where, UNUSED);
+	}
+
+	/**
+	 * Allocates cfg's registers, by graph coloring if coloring is set
+	 * and by linear scan if not.
+	 */
+	static int[] allocate(Cfg cfg, boolean coloring) {
+		RegAlloc a = coloring ? new GraphColoring(cfg) : new LinearScan(cfg);
+		a.computeCosts();
+		a.computeLiveness();
+		a.walk();
+		a.assign();
+		return a.where;
+	}
+
+	/**
+	 * How many registers in a result of allocate() were spilled.
+	 */
+	static int numSpilled(int[] where) {
+		int n = 0;
+		for (int w : where) {
+			if (w == SPILLED)
+				n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Called for each instruction i of b, at position pos, from the
+	 * last to the first, with live holding what is live after it.
+	 */
+	protected abstract void instruction(BasicBlock b, int i, int pos, long[] live);
+
+	/**
+	 * Fills in where.
+	 */
+	protected abstract void assign();
+
+	/**
+	 * Weighs every use and definition by the depth of its block in
+	 * the loop nest, and marks the registers that appear at all.
+	 */
+	private void computeCosts() {
+		int[] depth = loopDepths();
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			double weight = Math.pow(10, Math.min(depth[id], MAX_DEPTH));
+			for (int i=0; i<b.size(); i++) {
+				if (b.dst(i) != LirOp.NONE) {
+					cost[b.dst(i)] += weight;
+					where[b.dst(i)] = SPILLED;
+				}
+				for (int k=0; k<b.numUses(i); k++) {
+					cost[b.use(i, k)] += weight;
+					where[b.use(i, k)] = SPILLED;
+				}
+			}
+		}
+	}
+
+	/**
+	 * How many loops each block is in.  A loop is the natural loop of
+	 * the edges back to a header found by a depth-first search, which
+	 * finds them all in the reducible graphs CodeGen builds.
+	 */
+	private int[] loopDepths() {
+		int n = cfg.numBlocks();
+		int[] depth = new int[n];
+		boolean[] header = new boolean[n];
+		long[][] bodies = new long[n][];
+		// iterative DFS; state 1 is on the stack, 2 is done
+		byte[] state = new byte[n];
+		int[] stack = new int[n];
+		int[] next = new int[n]; // successor to try next
+		int top = 0;
+		stack[top++] = 0;
+		state[0] = 1;
+		int blockWords = (n + 63) >>> 6;
+		while (top > 0) {
+			int b = stack[top - 1];
+			BasicBlock block = cfg.block(b);
+			if (next[b] == block.numSuccs()) {
+				state[b] = 2;
+				top--;
+				continue;
+			}
+			int s = block.succ(next[b]++);
+			if (state[s] == 0) {
+				state[s] = 1;
+				stack[top++] = s;
+			}
+			else if (state[s] == 1) { // b -> s goes back to a header
+				if (bodies[s] == null) {
+					bodies[s] = new long[blockWords];
+					Bits.add(bodies[s], s);
+				}
+				header[s] = true;
+				addLoopBody(bodies[s], b);
+			}
+		}
+		for (int h=0; h<n; h++) {
+			if (!header[h])
+				continue;
+			for (int b=0; b<n; b++) {
+				if (Bits.has(bodies[h], b))
+					depth[b]++;
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Adds tail, and everything that reaches it without passing the
+	 * header already in body, to body.
+	 */
+	private void addLoopBody(long[] body, int tail) {
+		if (Bits.has(body, tail))
+			return;
+		int[] work = new int[cfg.numBlocks()];
+		int top = 0;
+		Bits.add(body, tail);
+		work[top++] = tail;
+		while (top > 0) {
+			BasicBlock b = cfg.block(work[--top]);
+			for (int k=0; k<b.numPreds(); k++) {
+				int p = b.pred(k);
+				if (!Bits.has(body, p)) {
+					Bits.add(body, p);
+					work[top++] = p;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Solves live variables over the blocks, backwards, until nothing
+	 * changes.
+	 */
+	private void computeLiveness() {
+		int n = cfg.numBlocks();
+		long[][] use = new long[n][words];
+		long[][] def = new long[n][words];
+		for (int id=0; id<n; id++) {
+			BasicBlock b = cfg.block(id);
+			for (int i=b.size()-1; i>=0; i--) {
+				if (b.dst(i) != LirOp.NONE) {
+					Bits.add(def[id], b.dst(i));
+					Bits.remove(use[id], b.dst(i));
+				}
+				for (int k=0; k<b.numUses(i); k++)
+					Bits.add(use[id], b.use(i, k));
+			}
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int id=n-1; id>=0; id--) {
+				BasicBlock b = cfg.block(id);
+				long[] out = liveOut[id];
+				long[] in = liveIn[id];
+				for (int k=0; k<b.numSuccs(); k++) {
+					long[] s = liveIn[b.succ(k)];
+					for (int w=0; w<words; w++)
+						out[w] |= s[w];
+				}
+				for (int w=0; w<words; w++) {
+					long x = use[id][w] | (out[w] & ~def[id][w]);
+					if (x != in[w]) {
+						in[w] = x;
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Walks each block backwards from what is live out of it, marking
+	 * what lives across calls and handing each instruction to
+	 * instruction().
+	 */
+	private void walk() {
+		long[] live = new long[words];
+		for (int id=0; id<cfg.numBlocks(); id++) {
+			BasicBlock b = cfg.block(id);
+			System.arraycopy(liveOut[id], 0, live, 0, words);
+			for (int i=b.size()-1; i>=0; i--) {
+				int dst = b.dst(i);
+				if (LirOp.isCall(b.op(i))) {
+					for (int w=0; w<words; w++) {
+						for (long bits = live[w]; bits != 0; bits &= bits - 1) {
+							int r = (w << 6) + Long.numberOfTrailingZeros(bits);
+							if (r != dst)
+								crossesCall[r] = true;
+						}
+					}
+				}
+				instruction(b, i, start[id] + i, live);
+				if (dst != LirOp.NONE)
+					Bits.remove(live, dst);
+				for (int k=0; k<b.numUses(i); k++)
+					Bits.add(live, b.use(i, k));
+			}
+		}
+	}
+
+	/**
+	 * What is defined on entry: the parameters, which AsmGen copies
+	 * into place whether or not they are read, and anything else live.
+	 */
+	protected long[] definedOnEntry() {
+		long[] entry = liveIn[0].clone();
+		for (int r=0; r<cfg.numParams(); r++) {
+			if (where[r] != UNUSED)
+				Bits.add(entry, r);
+		}
+		return entry;
+	}
+
+	/**
+	 * The first free register r may have, preferring ones a call
+	 * clobbers when r is not live across one, or -1 if none is free.
+	 */
+	protected int pick(int r, boolean[] taken) {
+		for (int m = crossesCall[r] ? CALLEE_SAVED : 0; m<NUM_REGS; m++) {
+			if (!taken[m])
+				return m;
+		}
+		return -1;
+	}
+}
+
+/**
+ * Poletto and Sarkar's linear scan.  Each register's live range is
+ * taken as one interval over the instructions in block order; the
+ * intervals are visited by start, and when none of the registers an
+ * interval may have is free, the cheapest of it and the intervals
+ * holding those registers is spilled.
+ */
+final class LinearScan extends RegAlloc
+{
+	private final int[] first; // positions where each register is live
+	private final int[] last;
+
+	LinearScan(Cfg cfg) {
+		super(cfg);
+		this.first = new int[numRegs];
+		this.last = new int[numRegs];
+		Arrays.fill(first, Integer.MAX_VALUE);
+		Arrays.fill(last, -1);
+	}
+
+	private void extend(int r, int pos) {
+		if (pos < first[r])
+			first[r] = pos;
+		if (pos > last[r])
+			last[r] = pos;
+	}
+
+	@Override
+	protected void instruction(BasicBlock b, int i, int pos, long[] live) {
+		for (int w=0; w<words; w++) {
+			for (long bits = live[w]; bits != 0; bits &= bits - 1)
+				extend((w << 6) + Long.numberOfTrailingZeros(bits), pos);
+		}
+		if (b.dst(i) != LirOp.NONE)
+			extend(b.dst(i), pos);
+		for (int k=0; k<b.numUses(i); k++)
+			extend(b.use(i, k), pos);
+	}
+
+	@Override
+	protected void assign() {
+		long[] entry = definedOnEntry();
+		for (int r=0; r<numRegs; r++) {
+			if (Bits.has(entry, r))
+				extend(r, 0);
+		}
+		// order by start, packing start and register into one long
+		long[] order = new long[numRegs];
+		int n = 0;
+		for (int r=0; r<numRegs; r++) {
+			if (last[r] >= 0)
+				order[n++] = ((long) first[r] << 32) | r;
+		}
+		Arrays.sort(order, 0, n);
+		int[] active = new int[NUM_REGS]; // by increasing last
+		int numActive = 0;
+		boolean[] taken = new boolean[NUM_REGS];
+		for (int j=0; j<n; j++) {
+			int r = (int) order[j];
+			// expire intervals that ended before this one starts
+			int kept = 0;
+			for (int a=0; a<numActive; a++) {
+				if (last[active[a]] < first[r])
+					taken[where[active[a]]] = false;
+				else
+					active[kept++] = active[a];
+			}
+			numActive = kept;
+			int m = pick(r, taken);
+			if (m < 0) {
+				int victim = -1;
+				for (int a=0; a<numActive; a++) {
+					int v = active[a];
+					if (crossesCall[r] && where[v] < CALLEE_SAVED)
+						continue;
+					if (victim < 0 || cost[v] < cost[victim])
+						victim = v;
+				}
+				if (victim < 0 || cost[victim] >= cost[r]) {
+					where[r] = SPILLED;
+					continue;
+				}
+				m = where[victim];
+				where[victim] = SPILLED;
+				int kept2 = 0;
+				for (int a=0; a<numActive; a++) {
+					if (active[a] != victim)
+						active[kept2++] = active[a];
+				}
+				numActive = kept2;
+			}
+			where[r] = m;
+			taken[m] = true;
+			int a = numActive++;
+			while (a > 0 && last[active[a - 1]] > last[r]) {
+				active[a] = active[a - 1];
+				a--;
+			}
+			active[a] = r;
+		}
+	}
+}
+
+/**
+ * Chaitin's graph coloring with Briggs's optimistic spilling.  Nodes of
+ * degree below the number of machine registers are removed first;
+ * when none is left, the one with the lowest cost per neighbor goes
+ * next, in the hope that its neighbors will not use every color.
+ * Colors are then handed out in reverse order of removal, and a node
+ * left with none is spilled.
+ */
+final class GraphColoring extends RegAlloc
+{
+	private final long[][] adjacent;
+
+	GraphColoring(Cfg cfg) {
+		super(cfg);
+		this.adjacent = new long[numRegs][words];
+	}
+
+	private void interfere(int a, int b) {
+		if (a != b) {
+			Bits.add(adjacent[a], b);
+			Bits.add(adjacent[b], a);
+		}
+	}
+
+	@Override
+	protected void instruction(BasicBlock b, int i, int pos, long[] live) {
+		int dst = b.dst(i);
+		if (dst == LirOp.NONE)
+			return;
+		// a copy's source and target may share a register
+		int copied = b.op(i) == LirOp.MOV ? b.a(i) : LirOp.NONE;
+		for (int w=0; w<words; w++) {
+			for (long bits = live[w]; bits != 0; bits &= bits - 1) {
+				int r = (w << 6) + Long.numberOfTrailingZeros(bits);
+				if (r != copied)
+					interfere(dst, r);
+			}
+		}
+	}
+
+	@Override
+	protected void assign() {
+		long[] entry = definedOnEntry();
+		for (int a=0; a<numRegs; a++) {
+			if (!Bits.has(entry, a))
+				continue;
+			for (int b=a+1; b<numRegs; b++) {
+				if (Bits.has(entry, b))
+					interfere(a, b);
+			}
+		}
+		int[] degree = new int[numRegs];
+		boolean[] removed = new boolean[numRegs];
+		int remaining = 0;
+		for (int r=0; r<numRegs; r++) {
+			if (where[r] == UNUSED) {
+				removed[r] = true;
+				continue;
+			}
+			remaining++;
+			for (long word : adjacent[r])
+				degree[r] += Long.bitCount(word);
+		}
+		int[] stack = new int[remaining];
+		int top = 0;
+		while (top < remaining) {
+			int pick = -1;
+			for (int r=0; r<numRegs; r++) {
+				if (!removed[r] && degree[r] < NUM_REGS) {
+					pick = r;
+					break;
+				}
+			}
+			if (pick < 0) {
+				for (int r=0; r<numRegs; r++) {
+					if (!removed[r] && (pick < 0
+							|| cost[r] / degree[r] < cost[pick] / degree[pick]))
+						pick = r;
+				}
+			}
+			removed[pick] = true;
+			stack[top++] = pick;
+			long[] adj = adjacent[pick];
+			for (int w=0; w<words; w++) {
+				for (long bits = adj[w]; bits != 0; bits &= bits - 1)
+					degree[(w << 6) + Long.numberOfTrailingZeros(bits)]--;
+			}
+		}
+		boolean[] taken = new boolean[NUM_REGS];
+		while (top > 0) {
+			int r = stack[--top];
+			Arrays.fill(taken, false);
+			long[] adj = adjacent[r];
+			for (int w=0; w<words; w++) {
+				for (long bits = adj[w]; bits != 0; bits &= bits - 1) {
+					int m = where[(w << 6) + Long.numberOfTrailingZeros(bits)];
+					if (m >= 0)
+						taken[m] = true;
+				}
+			}
+			int m = pick(r, taken);
+			where[r] = m < 0 ? SPILLED : m;
+		}
+	}
+}
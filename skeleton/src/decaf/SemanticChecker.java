@@ -1,23 +1,246 @@
 package decaf;
 //import java.io.*;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class SemanticChecker {
 	
 	private String filename;
 	private SymbolTable syms;
 	private boolean debug;
+	private PrintStream out;
+	private boolean hasMain; // seen a zero-argument main() yet
+	private int numGlobals; // fields bound so far
+	private int numLocals;  // frame slots in use in the current method
+	private int frameSize;  // most frame slots the current method has used
+	private int numMethods; // methods bound so far
+	// with -opt parcheck, the method bodies left to check, in order
+	private List<MethodTask> bodies;
+	// the method this checker checks the body of, if it is one
+	// of a parallel check's; methods declared after it are not visible
+	private int methodIndex = Integer.MAX_VALUE;
 
-	public SemanticChecker(String filename, boolean debug) {
-		this.filename = filename;
-		this.syms  = new SymbolTable();
-		this.debug = debug;
-		if(debug) System.out.println("DEBUGGING");
+	/**
+	 * Dispatches the statements, expressions and variable declarations
+	 * in method bodies to their check methods.
+	 */
+	private final IrVisitor<Void> checker = new IrWalker<Void>() {
+		@Override
+		public Void visitNode(IrNode n) {
+			out.println("checker: this shouldn't happen: " + n);
+			return null;
+		}
+		@Override
+		public Void visitAssignStmt(IrAssignStmt n) {
+			checkAssignStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitPlusAssignStmt(IrPlusAssignStmt n) {
+			checkPlusAssignStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitMinusAssignStmt(IrMinusAssignStmt n) {
+			checkMinusAssignStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitBreakStmt(IrBreakStmt n) {
+			checkBreakStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitIfStmt(IrIfStmt n) {
+			checkIfStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitForStmt(IrForStmt n) {
+			checkForStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitReturnStmt(IrReturnStmt n) {
+			checkReturnStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitContinueStmt(IrContinueStmt n) {
+			checkContinueStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitInvokeStmt(IrInvokeStmt n) {
+			checkInvokeStmt(n);
+			return null;
+		}
+		@Override
+		public Void visitBlock(IrBlock n) {
+			checkBlock(n);
+			return null;
+		}
+		@Override
+		public Void visitVarDecl(IrVarDecl n) {
+			checkVarDecl(n);
+			return null;
+		}
+		@Override
+		public Void visitIntLiteral(IrIntLiteral n) {
+			checkIntLiteral(n);
+			return null;
+		}
+		@Override
+		public Void visitBooleanLiteral(IrBooleanLiteral n) {
+			checkBooleanLiteral(n);
+			return null;
+		}
+		@Override
+		public Void visitCharLiteral(IrCharLiteral n) {
+			checkCharLiteral(n);
+			return null;
+		}
+		@Override
+		public Void visitStringLiteral(IrStringLiteral n) {
+			checkStringLiteral(n);
+			return null;
+		}
+		@Override
+		public Void visitMethodCallExpr(IrMethodCallExpr n) {
+			checkMethodCallExpr(n);
+			return null;
+		}
+		@Override
+		public Void visitCalloutExpr(IrCalloutExpr n) {
+			checkCalloutExpr(n);
+			return null;
+		}
+		@Override
+		public Void visitBinopExpr(IrBinopExpr n) {
+			checkBinopExpr(n);
+			return null;
+		}
+		@Override
+		public Void visitNotExpr(IrNotExpr n) {
+			checkNotExpr(n);
+			return null;
+		}
+		@Override
+		public Void visitNegativeExpr(IrNegativeExpr n) {
+			checkNegativeExpr(n);
+			return null;
+		}
+		@Override
+		public Void visitLocationExpr(IrLocationExpr n) {
+			checkLocationExpr(n);
+			return null;
+		}
+	};
+
+	public SemanticChecker(CompilationContext ctx) {
+		this.filename = ctx.infile;
+		this.debug = ctx.debug;
+		this.syms  = new SymbolTable(debug);
+		this.out = ctx.out;
+		if(debug) out.println("DEBUGGING");
+		// debugging output shows the whole symbol table as it goes,
+		// which only makes sense checking in order
+		if (ctx.isEnabled(Main.PARCHECK) && !debug)
+			this.bodies = new ArrayList<MethodTask>();
+	}
+	
+	/**
+	 * A checker for one method body of parent's program.  Its scopes
+	 * extend parent's global scope; a MethodTask points its out at a
+	 * per-thread buffer while it runs.
+	 */
+	private SemanticChecker(SemanticChecker parent, int methodIndex) {
+		this.filename = parent.filename;
+		this.debug = parent.debug;
+		this.syms = new SymbolTable(parent.syms);
+		this.methodIndex = methodIndex;
+	}
+	
+	private static final byte[] NO_MESSAGES = new byte[0];
+	
+	/**
+	 * A stream that collects what a thread prints until take() is called.
+	 * A PrintStream is kilobytes of encoder buffers, too many to make
+	 * one per method, so each thread reuses one.
+	 */
+	private static class MessageStream extends PrintStream {
+		public MessageStream() {
+			super(new ByteArrayOutputStream());
+		}
+		
+		public byte[] take() {
+			flush();
+			ByteArrayOutputStream buf = (ByteArrayOutputStream) out;
+			if (buf.size() == 0)
+				return NO_MESSAGES;
+			byte[] bytes = buf.toByteArray();
+			buf.reset();
+			return bytes;
+		}
+	}
+	
+	private static final ThreadLocal<MessageStream> messageStream = 
+		new ThreadLocal<MessageStream>() {
+			@Override
+			protected MessageStream initialValue() {
+				return new MessageStream();
+			}
+		};
+	
+	/**
+	 * Checks one method's parameters and body on its own checker,
+	 * holding what it prints until it can be printed in order.
+	 */
+	private class MethodTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final IrMethodDecl method;
+		private final SemanticChecker checker;
+		private byte[] messages = NO_MESSAGES;
+		private boolean declared; // false if the name was taken
+		
+		public MethodTask(IrMethodDecl method) {
+			this.method = method;
+			this.checker = new SemanticChecker(SemanticChecker.this, numMethods);
+		}
+		
+		public void declare() {
+			MessageStream stream = messageStream.get();
+			checker.out = stream;
+			declared = checker.declareMethod(method);
+			messages = stream.take();
+		}
+		
+		@Override
+		protected void compute() {
+			MessageStream stream = messageStream.get();
+			checker.out = stream;
+			checker.checkMethodBody(method);
+			byte[] more = stream.take();
+			if (messages.length == 0) {
+				messages = more;
+			} else if (more.length > 0) {
+				byte[] all = Arrays.copyOf(messages, messages.length + more.length);
+				System.arraycopy(more, 0, all, messages.length, more.length);
+				messages = all;
+			}
+			checker.out = null;
+			checker.syms = null; // done with the method's scopes
+		}
 	}
 	
 	public void printIr(IrNode root) {
-    	System.out.println("============ IR TREE ==========================");
+    	out.println("============ IR TREE ==========================");
     	printIrR(root, 0);
     }
     
@@ -26,61 +249,98 @@ public class SemanticChecker {
 		for (int i=0; i<level; i++) {
 			indent += "  ";
 		}
-		System.out.println(indent + node);
+		out.println(indent + node);
     	for (int i=0; i<node.numChildren(); i++)
     		printIrR(node.child(i), level+1);
     }
     
 	private void put(IrFieldDecl fd) {
+		SymbolTableEntry entry;
 		switch (fd.getType()) {
 		case Ir.INT:
-			syms.put(fd.getId(), new IntEntry());
+			entry = new IntEntry();
 			break;
 		case Ir.BOOL:
-			syms.put(fd.getId(), new BoolEntry());
+			entry = new BoolEntry();
 			break;
 		case Ir.INTARRAY:
-			syms.put(fd.getId(), new IntArrayEntry(((IrArrayFieldDecl) fd).getSize()));
+			entry = new IntArrayEntry(((IrArrayFieldDecl) fd).getSize());
 			break;
 		case Ir.BOOLARRAY:
-			syms.put(fd.getId(), new BoolArrayEntry(((IrArrayFieldDecl) fd).getSize()));
+			entry = new BoolArrayEntry(((IrArrayFieldDecl) fd).getSize());
 			break;
 		default:
-			System.out.println("put FieldDecl: this shouldn't happen");
+			out.println("put FieldDecl: this shouldn't happen");
+			return;
 		}
-		if (debug) syms.print();
+		entry.bind(fd, fd.getId(), SymbolTableEntry.GLOBAL, numGlobals++);
+		syms.put(fd.getId(), entry);
+		if (debug) syms.print(out);
     }
     
 	private void put(IrVarDecl vd) {
-		switch (vd.getVarType().getTypeCode()) {
-		case Ir.INT:
-			syms.put(vd.getVarId(), new IntEntry());
-			break;
-		case Ir.BOOL:
-			syms.put(vd.getVarId(), new BoolEntry());
-			break;
-		default:
-			System.out.println("put VarDecl: this shouldn't happen");
+		SymbolTableEntry entry = newScalar(vd.getVarType().getTypeCode());
+		if (entry == null) {
+			out.println("put VarDecl: this shouldn't happen");
+			return;
 		}
-		if (debug) syms.print();
+		entry.bind(vd, vd.getVarId(), SymbolTableEntry.LOCAL, newLocalSlot());
+		vd.setBinding(entry);
+		syms.put(vd.getVarId(), entry);
+		if (debug) syms.print(out);
     }
 	
-	private void put(IrMethodArg a) {
-		switch (a.getArgType().getTypeCode()) {
+	private void put(IrMethodArg a, int index) {
+		SymbolTableEntry entry = newScalar(a.getArgType().getTypeCode());
+		if (entry == null) {
+			out.println("put MethodArg: this shouldn't happen");
+			return;
+		}
+		entry.bind(a, a.getArgId(), SymbolTableEntry.PARAM, index);
+		syms.put(a.getArgId(), entry);
+		if (debug) syms.print(out);
+    }
+	
+	private SymbolTableEntry newScalar(int type) {
+		switch (type) {
 		case Ir.INT:
-			syms.put(a.getArgId(), new IntEntry());
-			break;
+			return new IntEntry();
 		case Ir.BOOL:
-			syms.put(a.getArgId(), new BoolEntry());
-			break;
+			return new BoolEntry();
 		default:
-			System.out.println("put MethodArg: this shouldn't happen");
+			return null;
 		}
-		if (debug) syms.print();
-    }
+	}
+	
+	/**
+	 * Takes the next free frame slot of the method being checked.
+	 * Slots are handed back when the scope that took them ends (see
+	 * checkBlock and checkForStmt), so disjoint scopes share them.
+	 */
+	private int newLocalSlot() {
+		int slot = numLocals++;
+		if (numLocals > frameSize)
+			frameSize = numLocals;
+		return slot;
+	}
+	
+	/**
+	 * Looks id up as it stands at this point of the program.  When
+	 * bodies are checked in parallel the global scope already holds
+	 * every method, so those declared after the one being checked are
+	 * left out here.
+	 */
+	private SymbolTableEntry lookup(IrId id) {
+		SymbolTableEntry entry = syms.lookup(id);
+		if (entry instanceof MethodEntry && entry.getSlot() > methodIndex)
+			return null;
+		return entry;
+	}
 	
 	private void putGlobal(IrMethodDecl m, MethodSignature sig) {
-		syms.putGlobal(m.getId(), new MethodEntry(sig));
+		MethodEntry entry = new MethodEntry(sig);
+		entry.bind(m, m.getId(), SymbolTableEntry.GLOBAL, numMethods++);
+		syms.putGlobal(m.getId(), entry);
 	}
 	
 //    private void put(Token t, int retType, List<IrType> args) {
@@ -88,7 +348,7 @@ public class SemanticChecker {
 //        IrType rt = tkToIrType(retType);
 //        MethodSignature sig = new MethodSignature(rt, args);
 //        syms.put(id, new MethodEntry(sig));
-//        if (debug) syms.print();
+//        if (debug) syms.print(out);
 //    }
 //    
 //    private void put(List<IrType> argTypes, List<IrId> argIds) {
@@ -103,46 +363,67 @@ public class SemanticChecker {
 //    }
 	
 	public void checkProgram(IrClassDecl classDecl) {
-		syms.beginScope();
+		beginProgram();
 		int numChildren = classDecl.numChildren();
-		boolean hasMain = false;
 		if (debug)
-			System.out.println(classDecl.getLineNum() + ":" + 
+			out.println(classDecl.getLineNum() + ":" + 
 				classDecl + ", numChildren: " + numChildren);
 		// check field decls, method decls
 		for (int i=0; i<numChildren; i++) {
-			IrNode n = classDecl.child(i);
-			if (n instanceof IrFieldDecl) {
-				checkFieldDecl((IrFieldDecl) n);
-			} else if (n instanceof IrMethodDecl) {
-				checkMethodDecl((IrMethodDecl) n);
-				// check for 0-argument main method
-				if (((IrMethodDecl) n).getId().toString().equals("main")
-						&& n.numChildren() == 1) {
-					hasMain = true;
-				}
-			} else {
-				System.out.println("checkProgram: this shouldn't happen");
-			}
-			if (n.getType() == Ir.ERROR) {
-				classDecl.setType(Ir.ERROR);
+			checkMember(classDecl, classDecl.child(i));
+		}
+		endProgram(classDecl);
+	}
+	
+	/*
+	 * checkProgram() in pieces, for a parser that checks each member
+	 * as soon as it has parsed it: beginProgram() first, then
+	 * checkMember() for each field and method in order, then
+	 * endProgram() once the class is complete.
+	 */
+	
+	void beginProgram() {
+		syms.beginScope();
+		hasMain = false;
+	}
+	
+	void checkMember(IrClassDecl classDecl, IrNode n) {
+		if (n instanceof IrFieldDecl) {
+			checkFieldDecl((IrFieldDecl) n);
+		} else if (n instanceof IrMethodDecl) {
+			checkMethodDecl((IrMethodDecl) n);
+			// check for 0-argument main method
+			if (((IrMethodDecl) n).getId().toString().equals("main")
+					&& n.numChildren() == 1) {
+				hasMain = true;
 			}
+		} else {
+			out.println("checkProgram: this shouldn't happen");
+		}
+		if (n.getType() == Ir.ERROR) {
+			classDecl.setType(Ir.ERROR);
+		}
+	}
+	
+	void endProgram(IrClassDecl classDecl) {
+		if (bodies != null) {
+			checkBodies(classDecl);
 		}
 		if (!hasMain) {
 			error(classDecl, "no zero-argument main() method defined");
 		}
 		if (classDecl.getType() == Ir.ERROR) {
-			System.out.println("FAIL: compilation failed due to one or more semantic errors");
+			out.println("FAIL: compilation failed due to one or more semantic errors");
 		}
 		syms.endScope();
-		if (debug) syms.print();
+		if (debug) syms.print(out);
 		if (debug) printIr(classDecl);
 	}
 	
 	private void checkFieldDecl(IrFieldDecl fieldDecl) {
 		// leaf
 		if (debug)
-			System.out.println(fieldDecl.getLineNum() + ":" + fieldDecl);
+			out.println(fieldDecl.getLineNum() + ":" + fieldDecl);
 		if (fieldDecl instanceof IrArrayFieldDecl) {
 			// check size is positive
 			int size = ((IrArrayFieldDecl) fieldDecl).getSize();
@@ -166,7 +447,7 @@ public class SemanticChecker {
 				fieldDecl.setType(Ir.BOOLARRAY);
 				break;
 			default:
-				System.out.println("checkFieldDecl: this shouldn't happen");
+				out.println("checkFieldDecl: this shouldn't happen");
 			}
 		}
 		else {
@@ -176,19 +457,50 @@ public class SemanticChecker {
 	}
 	
 	private void checkMethodDecl(IrMethodDecl methodDecl) {
-		int numChildren = methodDecl.numChildren();
-		int numArgs = numChildren - 1;
+		if (bodies != null) {
+			// declare the method now, in order, and leave its body
+			// for endProgram() to check alongside the others
+			MethodTask task = new MethodTask(methodDecl);
+			task.declare();
+			if (task.declared) {
+				putGlobal(methodDecl, signature(methodDecl));
+			}
+			bodies.add(task);
+			return;
+		}
+		if (!declareMethod(methodDecl)) {
+			return;
+		}
+		checkMethodArgs(methodDecl);
+		putGlobal(methodDecl, signature(methodDecl));
+		checkBlock((IrBlock) methodDecl.child(methodDecl.numChildren() - 1));
+		endMethod(methodDecl);
+	}
+	
+	/**
+	 * Checks that methodDecl's name is new.  Returns false if it is not.
+	 */
+	private boolean declareMethod(IrMethodDecl methodDecl) {
 		if (debug)
-			System.out.println(methodDecl.getLineNum() + ":" + 
-				methodDecl + ", numArgs: " + numArgs);
+			out.println(methodDecl.getLineNum() + ":" + 
+				methodDecl + ", numArgs: " + (methodDecl.numChildren() - 1));
 		if (syms.isInScope(methodDecl.getId())) {
 			error(methodDecl, "redeclaration of method `" + 
 						methodDecl.getId() + "`");
-			return;
+			return false;
 		}
+		return true;
+	}
+	
+	/**
+	 * Opens methodDecl's scope and binds its parameters.
+	 */
+	private void checkMethodArgs(IrMethodDecl methodDecl) {
+		int numArgs = methodDecl.numChildren() - 1;
 		syms.beginScope();
+		numLocals = 0;
+		frameSize = 0;
 		// check args
-		List<IrType> argTypes = new ArrayList();
 		int aType;
 		IrId aId;
 		for (int i=0; i<numArgs; i++) {
@@ -200,49 +512,94 @@ public class SemanticChecker {
 				error(methodDecl, "duplicate parameter identifier `" + 
 							aId + "`");
 			}
-			put(arg);
+			put(arg, i);
 			arg.setType(aType);
-			argTypes.add(new IrType(aType));
 		}
-		IrType rType = methodDecl.getReturnType();
-		MethodSignature sig = new MethodSignature(rType, argTypes);
-		putGlobal(methodDecl, sig);
-		// check block
-		IrBlock b = (IrBlock) methodDecl.child(numChildren - 1);
-		checkBlock(b);
+	}
+	
+	private MethodSignature signature(IrMethodDecl methodDecl) {
+		int[] argTypes = new int[methodDecl.numChildren() - 1];
+		for (int i=0; i<argTypes.length; i++)
+			argTypes[i] = ((IrMethodArg) methodDecl.child(i)).getArgType().getTypeCode();
+		return new MethodSignature(methodDecl.getReturnType().getTypeCode(), argTypes);
+	}
+	
+	/**
+	 * Checks the parameters and body of a method already declared.
+	 */
+	private void checkMethodBody(IrMethodDecl methodDecl) {
+		checkMethodArgs(methodDecl);
+		checkBlock((IrBlock) methodDecl.child(methodDecl.numChildren() - 1));
+		endMethod(methodDecl);
+	}
+	
+	private void endMethod(IrMethodDecl methodDecl) {
+		IrBlock b = (IrBlock) methodDecl.child(methodDecl.numChildren() - 1);
 		if (b.getType() == Ir.ERROR) {
 			methodDecl.setType(Ir.ERROR);
 		}
+		methodDecl.setFrameSize(frameSize);
 		syms.endScope();
 	}
 	
+	/**
+	 * Checks the bodies left by checkMethodDecl() on the common pool,
+	 * then prints what each method printed, in declaration order.
+	 */
+	private void checkBodies(IrClassDecl classDecl) {
+		final List<MethodTask> tasks = new ArrayList<MethodTask>();
+		for (MethodTask t : bodies) {
+			if (t.declared)
+				tasks.add(t);
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		for (MethodTask t : bodies) {
+			out.write(t.messages, 0, t.messages.length);
+			if (t.method.getType() == Ir.ERROR && classDecl != null) {
+				classDecl.setType(Ir.ERROR);
+			}
+		}
+		bodies.clear();
+	}
+	
+	/**
+	 * Checks any method bodies still waiting, for a parse that a
+	 * syntax error stopped before it could call endProgram().
+	 */
+	void finishProgram() {
+		if (bodies != null && !bodies.isEmpty()) {
+			checkBodies(null);
+		}
+	}
+	
 	private void checkMethodArg(IrMethodArg arg) {
 		// leaf
 		if (debug)
-			System.out.println(arg.getLineNum() + ":" + arg);
+			out.println(arg.getLineNum() + ":" + arg);
 	}
 	
 	private void checkBlock(IrBlock b) {
 		if (!(b.parent() instanceof IrMethodDecl) && !(b.parent() instanceof IrForStmt)) {
 			syms.beginScope();
 		}
+		int outerLocals = numLocals;
 		int numChildren = b.numChildren();
 		if (debug)
-			System.out.println(b.getLineNum() + ":" + b + ", numChildren: " + numChildren);
+			out.println(b.getLineNum() + ":" + b + ", numChildren: " + numChildren);
 		// check var decls, statements
 		for (int i=0; i<numChildren; i++) {
 			IrNode n = b.child(i);
-			if (n instanceof IrVarDecl) {
-				checkVarDecl((IrVarDecl) n);
-			} else if (n instanceof IrStatement) {
-				checkStatement((IrStatement) n);
-			} else {
-				System.out.println("checkBlock: this shouldn't happen");
-			}
+			n.accept(checker); // an IrVarDecl or an IrStatement
 			if (n.getType() == Ir.ERROR) {
 				b.setType(Ir.ERROR);
 			}
 		}
+		numLocals = outerLocals;
 		if (!(b.parent() instanceof IrMethodDecl) && !(b.parent() instanceof IrForStmt)) {
 			syms.endScope();
 		}
@@ -251,7 +608,7 @@ public class SemanticChecker {
 	private void checkVarDecl(IrVarDecl v) {
 		// leaf
 		if (debug)
-			System.out.println(v.getLineNum() + ":" + v);
+			out.println(v.getLineNum() + ":" + v);
 		if (syms.isInScope(v.getVarId())) {
 			error(v, "redeclaration of identifier `" + 
 						v.getVarId() + "`");
@@ -263,35 +620,13 @@ public class SemanticChecker {
 	}
 	
 	private void checkStatement(IrStatement s) {
-		if (s instanceof IrAssignStmt) {
-			checkAssignStmt((IrAssignStmt) s);
-		} else if (s instanceof IrPlusAssignStmt) {
-			checkPlusAssignStmt((IrPlusAssignStmt) s);
-		} else if (s instanceof IrMinusAssignStmt) {
-			checkMinusAssignStmt((IrMinusAssignStmt) s);
-		} else if (s instanceof IrBreakStmt) {
-			checkBreakStmt((IrBreakStmt) s);
-		} else if (s instanceof IrIfStmt) {
-			checkIfStmt((IrIfStmt) s);
-		} else if (s instanceof IrForStmt) {
-			checkForStmt((IrForStmt) s);
-		} else if (s instanceof IrReturnStmt) {
-			checkReturnStmt((IrReturnStmt) s);
-		} else if (s instanceof IrContinueStmt) {
-			checkContinueStmt((IrContinueStmt) s);
-		} else if (s instanceof IrInvokeStmt) {
-			checkInvokeStmt((IrInvokeStmt) s);
-		}  else if (s instanceof IrBlock) {
-			checkBlock((IrBlock) s);
-		} else {
-			System.out.println("checkStatement: this shouldn't happen");
-		}
+		s.accept(checker);
 	}
 	
 	private void checkAssignStmt(IrAssignStmt s) {
 		int numChildren = s.numChildren();
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
+			out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
 		IrLocationExpr loc = (IrLocationExpr) s.child(0);
 		IrExpression e = (IrExpression) s.child(1);
 		checkLocationExpr(loc);
@@ -315,7 +650,7 @@ public class SemanticChecker {
 	private void checkPlusAssignStmt(IrPlusAssignStmt s) {
 		int numChildren = s.numChildren();
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
+			out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
 		IrLocationExpr loc = (IrLocationExpr) s.child(0);
 		IrExpression e = (IrExpression) s.child(1);
 		checkLocationExpr(loc);
@@ -338,7 +673,7 @@ public class SemanticChecker {
 	private void checkMinusAssignStmt(IrMinusAssignStmt s) {
 		int numChildren = s.numChildren();
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
+			out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
 		IrLocationExpr loc = (IrLocationExpr) s.child(0);
 		IrExpression e = (IrExpression) s.child(1);
 		checkLocationExpr(loc);
@@ -361,7 +696,7 @@ public class SemanticChecker {
 	private void checkBreakStmt(IrBreakStmt s) {
 		// leaf
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s);
+			out.println(s.getLineNum() + ":" + s);
 		IrNode n = s;
 		while (n.parent() != null) {
 			if (n.parent() instanceof IrForStmt) {
@@ -375,7 +710,7 @@ public class SemanticChecker {
 	private void checkIfStmt(IrIfStmt s) {
 		int numChildren = s.numChildren();
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
+			out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
 		IrExpression e = (IrExpression) s.child(0);
 		checkExpression(e);
 		e = (IrExpression) s.child(0);
@@ -404,9 +739,13 @@ public class SemanticChecker {
 		syms.beginScope();
 		int numChildren = s.numChildren();
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
-		syms.put(s.getInitId(), new IntEntry());
-		if (debug) syms.print();
+			out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
+		int outerLocals = numLocals;
+		IntEntry var = new IntEntry();
+		var.bind(s, s.getInitId(), SymbolTableEntry.LOCAL, newLocalSlot());
+		s.setBinding(var);
+		syms.put(s.getInitId(), var);
+		if (debug) syms.print(out);
 		IrExpression begin = (IrExpression) s.child(0);
 		IrExpression end = (IrExpression) s.child(1);
 		IrBlock b = (IrBlock) s.child(2);
@@ -418,19 +757,21 @@ public class SemanticChecker {
 		if (begin.getType() == Ir.ERROR || end.getType() == Ir.ERROR
 				|| b.getType() == Ir.ERROR) {
 			s.setType(Ir.ERROR);
+			numLocals = outerLocals;
 			syms.endScope();
 			return;
 		}
 		if (begin.getType() != Ir.INT || end.getType() != Ir.INT) {
 			error(s, "begin/end expressions in for-loop must have type int");
 		}
+		numLocals = outerLocals;
 		syms.endScope();
 	}
 
 	private void checkReturnStmt(IrReturnStmt s) {
 		int numChildren = s.numChildren();
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
+			out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
 		for (int i=0; i<numChildren; i++) {
 			IrExpression e = (IrExpression) s.child(i);
 			checkExpression(e);
@@ -477,7 +818,7 @@ public class SemanticChecker {
 	private void checkContinueStmt(IrContinueStmt s) {
 		// leaf
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s);
+			out.println(s.getLineNum() + ":" + s);
 		IrNode n = s;
 		while (n.parent() != null) {
 			if (n.parent() instanceof IrForStmt) {
@@ -491,7 +832,7 @@ public class SemanticChecker {
 	private void checkInvokeStmt(IrInvokeStmt s) {
 		int numChildren = s.numChildren();
 		if (debug)
-			System.out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
+			out.println(s.getLineNum() + ":" + s + ", numChildren: " + numChildren);
 		IrCallExpr e = (IrCallExpr) s.child(0);
 		checkExpression(e);
 		if (e.getType() == Ir.ERROR) {
@@ -500,41 +841,21 @@ public class SemanticChecker {
 	}
 
 	private void checkExpression(IrExpression e) {
-		if (e instanceof IrIntLiteral) {
-			checkIntLiteral((IrIntLiteral) e);
-		} else if (e instanceof IrBooleanLiteral) {
-			checkBooleanLiteral((IrBooleanLiteral) e);
-		} else if (e instanceof IrCharLiteral) {
-			checkCharLiteral((IrCharLiteral) e);
-		} else if (e instanceof IrStringLiteral) {
-			checkStringLiteral((IrStringLiteral) e);
-		} else if (e instanceof IrMethodCallExpr) {
-			checkMethodCallExpr((IrMethodCallExpr) e);
-		} else if (e instanceof IrCalloutExpr) {
-			checkCalloutExpr((IrCalloutExpr) e);
-		} else if (e instanceof IrBinopExpr) {
-			checkBinopExpr((IrBinopExpr) e);
-		} else if (e instanceof IrNotExpr) {
-			checkNotExpr((IrNotExpr) e);
-		} else if (e instanceof IrNegativeExpr) {
-			checkNegativeExpr((IrNegativeExpr) e);
-		} else if (e instanceof IrLocationExpr) {
-			checkLocationExpr((IrLocationExpr) e);
-		} else {
-			System.out.println("checkExpression: this shouldn't happen");
-		}
+		e.accept(checker);
 	}
 
 	private void checkLocationExpr(IrLocationExpr loc) {
 		int numChildren = loc.numChildren();
 		if (debug)
-			System.out.println(loc.getLineNum() + ":" + loc + ", numChildren: " + numChildren);
+			out.println(loc.getLineNum() + ":" + loc + ", numChildren: " + numChildren);
 		IrId id = loc.getId();
-		if (syms.lookup(id) == null) {
+		SymbolTableEntry entry = lookup(id);
+		if (entry == null) {
 			error(loc, "variable `" + id + "` used before being declared");
 			return;
 		}
-		int type = syms.lookup(id).getType();
+		loc.setBinding(entry);
+		int type = entry.getType();
 		if (loc instanceof IrArrayLocationExpr) {
 			// check the expression inside the []
 			IrExpression e = (IrExpression) loc.child(0);
@@ -568,7 +889,7 @@ public class SemanticChecker {
 	private void checkIntLiteral(IrIntLiteral e) {
 		// leaf
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e);
+			out.println(e.getLineNum() + ":" + e);
 		//if (!(e.parent() instanceof IrNegativeExpr)) {
 			// safe to go ahead and set int value, after
 			// checking range.
@@ -594,28 +915,28 @@ public class SemanticChecker {
 	private void checkBooleanLiteral(IrBooleanLiteral e) {
 		// leaf
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e);
+			out.println(e.getLineNum() + ":" + e);
 	}
 
 	private void checkCharLiteral(IrCharLiteral e) {
 		// leaf
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e);
+			out.println(e.getLineNum() + ":" + e);
 	}
 
 	private void checkStringLiteral(IrStringLiteral e) {
 		// leaf
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e);
+			out.println(e.getLineNum() + ":" + e);
 	}
 
 	private void checkMethodCallExpr(IrMethodCallExpr e) {
 		int numChildren = e.numChildren();
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
+			out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
 		IrId id = e.getId();
-		SymbolTableEntry entry = syms.lookup(id);
-		if (syms.lookup(id) == null) {
+		SymbolTableEntry entry = lookup(id);
+		if (entry == null) {
 			error(e, "method `" + id + "` called before being declared");
 			return;
 		}
@@ -623,6 +944,7 @@ public class SemanticChecker {
 			error(e, "identifier `" + id + "` in method call is not a method");
 			return;
 		}
+		e.setBinding((MethodEntry) entry);
 		MethodSignature sig = ((MethodEntry) entry).getSig();
 		int retType = sig.getReturnType();
 		if (retType == Ir.VOID && !(e.parent() instanceof IrInvokeStmt)) {
@@ -660,7 +982,7 @@ public class SemanticChecker {
 	private void checkCalloutExpr(IrCalloutExpr e) {
 		int numChildren = e.numChildren();
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
+			out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
 		for (int i=0; i<numChildren; i++) {
 			IrExpression arg = (IrExpression) e.child(i);
 			checkExpression(arg);
@@ -676,7 +998,7 @@ public class SemanticChecker {
 	private void checkBinopExpr(IrBinopExpr e) {
 		int numChildren = e.numChildren();
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
+			out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
 		IrExpression lhs = (IrExpression) e.child(0);
 		IrExpression rhs = (IrExpression) e.child(1);
 		checkExpression(lhs);
@@ -716,13 +1038,13 @@ public class SemanticChecker {
 				error(e, "both sides of operator " + IrOps.SYM[op] + " must have type boolean");
 		}
 		else 
-			System.out.println("checkBinopExpr: this shouldn't happen");
+			out.println("checkBinopExpr: this shouldn't happen");
 	}
 
 	private void checkNotExpr(IrNotExpr e) {
 		int numChildren = e.numChildren();
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
+			out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
 		IrExpression child = (IrExpression) e.child(0);
 		checkExpression(child);
 		int childT = child.getType();
@@ -741,7 +1063,7 @@ public class SemanticChecker {
 	private void checkNegativeExpr(IrNegativeExpr e) {
 		int numChildren = e.numChildren();
 		if (debug)
-			System.out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
+			out.println(e.getLineNum() + ":" + e + ", numChildren: " + numChildren);
 		IrExpression child = (IrExpression) e.child(0);
 		child = (IrExpression) e.child(0);
 		int childT = child.getType();
@@ -769,7 +1091,7 @@ public class SemanticChecker {
 
 	private void error(IrNode n, String message) {
 		n.setType(Ir.ERROR);
-		System.out.println("ERROR: at " + filename + 
+		out.println("ERROR: at " + filename + 
 				":" + n.getLineNum() + ": " + message);
 	}
 	
@@ -0,0 +1,130 @@
+package decaf;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import antlr.CharQueue;
+import antlr.CharScanner;
+import antlr.InputBuffer;
+
+/**
+ * The text of one source file, held in a single ByteBuffer.  Files are
+ * memory-mapped, so reading them costs no copying and no syscall per
+ * character; anything else (standard input, a socket) is read in large
+ * chunks into a heap buffer.
+ *
+ * Decaf source is 8-bit, so each byte is one char, the same as the
+ * DataInputStream the ANTLR scanner used to read from.  Scanners see the
+ * text either as a CharSequence or, for the ANTLR one, through
+ * inputBuffer().
+ */
+public class SourceBuffer implements CharSequence {
+	private static final int CHUNK = 64 * 1024;
+
+	private final ByteBuffer bytes;
+	private final int length;
+
+	public SourceBuffer(ByteBuffer bytes) {
+		this.bytes = bytes;
+		this.length = bytes.limit();
+	}
+
+	/**
+	 * Maps the named file into memory.
+	 */
+	public static SourceBuffer map(String file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			// the mapping stays valid after the channel is closed
+			return new SourceBuffer(channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads in to the end.
+	 */
+	public static SourceBuffer read(InputStream in) throws IOException {
+		byte[] buf = new byte[CHUNK];
+		int len = 0;
+		int n;
+		while ((n = in.read(buf, len, buf.length - len)) > 0) {
+			len += n;
+			if (len == buf.length) {
+				byte[] bigger = new byte[buf.length * 2];
+				System.arraycopy(buf, 0, bigger, 0, len);
+				buf = bigger;
+			}
+		}
+		return new SourceBuffer(ByteBuffer.wrap(buf, 0, len).slice());
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public char charAt(int i) {
+		return (char) (bytes.get(i) & 0xff);
+	}
+
+	/**
+	 * Returns the byte at i, for scanners that dispatch on bytes.
+	 */
+	public byte byteAt(int i) {
+		return bytes.get(i);
+	}
+
+	public String subSequence(int start, int end) {
+		char[] text = new char[end - start];
+		for (int i=start; i<end; i++)
+			text[i - start] = (char) (bytes.get(i) & 0xff);
+		return new String(text);
+	}
+
+	public String toString() {
+		return subSequence(0, length);
+	}
+
+	/**
+	 * Returns an ANTLR InputBuffer over this source, to construct a
+	 * DecafScanner with.
+	 */
+	public InputBuffer inputBuffer() {
+		return new Input();
+	}
+
+	/**
+	 * Feeds ANTLR's lookahead queue straight from the buffer, ending with
+	 * EOF_CHAR, as antlr.ByteBuffer does from an InputStream.
+	 */
+	private class Input extends InputBuffer {
+		private final Queue chars = new Queue();
+		private int next = 0;
+
+		Input() {
+			queue = chars;
+		}
+
+		public void fill(int amount) {
+			syncConsume();
+			while (chars.size() < amount + markerOffset)
+				chars.append(next < length ? charAt(next++) : CharScanner.EOF_CHAR);
+		}
+	}
+
+	// CharQueue hides its size from everyone but subclasses
+	private static class Queue extends CharQueue {
+		Queue() {
+			super(1);
+		}
+
+		int size() {
+			return nbrEntries;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package decaf;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import antlr.Token;
+import antlr.TokenStream;
+import antlr.TokenStreamException;
+
+/**
+ * What -stats reports about one compilation: the wall time, CPU time
+ * and heap allocated in each phase, and named counts such as IR nodes
+ * or what a pass did.  A Stats made without -stats ignores everything,
+ * so the pipeline can record into one unconditionally.
+ *
+ * CPU time and allocation are for the whole process, so that work
+ * handed to the fork-join pool is counted.  In a batch compiling
+ * several files at once they include the other files' work too.
+ */
+public class Stats {
+	private static final com.sun.management.OperatingSystemMXBean os =
+		(com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+	private static final com.sun.management.ThreadMXBean threads =
+		(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final boolean enabled;
+	private final List<Phase> phases = new ArrayList<Phase>();
+	private final Deque<Phase> open = new ArrayDeque<Phase>();
+	private final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+
+	private static class Phase {
+		final String name;
+		long wall, cpu, allocated;
+
+		Phase(String name) {
+			this.name = name;
+			this.wall = -System.nanoTime();
+			this.cpu = -os.getProcessCpuTime();
+			this.allocated = -allocatedBytes();
+		}
+
+		void end() {
+			wall += System.nanoTime();
+			cpu += os.getProcessCpuTime();
+			allocated += allocatedBytes();
+		}
+	}
+
+	/**
+	 * Bytes allocated so far by the threads still alive, which include
+	 * the pool's workers.
+	 */
+	private static long allocatedBytes() {
+		long sum = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (bytes > 0) // -1 for a thread that has since died
+				sum += bytes;
+		}
+		return sum;
+	}
+
+	public Stats(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts timing a phase.  Phases may nest; each is reported in the
+	 * order it began.
+	 */
+	public void begin(String phase) {
+		if (!enabled)
+			return;
+		Phase p = new Phase(phase);
+		phases.add(p);
+		open.push(p);
+	}
+
+	/**
+	 * Stops timing the phase begun last.
+	 */
+	public void end() {
+		if (!enabled)
+			return;
+		open.pop().end();
+	}
+
+	/**
+	 * Adds n to the count called name.  May be called from any thread.
+	 */
+	public synchronized void count(String name, long n) {
+		if (!enabled)
+			return;
+		Long old = counts.get(name);
+		counts.put(name, old == null ? n : old + n);
+	}
+
+	/**
+	 * Wraps lexer so the tokens it hands out are counted as "tokens".
+	 */
+	public TokenStream countTokens(final TokenStream lexer) {
+		if (!enabled)
+			return lexer;
+		return new TokenStream() {
+			private long n;
+
+			public Token nextToken() throws TokenStreamException {
+				Token t = lexer.nextToken();
+				n++;
+				if (t.getType() == Token.EOF_TYPE) {
+					count("tokens", n);
+					n = 0;
+				}
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * The number of nodes in the tree at n.
+	 */
+	public static int countNodes(IrNode n) {
+		int count = 1;
+		for (int i=0; i<n.numChildren(); i++)
+			count += countNodes(n.child(i));
+		return count;
+	}
+
+	/**
+	 * One line of JSON with everything recorded for file, which
+	 * compiled with the given exit status.
+	 */
+	public synchronized String toJson(String file, int status) {
+		StringBuilder s = new StringBuilder();
+		s.append("{\"file\":");
+		quote(file, s);
+		s.append(",\"status\":").append(status);
+		s.append(",\"phases\":[");
+		for (int i=0; i<phases.size(); i++) {
+			Phase p = phases.get(i);
+			if (i > 0)
+				s.append(',');
+			s.append("{\"phase\":");
+			quote(p.name, s);
+			s.append(",\"wallNs\":").append(p.wall)
+				.append(",\"cpuNs\":").append(p.cpu)
+				.append(",\"allocBytes\":").append(p.allocated).append('}');
+		}
+		s.append("],\"counts\":{");
+		boolean first = true;
+		for (Map.Entry<String, Long> e : counts.entrySet()) {
+			if (!first)
+				s.append(',');
+			first = false;
+			quote(e.getKey(), s);
+			s.append(':').append(e.getValue());
+		}
+		return s.append("}}").toString();
+	}
+
+	private static void quote(String str, StringBuilder s) {
+		if (str == null) {
+			s.append("null");
+			return;
+		}
+		s.append('"');
+		for (int i=0; i<str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == '"' || c == '\\')
+				s.append('\\').append(c);
+			else if (c < ' ')
+				s.append(String.format("\\u%04x", (int) c));
+			else
+				s.append(c);
+		}
+		s.append('"');
+	}
+}
@@ -1,42 +1,152 @@
 package decaf;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * Nested scopes of symbols, kept flat: for each identifier, a chain of
+ * its bindings from innermost out, indexed by IrId number, so lookup
+ * is one array access however deep the nesting.  Each scope's bindings
+ * are logged as they are made, and endScope() unlinks just those.
+ *
+ * If asked to, the table also keeps the tree of Scopes it has seen, to
+ * print when debugging.
+ */
 public class SymbolTable
 {
+	private Binding[] bindings; // innermost binding of each id, by number
+	private List<Binding> log;  // bindings of the open scopes, oldest first
+	private int[] marks;        // size of log when each open scope began
+	private int depth;          // number of open scopes; 1 is global
+	// global bindings made while inner scopes were open
+	private List<Binding> lateGlobals;
+	
+	private final boolean keepScopes;
 	private Scope global; // root of tree is global scope
 	private Scope curr;
+	// scopes this table continues, or null; see SymbolTable(SymbolTable)
+	private final SymbolTable outer;
 
 	public SymbolTable() {
+		this(false);
+	}
+	
+	/**
+	 * If keepScopes is true, print() shows every scope opened so far.
+	 */
+	public SymbolTable(boolean keepScopes) {
+		this.bindings = new Binding[64];
+		this.log = new ArrayList<Binding>();
+		this.marks = new int[16];
+		this.depth = 0;
+		this.lateGlobals = new ArrayList<Binding>();
+		this.keepScopes = keepScopes;
 		this.global = null;
 		this.curr = null;
+		this.outer = null;
+	}
+	
+	/**
+	 * A table whose scopes nest inside outer's current scope, as if
+	 * they were opened on outer.  Lookups fall through to outer, as
+	 * does isInScope() while no scope of this table's own is open, and
+	 * putGlobal() goes straight to outer.  Otherwise outer is left
+	 * alone, so any number of such tables can read it at once, as long
+	 * as nothing changes it meanwhile.
+	 */
+	public SymbolTable(SymbolTable outer) {
+		this.bindings = new Binding[64];
+		this.log = new ArrayList<Binding>();
+		this.marks = new int[16];
+		this.depth = 0;
+		this.lateGlobals = new ArrayList<Binding>();
+		this.keepScopes = false;
+		this.global = null;
+		this.curr = null;
+		this.outer = outer;
+	}
+	
+	private Binding binding(IrId id) {
+		int n = id.getNum();
+		return n < bindings.length ? bindings[n] : null;
+	}
+	
+	private void setBinding(IrId id, Binding b) {
+		int n = id.getNum();
+		if (n >= bindings.length) {
+			Binding[] bigger = new Binding[Math.max(n + 1, bindings.length * 2)];
+			System.arraycopy(bindings, 0, bigger, 0, bindings.length);
+			bindings = bigger;
+		}
+		bindings[n] = b;
 	}
 
 	public SymbolTableEntry lookup(IrId id) {
-		SymbolTableEntry e;
-        for (Scope s = curr; s != null; s = s.parent()) {
-        	if ((e = s.get(id)) != null)
-        		return e;
-        }
-        return null;
+		Binding b = binding(id);
+		if (b == null)
+			return outer == null ? null : outer.lookup(id);
+		return b.entry;
     }
 
 	public boolean isInScope(IrId id) {
-		return curr.get(id) != null;		
+		if (depth == 0 && outer != null)
+			return outer.isInScope(id);
+		Binding b = binding(id);
+		return b != null && b.depth == depth;
 	}
 	
     public void put(IrId id, SymbolTableEntry entry) {
-        curr.put(id, entry);
+    	Binding b = binding(id);
+    	if (b != null && b.depth == depth)
+    		b.entry = entry;
+    	else {
+    		b = new Binding(id, entry, depth, b);
+    		setBinding(id, b);
+    		log.add(b);
+    	}
+    	if (keepScopes)
+    		curr.put(id, entry);
     }
 
     public void putGlobal(IrId id, SymbolTableEntry entry) {
-    	global.put(id, entry);
+    	if (outer != null) {
+    		outer.putGlobal(id, entry);
+    		return;
+    	}
+    	// the global binding, if any, is the outermost one
+    	Binding outer = null;
+    	for (Binding b = binding(id); b != null; b = b.shadowed)
+    		outer = b;
+    	if (outer != null && outer.depth == 1)
+    		outer.entry = entry;
+    	else {
+    		Binding b = new Binding(id, entry, 1, null);
+    		if (outer == null)
+    			setBinding(id, b);
+    		else
+    			outer.shadowed = b;
+    		if (depth == 1)
+    			log.add(b);
+    		else
+    			lateGlobals.add(b);
+    	}
+    	if (keepScopes)
+    		global.put(id, entry);
     }
     
     public void beginScope() {
+    	if (depth == marks.length) {
+    		int[] bigger = new int[depth * 2];
+    		System.arraycopy(marks, 0, bigger, 0, depth);
+    		marks = bigger;
+    	}
+    	marks[depth++] = log.size();
+    	if (!keepScopes)
+    		return;
     	if (global == null) {
     		global = new Scope(null);
     		curr = global;
@@ -49,17 +159,46 @@ public class SymbolTable
     }
 
     public void endScope() {
-        curr = curr.parent();
+    	int mark = marks[--depth];
+    	for (int i = log.size() - 1; i >= mark; i--)
+    		unlink(log.remove(i));
+    	if (depth == 0) {
+    		for (Binding b : lateGlobals)
+    			unlink(b);
+    		lateGlobals.clear();
+    	}
+    	if (keepScopes)
+    		curr = curr.parent();
+    }
+    
+    private void unlink(Binding b) {
+    	if (binding(b.id) == b)
+    		setBinding(b.id, b.shadowed);
     }
     
-    public void print() {
-    	System.out.println("============ SCOPES ==========================");
-    	printR(global, 0);
+    public void print(PrintStream out) {
+    	out.println("============ SCOPES ==========================");
+    	if (global != null)
+    		printR(out, global, 0);
     }
-    private void printR(Scope s, int level) {
-    	s.print(level);
+    private void printR(PrintStream out, Scope s, int level) {
+    	s.print(out, level);
     	for (int i=0; i<s.numChildren(); i++)
-    		printR(s.child(i), level+1);
+    		printR(out, s.child(i), level+1);
+    }
+    
+    private static class Binding {
+    	final IrId id;
+    	SymbolTableEntry entry;
+    	final int depth;
+    	Binding shadowed; // next binding out, or null
+    	
+    	Binding(IrId id, SymbolTableEntry entry, int depth, Binding shadowed) {
+    		this.id = id;
+    		this.entry = entry;
+    		this.depth = depth;
+    		this.shadowed = shadowed;
+    	}
     }
 }
 
@@ -98,29 +237,68 @@ class Scope {
 		return this.map.get(id);
 	}	
 	
-	public void print(int indentLevel) {
+	public void print(PrintStream out, int indentLevel) {
 		String indent = "";
 		for (int i=0; i<indentLevel; i++) {
 			indent += "  ";
 		}
-		System.out.println(indent + "- - - - - - - - - - - - -");
+		out.println(indent + "- - - - - - - - - - - - -");
         Set<IrId> keys = map.keySet();
         for (IrId id : keys) {
-            System.out.println(indent + id + " -> " + map.get(id));
+            out.println(indent + id + " -> " + map.get(id));
         }
     }
 }
 
+/**
+ * What one declaration binds its name to.  Besides the type, an entry
+ * records, once the checker has bound it, where the declaration is,
+ * its storage class, and its slot: the field's index among the
+ * globals, the parameter's position, or the local's frame slot.  The
+ * checker caches entries on the IR nodes that use them, so later
+ * passes need not look names up again.
+ */
 abstract class SymbolTableEntry
 {
-	private IrType type;
+	// storage classes
+	static final int GLOBAL = 0;
+	static final int PARAM = 1;
+	static final int LOCAL = 2;
+	static final String[] STORAGE = {"global", "param", "local"};
+	
+	private int type; // type code; see Ir
     private boolean initialized;
+    private IrNode decl;
+    private IrId id;
+    private int storage;
+    private int slot = -1;
     
+    /**
+     * Records that decl declares this entry under id.
+     */
+    public void bind(IrNode decl, IrId id, int storage, int slot) {
+    	this.decl = decl;
+    	this.id = id;
+    	this.storage = storage;
+    	this.slot = slot;
+    }
+    public IrNode getDecl() {
+    	return this.decl;
+    }
+    public IrId getId() {
+    	return this.id;
+    }
+    public int getStorage() {
+    	return this.storage;
+    }
+    public int getSlot() {
+    	return this.slot;
+    }
     public int getType() {
-        return this.type.getTypeCode();
+        return this.type;
     }
     public void setType(int typeCode) {
-        this.type = new IrType(typeCode);
+        this.type = typeCode;
     }
     public void setInitialized(boolean initialized) {
         this.initialized = initialized;
@@ -180,63 +358,107 @@ class BoolEntry extends SymbolTableEntry
         return s;
     }
 }
+/**
+ * An int array.  Its elements are kept in an int[], which is only
+ * allocated when the first element is set; until then every element
+ * reads as 0, as a Decaf array starts out.
+ */
 class IntArrayEntry extends SymbolTableEntry
 {
-    private List<Integer> list;
-    private long declSize = 0;
+    private int[] values;
+    private final int declSize;
 
-    public IntArrayEntry(long declSize) {
+    public IntArrayEntry(int declSize) {
         setType(Ir.INTARRAY);
         this.declSize = declSize;
         setInitialized(false);
-        this.list = null;
+        this.values = null;
     }
-    public IntArrayEntry(List<Integer> list) {
+    public IntArrayEntry(int[] values) {
         setType(Ir.INTARRAY);
-        this.list = new ArrayList<Integer>(list);
+        setInitialized(true);
+        this.declSize = values.length;
+        this.values = values.clone();
     }
-    public long getSize() {
-        return this.list.size();
+    public int getSize() {
+        return this.declSize;
     }
     public int getValue(int index) {
-        return this.list.get(index).intValue();
+    	if (this.values == null) {
+    		checkIndex(index);
+    		return 0;
+    	}
+        return this.values[index];
+    }
+    public void setValue(int index, int value) {
+    	if (this.values == null) {
+    		checkIndex(index);
+    		this.values = new int[declSize];
+    		setInitialized(true);
+    	}
+    	this.values[index] = value;
+    }
+    private void checkIndex(int index) {
+    	if (index < 0 || index >= declSize)
+    		throw new ArrayIndexOutOfBoundsException(index);
     }
     public String toString() {
         String s = "INTARRAY["+declSize+"]";
         if (!isInitialized())
             s += " (not initialized)";
         else
-            s += ", value="+list;
+            s += ", value="+Arrays.toString(values);
         return s;
     }
 }
+/**
+ * A boolean array, kept like an IntArrayEntry but in a boolean[].
+ */
 class BoolArrayEntry extends SymbolTableEntry
 {
-    private List<Boolean> list;
-    private long declSize = 0;
+    private boolean[] values;
+    private final int declSize;
 
-    public BoolArrayEntry(long declSize) {
+    public BoolArrayEntry(int declSize) {
         setType(Ir.BOOLARRAY);
         this.declSize = declSize;
         setInitialized(false);
-        this.list = null;
+        this.values = null;
     }
-    public BoolArrayEntry(List<Boolean> list) {
+    public BoolArrayEntry(boolean[] values) {
         setType(Ir.BOOLARRAY);
-        this.list = new ArrayList<Boolean>(list);
+        setInitialized(true);
+        this.declSize = values.length;
+        this.values = values.clone();
     }
     public int getSize() {
-        return this.list.size();
+        return this.declSize;
     }
     public boolean getValue(int index) {
-        return this.list.get(index).booleanValue();
+    	if (this.values == null) {
+    		checkIndex(index);
+    		return false;
+    	}
+        return this.values[index];
+    }
+    public void setValue(int index, boolean value) {
+    	if (this.values == null) {
+    		checkIndex(index);
+    		this.values = new boolean[declSize];
+    		setInitialized(true);
+    	}
+    	this.values[index] = value;
+    }
+    private void checkIndex(int index) {
+    	if (index < 0 || index >= declSize)
+    		throw new ArrayIndexOutOfBoundsException(index);
     }
     public String toString() {
-        String s = "BOOLARRAY"+declSize+"]";
+        String s = "BOOLARRAY["+declSize+"]";
         if (!isInitialized())
             s += " (not initialized)";
         else
-            s += ", value="+list;
+            s += ", value="+Arrays.toString(values);
         return s;
     }
 }
@@ -257,33 +479,34 @@ class MethodEntry extends SymbolTableEntry
 }
 
 class MethodSignature {
-    private IrType returnType;
-    private List<IrType> argTypes;
+    private final int returnType; // VOID, INT or BOOL
+    private final int[] argTypes;
 
-    public MethodSignature(IrType returnType, List<IrType> argTypes) {
+    public MethodSignature(int returnType, int[] argTypes) {
         this.returnType = returnType;
-        this.argTypes = new ArrayList<IrType>(argTypes);
+        this.argTypes = argTypes.clone();
     }
     public IrType returnType() {
-        return this.returnType; // void/int/boolean
+        return IrType.of(this.returnType); // void/int/boolean
     }
     public int getReturnType() {
-        return this.returnType.getTypeCode();
+        return this.returnType;
     }
     public int numArgs() {
-        return this.argTypes.size();
+        return this.argTypes.length;
     }
     public int getArgType(int index) {
-        return this.argTypes.get(index).getTypeCode();
+        return this.argTypes[index];
     }
     public String toString() {
         String s = "";
-        s += "("+returnType+") (";
-        if (!argTypes.isEmpty())
-            s += argTypes.get(0).toString();
-        for (int i=1; i < argTypes.size(); i++)
-            s += ", " + argTypes.get(i).toString();
+        s += "("+IrType.of(returnType)+") (";
+        for (int i=0; i < argTypes.length; i++) {
+        	if (i > 0)
+        		s += ", ";
+            s += IrType.of(argTypes[i]).toString();
+        }
         s += ")";
         return s;
     }
-}
\ No newline at end of file
+}
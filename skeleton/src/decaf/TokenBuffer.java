@@ -0,0 +1,175 @@
+package decaf;
+
+import java.util.ArrayList;
+import antlr.RecognitionException;
+import antlr.Token;
+import antlr.TokenStream;
+import antlr.TokenStreamException;
+import antlr.TokenStreamRecognitionException;
+
+/**
+ * Every token of a source file, scanned up front by a DfaScanner and
+ * kept as parallel int arrays of type, line, column, start offset and
+ * length into the SourceBuffer.  Token text is never stored; it is cut
+ * out of the source only when someone asks for it.
+ *
+ * Scanning errors are kept in order with the tokens, and the scanner
+ * skips the offending character and goes on, as Main's scan loop does.
+ * Read back as a TokenStream, the buffer throws each error where it
+ * occurred, so to its reader it behaves just like the scanner did.
+ */
+public class TokenBuffer implements TokenStream {
+	// type of an entry recording a scanning error; its start is an
+	// index into errors
+	private static final int ERROR = Token.INVALID_TYPE;
+
+	private final SourceBuffer src;
+	private int[] types;
+	private int[] lines;
+	private int[] columns;
+	private int[] starts;
+	private int[] lengths;
+	private int size;
+	private final ArrayList<RecognitionException> errors =
+		new ArrayList<RecognitionException>();
+	private int next; // next entry nextToken() returns
+
+	/**
+	 * Scans all of src.  The last token is always EOF.
+	 */
+	public TokenBuffer(SourceBuffer src) {
+		this.src = src;
+		int capacity = src.length() / 4 + 16;
+		types = new int[capacity];
+		lines = new int[capacity];
+		columns = new int[capacity];
+		starts = new int[capacity];
+		lengths = new int[capacity];
+		DfaScanner scanner = new DfaScanner(src);
+		int type;
+		do {
+			try {
+				type = scanner.scan();
+				add(type, scanner.tokenLine, scanner.tokenColumn,
+						scanner.tokenStart, scanner.tokenEnd() - scanner.tokenStart);
+			} catch (RecognitionException e) {
+				type = ERROR;
+				add(ERROR, e.getLine(), e.getColumn(), errors.size(), 0);
+				errors.add(e);
+				scanner.consume();
+			}
+		} while (type != Token.EOF_TYPE);
+	}
+
+	private void add(int type, int line, int column, int start, int length) {
+		if (size == types.length) {
+			int capacity = size * 2;
+			types = grow(types, capacity);
+			lines = grow(lines, capacity);
+			columns = grow(columns, capacity);
+			starts = grow(starts, capacity);
+			lengths = grow(lengths, capacity);
+		}
+		types[size] = type;
+		lines[size] = line;
+		columns[size] = column;
+		starts[size] = start;
+		lengths[size] = length;
+		size++;
+	}
+
+	private static int[] grow(int[] a, int capacity) {
+		int[] bigger = new int[capacity];
+		System.arraycopy(a, 0, bigger, 0, a.length);
+		return bigger;
+	}
+
+	/**
+	 * Number of entries, counting errors and the final EOF.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int type(int i) {
+		return types[i];
+	}
+
+	public boolean isError(int i) {
+		return types[i] == ERROR;
+	}
+
+	/**
+	 * The scanning error recorded at entry i.
+	 */
+	public RecognitionException error(int i) {
+		return errors.get(starts[i]);
+	}
+
+	public int line(int i) {
+		return lines[i];
+	}
+
+	public int column(int i) {
+		return columns[i];
+	}
+
+	public int start(int i) {
+		return starts[i];
+	}
+
+	public int length(int i) {
+		return lengths[i];
+	}
+
+	/**
+	 * Makes a String of token i's text; null for EOF.
+	 */
+	public String text(int i) {
+		if (types[i] == Token.EOF_TYPE)
+			return null;
+		return src.subSequence(starts[i], starts[i] + lengths[i]);
+	}
+
+	/**
+	 * Returns the next token, or throws the next error.  Keeps returning
+	 * EOF once the end is reached.
+	 */
+	public Token nextToken() throws TokenStreamException {
+		int i = next;
+		if (next < size - 1)
+			next++;
+		if (types[i] == ERROR)
+			throw new TokenStreamRecognitionException(error(i));
+		return new Ref(i);
+	}
+
+	/**
+	 * A token handed out by nextToken(): just an index into the buffer,
+	 * with its text made on demand.
+	 */
+	class Ref extends Token {
+		private final int index;
+
+		Ref(int index) {
+			super(types[index]);
+			this.index = index;
+		}
+
+		public int getLine() {
+			return lines[index];
+		}
+
+		public int getColumn() {
+			return columns[index];
+		}
+
+		public String getText() {
+			return text(index);
+		}
+
+		IrId intern(IdTable ids) {
+			return ids.intern(src, starts[index], starts[index] + lengths[index]);
+		}
+	}
+}
@@ -7,7 +7,12 @@ import java.util.Vector;
  * provides command-line parsing for student projects.  It recognizes
  * the required <tt>-target</tt>, <tt>-debug</tt>, <tt>-opt</tt>, and
  * <tt>-o</tt> switches, and generates a name for input and output
- * files.
+ * files.  It also recognizes <tt>-batch</tt> and <tt>-server</tt>,
+ * which keep one compiler process running across many input files,
+ * <tt>-threads</tt>, which compiles that many of them at once, and
+ * <tt>-cache</tt>, which keeps lowered code across processes.
+ * <tt>-scanner</tt> picks which scanner reads the input, and
+ * <tt>-stats</tt> reports the time and memory each phase took.
  *
  * @author  6.035 Staff (<tt>6.035-staff@mit.edu</tt>)
  */
@@ -52,6 +57,22 @@ public class CLI
      */
     public static final int ASSEMBLY = 5;
 
+    /**
+     * Scanner value selecting the ANTLR-generated scanner.
+     */
+    public static final int ANTLR_SCANNER = 0;
+
+    /**
+     * Scanner value selecting the hand-written DFA scanner.
+     */
+    public static final int DFA_SCANNER = 1;
+
+    /**
+     * Scanner value selecting the DFA scanner, run over the whole input
+     * up front into a compact token buffer.
+     */
+    public static final int BUFFERED_SCANNER = 2;
+
     /**
      * Array indicating which optimizations should be performed.  If
      * a particular element is true, it indicates that the optimization
@@ -77,6 +98,12 @@ public class CLI
      * Name of the file to put the output in.
      */
     public static String outfile;
+
+    /**
+     * True if <tt>-o</tt> named the output file.  Otherwise outfile,
+     * if set, is only the name <tt>outfileFor</tt> gives infile.
+     */
+    public static boolean outfileGiven;
   
     /**
      * Name of the file to get input from.  This is null if the user didn't
@@ -84,6 +111,54 @@ public class CLI
      */
     public static String infile;
 
+    /**
+     * Names of all the files to get input from, in command-line order.
+     * The first element (if any) is the same as <tt>infile</tt>; the
+     * others are only compiled in batch mode.
+     */
+    public static Vector<String> infiles;
+
+    /**
+     * The batch flag.  This is true if <tt>-batch</tt> was passed on
+     * the command line, requesting that every file in <tt>infiles</tt>
+     * (or, if there are none, every file named on standard input) be
+     * compiled by this one process.  Each file's output goes to the
+     * file named by <tt>outfileFor</tt>; <tt>-o</tt> is ignored.
+     */
+    public static boolean batch;
+
+    /**
+     * The local port given with <tt>-server</tt>, or 0 if the compiler
+     * should not listen for batch requests on a socket.
+     */
+    public static int port;
+
+    /**
+     * Number of files to compile at once in batch mode, as given with
+     * <tt>-threads</tt>.  Defaults to 1.
+     */
+    public static int threads;
+
+    /**
+     * Which scanner to use, as given with <tt>-scanner</tt>.  This
+     * should be ANTLR_SCANNER (the default), DFA_SCANNER or
+     * BUFFERED_SCANNER.
+     */
+    public static int scanner;
+
+    /**
+     * The directory given with <tt>-cache</tt> to keep each method's
+     * lowered code in between runs, or null for no cache.
+     */
+    public static String cachedir;
+
+    /**
+     * The stats flag.  This is true if <tt>-stats</tt> was passed on
+     * the command line, requesting a line of JSON on standard error
+     * with the time and memory each phase took.
+     */
+    public static boolean stats;
+
     /**
      * The target stage.  This should be one of the integer constants
      * defined elsewhere in this package.
@@ -107,6 +182,9 @@ public class CLI
 	outfile = null;
 	infile = null;
 	target = DEFAULT;
+	threads = 1;
+	scanner = ANTLR_SCANNER;
+	infiles = new Vector<String>();
 	extras = new Vector<String>();
 	extraopts = new Vector<String>();
     }
@@ -123,6 +201,17 @@ public class CLI
      * <TT>lowir</TT> specifies CLI.LOWIR
      * <TT>assembly</TT> or <TT>codegen</TT> specifies CLI.ASSEMBLY
      *
+     * <TT>-batch</TT> sets CLI.batch, <TT>-server <I>port</I></TT>
+     * sets CLI.port, and <TT>-threads <I>n</I></TT> sets CLI.threads.
+     * The last two imply <TT>-batch</TT>.
+     *
+     * <TT>-scanner <I>scanner</I></TT> sets CLI.scanner: <TT>antlr</TT>
+     * specifies CLI.ANTLR_SCANNER, <TT>dfa</TT> CLI.DFA_SCANNER and
+     * <TT>buffered</TT> CLI.BUFFERED_SCANNER.
+     *
+     * <TT>-cache <I>dir</I></TT> sets CLI.cachedir, and <TT>-stats</TT>
+     * sets CLI.stats.
+     *
      * The boolean array opts[] indicates which, if any, of the
      * optimizations in optnames[] should be performed; these arrays
      * are in the same order.
@@ -133,7 +222,6 @@ public class CLI
     public static void parse(String args[], String optnames[])
     {
 	int context = 0;
-	String ext = ".out";
 
 	opts = new boolean[optnames.length];
 
@@ -150,6 +238,24 @@ public class CLI
 		    context = 2;
 		else if (args[i].equals("-target"))
 		    context = 3;
+		else if (args[i].equals("-stats"))
+		    {
+			context = 0;
+			stats = true;
+		    }
+		else if (args[i].equals("-batch"))
+		    {
+			context = 0;
+			batch = true;
+		    }
+		else if (args[i].equals("-server"))
+		    context = 4;
+		else if (args[i].equals("-threads"))
+		    context = 5;
+		else if (args[i].equals("-scanner"))
+		    context = 6;
+		else if (args[i].equals("-cache"))
+		    context = 7;
 		else if (context == 1)
 		    {
 			boolean hit = false;
@@ -173,6 +279,7 @@ public class CLI
 		else if (context == 2)
 		    {
 			outfile = args[i];
+			outfileGiven = true;
 			context = 0;
 		    }
 		else if (context == 3)
@@ -196,23 +303,68 @@ public class CLI
 			    target = DEFAULT; // Anything else is just default
 			context = 0;
 		    }
+		else if (context == 4)
+		    {
+			port = Integer.parseInt(args[i]);
+			batch = true;
+			context = 0;
+		    }
+		else if (context == 5)
+		    {
+			threads = Integer.parseInt(args[i]);
+			batch = true;
+			context = 0;
+		    }
+		else if (context == 6)
+		    {
+			if (args[i].equalsIgnoreCase("dfa"))
+			    scanner = DFA_SCANNER;
+			else if (args[i].equalsIgnoreCase("buffered"))
+			    scanner = BUFFERED_SCANNER;
+			else
+			    scanner = ANTLR_SCANNER;
+			context = 0;
+		    }
+		else if (context == 7)
+		    {
+			cachedir = args[i];
+			context = 0;
+		    }
 		else
 		    extras.addElement(args[i]);
 	    }
 
-	// grab infile and lose extra args
+	// grab infiles and lose extra args
 	int i = 0;
-	while (infile == null && i < extras.size())
+	while (i < extras.size())
 	    {
 		String fn = (String) extras.elementAt(i);
 	  
 		if (fn.charAt(0) != '-')
 		    {
-			infile = fn;
+			infiles.addElement(fn);
 			extras.removeElementAt(i);
 		    }
-		i++;
+		else
+		    i++;
 	    }
+	if (infile == null && !infiles.isEmpty())
+	    infile = infiles.firstElement();
+
+	if (outfile == null && infile != null)
+	    outfile = outfileFor(infile);
+    }
+
+    /**
+     * Generate the name of the output file for an input file, based on
+     * the current target.  The extension of <I>infile</I>, if it has
+     * one, is replaced with one naming the target stage.
+     *
+     * @param infile Name of the input file.
+     */
+    public static String outfileFor(String infile)
+    {
+	String ext;
 
 	// create outfile name
 	switch (target) {
@@ -237,20 +389,14 @@ public class CLI
 	    break;
 	}
 
-	if (outfile == null && infile != null)
-	    {
-		int dot = infile.lastIndexOf('.');
-		int slash = infile.lastIndexOf('/');
-		// Last dot comes after last slash means that the file
-		// has an extention.  Note that the base case where dot
-		// or slash are -1 also work.
-		if (dot <= slash)
-		    outfile = infile + ext;
-		else
-		    outfile = infile.substring(0, dot) + ext;
-	    }
+	int dot = infile.lastIndexOf('.');
+	int slash = infile.lastIndexOf('/');
+	// Last dot comes after last slash means that the file
+	// has an extention.  Note that the base case where dot
+	// or slash are -1 also work.
+	if (dot <= slash)
+	    return infile + ext;
+	else
+	    return infile.substring(0, dot) + ext;
     }
 }
-
-
-